@@ -0,0 +1,138 @@
+package org.gephi.plugins.mcp.api;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.gephi.plugins.mcp.service.Metrics;
+
+/**
+ * Limits how many requests of each class run at once, so a burst of heavy work
+ * (statistics, imports, exports) cannot starve interactive reads. Each class has
+ * -Dgephi.mcp.admission.&lt;class&gt;.limit slots and lets up to
+ * -Dgephi.mcp.admission.&lt;class&gt;.queue requests wait for one, for at most
+ * -Dgephi.mcp.admission.timeout seconds; beyond that callers get 429.
+ */
+final class AdmissionController {
+
+    enum Lane {
+        /** GET requests that only read the graph. */
+        READ,
+        /** Requests that change the graph or Gephi state. */
+        WRITE,
+        /** Long-running work: statistics, imports, exports, subgraph extraction. */
+        HEAVY,
+        /** Never limited: health, metrics, job polling and event streams. */
+        EXEMPT
+    }
+
+    /** A held slot; closing it frees the slot. */
+    interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final Permit NO_PERMIT = () -> {};
+
+    private static final class Limiter {
+        final int limit;
+        final int queueLimit;
+        final Semaphore slots;
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicLong avgHoldNanos = new AtomicLong();   // moving average, for Retry-After
+        final Metrics.AdmissionStats stats;
+
+        Limiter(Lane lane, int limit, int queueLimit) {
+            this.limit = Math.max(1, limit);
+            this.queueLimit = Math.max(0, queueLimit);
+            this.slots = new Semaphore(this.limit, true);
+            String name = lane.name().toLowerCase();
+            this.stats = Metrics.get().admission(name, () -> this.limit - slots.availablePermits(), slots::getQueueLength);
+        }
+
+        Permit granted() {
+            long start = System.nanoTime();
+            return () -> {
+                long held = System.nanoTime() - start;
+                avgHoldNanos.getAndUpdate(avg -> avg == 0 ? held : avg + (held - avg) / 8);
+                slots.release();
+            };
+        }
+    }
+
+    private final Map<Lane, Limiter> limiters = new EnumMap<>(Lane.class);
+    private final long timeoutNanos;
+
+    AdmissionController(int readLimit, int readQueue, int writeLimit, int writeQueue,
+                        int heavyLimit, int heavyQueue, long timeoutSeconds) {
+        limiters.put(Lane.READ, new Limiter(Lane.READ, readLimit, readQueue));
+        limiters.put(Lane.WRITE, new Limiter(Lane.WRITE, writeLimit, writeQueue));
+        limiters.put(Lane.HEAVY, new Limiter(Lane.HEAVY, heavyLimit, heavyQueue));
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(1, timeoutSeconds));
+    }
+
+    static AdmissionController fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new AdmissionController(
+            Integer.getInteger("gephi.mcp.admission.read.limit", Math.max(4, cores * 2)),
+            Integer.getInteger("gephi.mcp.admission.read.queue", 64),
+            Integer.getInteger("gephi.mcp.admission.write.limit", 2),
+            Integer.getInteger("gephi.mcp.admission.write.queue", 32),
+            Integer.getInteger("gephi.mcp.admission.heavy.limit", 2),
+            Integer.getInteger("gephi.mcp.admission.heavy.queue", 4),
+            Long.getLong("gephi.mcp.admission.timeout", 30));
+    }
+
+    /**
+     * Waits for a slot in lane's class. Returns null, without waiting, when the
+     * class's queue is already full, or after the timeout if no slot freed up.
+     */
+    Permit tryEnter(Lane lane) throws InterruptedException {
+        Limiter l = limiters.get(lane);
+        if (l == null) return NO_PERMIT;
+        long start = System.nanoTime();
+        if (l.slots.tryAcquire(0, TimeUnit.NANOSECONDS)) {   // unlike tryAcquire(), respects waiters ahead
+            l.stats.recordWait(0);
+            return l.granted();
+        }
+        if (l.waiting.incrementAndGet() > l.queueLimit) {
+            l.waiting.decrementAndGet();
+            l.stats.recordRejected();
+            return null;
+        }
+        try {
+            if (!l.slots.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                l.stats.recordRejected();
+                return null;
+            }
+        } finally {
+            l.waiting.decrementAndGet();
+        }
+        l.stats.recordWait(System.nanoTime() - start);
+        return l.granted();
+    }
+
+    /**
+     * Waits as long as it takes, outside the queue limit. For background jobs,
+     * which were already admitted by the job queue but should still share their
+     * class's slots with synchronous requests.
+     */
+    Permit enter(Lane lane) throws InterruptedException {
+        Limiter l = limiters.get(lane);
+        if (l == null) return NO_PERMIT;
+        long start = System.nanoTime();
+        l.slots.acquire();
+        l.stats.recordWait(System.nanoTime() - start);
+        return l.granted();
+    }
+
+    /** Suggested Retry-After in whole seconds: roughly how long the current queue takes to drain. */
+    int retryAfterSeconds(Lane lane) {
+        Limiter l = limiters.get(lane);
+        if (l == null) return 1;
+        double drain = (double) l.avgHoldNanos.get() * (l.slots.getQueueLength() + 1) / l.limit;
+        return (int) Math.max(1, Math.min(60, Math.ceil(drain / 1e9)));
+    }
+}
@@ -0,0 +1,68 @@
+package org.gephi.plugins.mcp.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A connection's input stream that knows whether its thread is blocked in a
+ * read, and whether that read waits for a new request: the previous request
+ * was served and no byte of the next one has arrived. Such a keep-alive
+ * connection is idle and can be closed without losing work. A read blocked
+ * for longer than a timeout makes the connection {@link #stalled}.
+ */
+final class ConnectionInput extends FilterInputStream {
+
+    private volatile boolean reading;
+    private volatile boolean betweenRequests = true;
+    private volatile long readStart;
+
+    ConnectionInput(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        begin();
+        try {
+            int b = super.read();
+            if (b >= 0) betweenRequests = false;
+            return b;
+        } finally {
+            reading = false;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        begin();
+        try {
+            int n = super.read(b, off, len);
+            if (n > 0) betweenRequests = false;
+            return n;
+        } finally {
+            reading = false;
+        }
+    }
+
+    private void begin() {
+        readStart = System.nanoTime();
+        reading = true;
+    }
+
+    /** Marks the end of a request; reads from here on wait for the next one. */
+    void requestDone() {
+        betweenRequests = true;
+    }
+
+    /** Whether the connection is blocked waiting for its next request. */
+    boolean idle() {
+        return reading && betweenRequests;
+    }
+
+    /** Whether the current read has been blocked for more than timeoutMillis. */
+    boolean stalled(long timeoutMillis) {
+        return reading && System.nanoTime() - readStart > TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+}
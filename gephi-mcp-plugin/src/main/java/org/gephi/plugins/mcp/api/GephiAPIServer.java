@@ -1,27 +1,62 @@
 package org.gephi.plugins.mcp.api;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 import fi.iki.elonen.NanoHTTPD;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.gephi.plugins.mcp.api.AdmissionController.Lane;
+import org.gephi.plugins.mcp.service.AttributeQuery;
 import org.gephi.plugins.mcp.service.GephiControlService;
+import org.gephi.plugins.mcp.service.JobManager;
+import org.gephi.plugins.mcp.service.Metrics;
+import org.gephi.plugins.mcp.service.Projection;
 
 public class GephiAPIServer extends NanoHTTPD {
 
     private static final Logger LOGGER = Logger.getLogger(GephiAPIServer.class.getName());
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Gson GSON = new Gson();
     private final GephiControlService service;
+    private final RouteTable routes = new RouteTable();
+    private final WorkerAsyncRunner runner;
+    private final JobManager jobs;
+    private final ResponseCache cache = ResponseCache.fromSystemProperties();
+    private final AdmissionController admission = AdmissionController.fromSystemProperties();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile UnixSocketListener unixListener;
+    private final Metrics.RouteStats unmatchedStats = Metrics.get().route("ANY", "unmatched");
 
     public GephiAPIServer(int port) {
         super("127.0.0.1", port);
         this.service = GephiControlService.getInstance();
+        this.runner = WorkerAsyncRunner.fromSystemProperties();
+        this.jobs = JobManager.fromSystemProperties();
+        setAsyncRunner(runner);
+        registerRoutes();
+        Metrics metrics = Metrics.get();
+        metrics.gauge("gephi_mcp_requests_in_flight", "Requests currently being handled.", inFlight::get);
+        metrics.gauge("gephi_mcp_connections_open", "Open client connections, TCP and Unix socket.", runner::openConnections);
+        metrics.gauge("gephi_mcp_jobs_running", "Background jobs currently running.", jobs::runningCount);
+        metrics.gauge("gephi_mcp_jobs_queued", "Background jobs waiting for a worker.", jobs::queuedCount);
+        metrics.gauge("gephi_mcp_response_cache_bytes", "Bytes held by the GET response cache.", cache::bytes);
     }
 
     @Override
@@ -34,527 +69,924 @@ public class GephiAPIServer extends NanoHTTPD {
         if (Method.OPTIONS.equals(method)) {
             Response response = newFixedLengthResponse(Response.Status.OK, "text/plain", "");
             addCorsHeaders(response);
+            runner.requestDone();
             return response;
         }
 
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        RouteTable.Match match = routes.match(method, uri);
+        Response response;
         try {
-            JsonObject requestBody = null;
-            if (Method.POST.equals(method) || Method.PUT.equals(method)) {
-                Map<String, String> files = new HashMap<>();
-                session.parseBody(files);
-                String body = files.get("postData");
-                if (body != null && !body.isEmpty()) {
-                    requestBody = JsonParser.parseString(body).getAsJsonObject();
-                }
+            if (match == null) {
+                response = newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json",
+                    GSON.toJson(errorResult("Unknown endpoint: " + method + " " + uri)));
+                if (contentLength(session) > 0) response.closeConnection(true);   // body left unread
+            } else {
+                response = admitAndDispatch(session, method, match);
             }
-
-            JsonObject result = routeRequest(uri, method, session.getParms(), requestBody);
-
-            Response.Status status = result.has("success") && result.get("success").getAsBoolean()
-                ? Response.Status.OK : Response.Status.BAD_REQUEST;
-
-            Response response = newFixedLengthResponse(status, "application/json", GSON.toJson(result));
             addCorsHeaders(response);
+        } finally {
+            inFlight.decrementAndGet();
+            runner.requestDone();
+        }
+        Metrics.RouteStats stats = match != null ? match.route.stats() : unmatchedStats;
+        stats.record(response.getStatus().getRequestStatus(), System.nanoTime() - start,
+            contentLength(session), bodyLength(response));
+        return response;
+    }
+
+    /** Dispatches once the route's admission class has a free slot, or answers 429. */
+    private Response admitAndDispatch(IHTTPSession session, Method method, RouteTable.Match match) {
+        Lane lane = match.route.lane();
+        AdmissionController.Permit permit;
+        try {
+            permit = admission.tryEnter(lane);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            permit = null;
+        }
+        if (permit == null) {
+            Response response = tooBusy("Server busy: too many " + lane.name().toLowerCase() + " requests, retry later",
+                admission.retryAfterSeconds(lane));
+            if (contentLength(session) > 0) response.closeConnection(true);   // body left unread
             return response;
+        }
+        try {
+            return dispatch(session, method, match);
+        } finally {
+            permit.close();
+        }
+    }
 
+    private Response dispatch(IHTTPSession session, Method method, RouteTable.Match match) {
+        Response response = null;
+        try {
+            if (match.route.bodyHandler() != null) {
+                response = dispatchStreamed(session, match);
+            } else if (Method.GET.equals(method) && match.route.isCacheable(session.getParms())) {
+                response = dispatchCached(session, match);
+            } else {
+                response = invoke(session, method, match);
+            }
+            return response;
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "API error", e);
-            JsonObject error = new JsonObject();
-            error.addProperty("success", false);
-            error.addProperty("error", e.getMessage());
-            Response response = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "application/json", GSON.toJson(error));
-            addCorsHeaders(response);
-            return response;
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "application/json",
+                GSON.toJson(errorResult(e.getMessage())));
+        } finally {
+            if (modifies(method, match.route, response)) service.markModified();
         }
     }
 
+    /**
+     * Whether a request may have changed the graph: a non-GET request to a route
+     * that can change it, answered with success. A streamed body counts even when
+     * it fails, since what was read before the error has been applied.
+     */
+    private static boolean modifies(Method method, Route route, Response response) {
+        if (Method.GET.equals(method) || Method.HEAD.equals(method) || route.isKeepingVersion()) return false;
+        if (route.bodyHandler() != null) return true;
+        return response != null && response.getStatus() == Response.Status.OK;
+    }
+
+    private Response invoke(IHTTPSession session, Method method, RouteTable.Match match) throws Exception {
+        JsonObject requestBody = null;
+        if (Method.POST.equals(method) || Method.PUT.equals(method)) {
+            Map<String, String> files = new HashMap<>();
+            session.parseBody(files);
+            String body = files.get("postData");
+            if (body != null && !body.isEmpty()) {
+                requestBody = JsonParser.parseString(body).getAsJsonObject();
+            }
+        }
+
+        RouteRequest req = new RouteRequest(session.getParms(), requestBody, match.pathParams);
+        Route route = match.route;
+        return route.handler() != null
+            ? jsonResponse(req.pretty(), route.handler().handle(req))
+            : route.responseHandler().handle(req);
+    }
+
+    /**
+     * Serves a cacheable GET: 304 when If-None-Match names the current graph
+     * version, the cached body when one was rendered at that version, otherwise
+     * the handler's response, kept for next time. The version is read before the
+     * handler runs, so a body is never tagged newer than the graph it shows.
+     */
+    private Response dispatchCached(IHTTPSession session, RouteTable.Match match) throws Exception {
+        long version = service.graphVersion();
+        if (version < 0) return invoke(session, Method.GET, match);
+        String etag = "W/\"" + version + "\"";
+        if (matchesETag(session.getHeaders().get("if-none-match"), version)) {
+            return withETag(newFixedLengthResponse(Response.Status.NOT_MODIFIED, "application/json", ""), etag);
+        }
+        String key = cacheKey(session);
+        ResponseCache.Entry cached = cache.get(key, version);
+        if (cached != null) {
+            return withETag(newFixedLengthResponse(Response.Status.OK, cached.mimeType,
+                new ByteArrayInputStream(cached.body), cached.body.length), etag);
+        }
+        Response response = invoke(session, Method.GET, match);
+        if (response.getStatus() != Response.Status.OK) return response;
+        long size = bodyLength(response);
+        if (cache.accepts(size)) {
+            // The body reads from this thread's ResponseBuffer; keep a copy and answer from it.
+            byte[] body = new byte[(int) size];
+            response.getData().readNBytes(body, 0, body.length);
+            cache.put(key, new ResponseCache.Entry(version, response.getMimeType(), body));
+            response = newFixedLengthResponse(Response.Status.OK, response.getMimeType(),
+                new ByteArrayInputStream(body), body.length);
+        }
+        return withETag(response, etag);
+    }
+
+    /** Listings are cached unless their records show visual state the graph version does not track; see {@link ResponseCache}. */
+    private boolean cacheableListing(Map<String, String> params) {
+        return cache.coversVisual() || !Projection.fromParams(params).includesVisual();
+    }
+
+    /** Weak comparison against each tag in an If-None-Match list; "*" matches any version. */
+    private static boolean matchesETag(String header, long version) {
+        if (header == null) return false;
+        String current = "\"" + version + "\"";
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(current)) return true;
+        }
+        return false;
+    }
+
+    private static String cacheKey(IHTTPSession session) {
+        String query = session.getQueryParameterString();
+        return query == null || query.isEmpty() ? session.getUri() : session.getUri() + "?" + query;
+    }
+
+    /** Clients must revalidate (no-cache) but can do so cheaply with If-None-Match. */
+    private static Response withETag(Response response, String etag) {
+        response.addHeader("ETag", etag);
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
+    }
+
+    /**
+     * Hands the raw request body to the route's JsonReader-based handler, so bulk
+     * payloads are never materialized as a String or JsonObject. If the handler
+     * stops before the end of the body the connection is closed after the
+     * response rather than re-synchronized.
+     */
+    private Response dispatchStreamed(IHTTPSession session, RouteTable.Match match) throws Exception {
+        long length = contentLength(session);
+        if (length < 0) return jsonResponse(false, errorResult("Content-Length required"));
+        RequestBodyStream body = new RequestBodyStream(session.getInputStream(), length);
+        RouteRequest req = new RouteRequest(session.getParms(), null, match.pathParams);
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        Response response = jsonResponse(req.pretty(), match.route.bodyHandler().handle(req, reader));
+        if (body.remaining() > 0) response.closeConnection(true);
+        return response;
+    }
+
+    private static long contentLength(IHTTPSession session) {
+        String header = session.getHeaders().get("content-length");
+        if (header == null) return -1;
+        try { return Long.parseLong(header.trim()); }
+        catch (NumberFormatException e) { return -1; }
+    }
+
+    /** Size of a fixed-length body; -1 for streamed ones, whose length is unknown until sent. */
+    private static long bodyLength(Response response) {
+        InputStream data = response.getData();
+        return data instanceof ByteArrayInputStream ? ((ByteArrayInputStream) data).available() : -1;
+    }
+
     @SuppressWarnings("unchecked")
-    private JsonObject routeRequest(String uri, Method method, Map<String, String> params, JsonObject body) {
+    private void registerRoutes() {
 
         // ─── Health ──────────────────────────────────────────────────
 
-        if ("/health".equals(uri) || "/".equals(uri)) {
+        Route.Handler health = req -> {
             JsonObject result = new JsonObject();
             result.addProperty("success", true);
             result.addProperty("service", "Gephi MCP API");
             result.addProperty("version", "2.0.0");
             result.addProperty("status", "running");
             return result;
+        };
+        for (Method m : Method.values()) {
+            if (Method.OPTIONS.equals(m)) continue;
+            routes.add(m, "/health", health).lane(Lane.EXEMPT);
+            routes.add(m, "/", health).lane(Lane.EXEMPT);
         }
 
+        routes.addRaw(Method.GET, "/metrics", req -> newFixedLengthResponse(Response.Status.OK,
+            "text/plain; version=0.0.4; charset=utf-8", Metrics.get().render())).lane(Lane.EXEMPT);
+
         // ─── Project ─────────────────────────────────────────────────
 
-        if ("/project/new".equals(uri) && Method.POST.equals(method)) {
-            String name = body != null && body.has("name") ? body.get("name").getAsString() : "New Project";
+        routes.add(Method.POST, "/project/new", req -> {
+            String name = req.body != null && req.body.has("name") ? req.body.get("name").getAsString() : "New Project";
             return service.createProject(name);
-        }
+        });
 
-        if ("/project/open".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file' parameter");
-            return service.openProject(body.get("file").getAsString());
-        }
+        routes.add(Method.POST, "/project/open", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file' parameter");
+            return service.openProject(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY);
 
-        if ("/project/save".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file' parameter");
-            return service.saveProject(body.get("file").getAsString());
-        }
+        routes.add(Method.POST, "/project/save", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file' parameter");
+            return service.saveProject(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY).keepsVersion();
 
-        if ("/project/info".equals(uri) && Method.GET.equals(method)) {
-            return service.getProjectInfo();
-        }
+        routes.add(Method.GET, "/project/info", req -> service.getProjectInfo());
 
         // ─── Workspace ───────────────────────────────────────────────
 
-        if ("/workspace/new".equals(uri) && Method.POST.equals(method)) {
-            return service.newWorkspace();
-        }
+        routes.add(Method.POST, "/workspace/new", req -> service.newWorkspace());
 
-        if ("/workspace/list".equals(uri) && Method.GET.equals(method)) {
-            return service.listWorkspaces();
-        }
+        routes.add(Method.GET, "/workspace/list", req -> service.listWorkspaces());
 
-        if ("/workspace/switch".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("index")) return errorResult("Missing 'index'");
-            return service.switchWorkspace(body.get("index").getAsInt());
-        }
+        routes.add(Method.POST, "/workspace/switch", req -> {
+            if (req.body == null || !req.body.has("index")) return errorResult("Missing 'index'");
+            return service.switchWorkspace(req.body.get("index").getAsInt());
+        });
 
-        if ("/workspace/delete".equals(uri) && Method.DELETE.equals(method)) {
-            int index = params.containsKey("index") ? Integer.parseInt(params.get("index")) : -1;
-            if (index < 0 && body != null && body.has("index")) index = body.get("index").getAsInt();
+        routes.add(Method.DELETE, "/workspace/delete", req -> {
+            int index = req.params.containsKey("index") ? Integer.parseInt(req.params.get("index")) : -1;
+            if (index < 0 && req.body != null && req.body.has("index")) index = req.body.get("index").getAsInt();
             if (index < 0) return errorResult("Missing 'index'");
             return service.deleteWorkspace(index);
-        }
+        });
 
         // ─── Nodes ───────────────────────────────────────────────────
 
-        if ("/graph/node/add".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id")) return errorResult("Missing 'id' parameter");
-            String id = body.get("id").getAsString();
-            String label = body.has("label") ? body.get("label").getAsString() : null;
+        routes.addLocked(Method.POST, "/graph/node/add", req -> {
+            if (req.body == null || !req.body.has("id")) return errorResult("Missing 'id' parameter");
+            String id = req.body.get("id").getAsString();
+            String label = req.body.has("label") ? req.body.get("label").getAsString() : null;
             Map<String, Object> attrs = null;
-            if (body.has("attributes") && body.get("attributes").isJsonObject()) {
-                attrs = GSON.fromJson(body.get("attributes"), Map.class);
+            if (req.body.has("attributes") && req.body.get("attributes").isJsonObject()) {
+                attrs = GSON.fromJson(req.body.get("attributes"), Map.class);
             }
             return service.addNode(id, label, attrs);
-        }
+        });
 
-        if ("/graph/nodes/add".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("nodes")) return errorResult("Missing 'nodes' array");
-            List<Map<String, Object>> nodes = GSON.fromJson(body.get("nodes"), List.class);
-            return service.addNodes(nodes);
-        }
+        routes.addStreamed(Method.POST, "/graph/nodes/add", (req, body) -> service.addNodes(body));
+        routes.addStreamed(Method.POST, "/graph/nodes/upsert", (req, body) -> service.upsertNodes(body));
 
-        if (uri.startsWith("/graph/node/") && uri.length() > "/graph/node/".length() && Method.DELETE.equals(method)) {
-            String nodeId = uri.substring("/graph/node/".length());
-            if (nodeId.isEmpty()) return errorResult("Missing node ID");
-            return service.removeNode(nodeId);
-        }
+        routes.addLocked(Method.DELETE, "/graph/node/{id*}", req -> service.removeNode(req.pathParam("id")));
 
-        if ("/graph/nodes/remove".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("ids")) return errorResult("Missing 'ids' array");
-            List<String> ids = GSON.fromJson(body.get("ids"), List.class);
+        routes.addLocked(Method.POST, "/graph/nodes/remove", req -> {
+            if (req.body == null || !req.body.has("ids")) return errorResult("Missing 'ids' array");
+            List<String> ids = GSON.fromJson(req.body.get("ids"), List.class);
             return service.bulkRemoveNodes(ids);
-        }
-
-        if ("/graph/nodes".equals(uri) && Method.GET.equals(method)) {
-            int limit = parseIntParam(params.get("limit"), 100);
-            int offset = parseIntParam(params.get("offset"), 0);
-            return service.queryNodes(null, null, limit, offset);
-        }
-
-        if ("/graph/node/label".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id") || !body.has("label")) return errorResult("Missing 'id' or 'label'");
-            return service.setNodeLabel(body.get("id").getAsString(), body.get("label").getAsString());
-        }
-
-        if ("/graph/node/position".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id")) return errorResult("Missing 'id'");
-            float x = body.has("x") ? body.get("x").getAsFloat() : 0;
-            float y = body.has("y") ? body.get("y").getAsFloat() : 0;
-            return service.setNodePosition(body.get("id").getAsString(), x, y);
-        }
-
-        if ("/graph/nodes/positions".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("positions")) return errorResult("Missing 'positions' array");
-            List<Map<String, Object>> positions = GSON.fromJson(body.get("positions"), List.class);
+        });
+
+        routes.addRaw(Method.GET, "/graph/nodes", req -> {
+            int offset = parseIntParam(req.params.get("offset"), 0);
+            Projection projection = Projection.fromParams(req.params);
+            AttributeQuery query;
+            try {
+                query = AttributeQuery.fromParams(req.params);
+                if (isNdjson(req)) {
+                    int limit = parseIntParam(req.params.get("limit"), Integer.MAX_VALUE);
+                    return ndjsonResponse(service.streamNodes(limit, offset, query, projection));
+                }
+            } catch (IllegalArgumentException e) {
+                return jsonResponse(req.pretty(), errorResult(e.getMessage()));
+            }
+            int limit = parseIntParam(req.params.get("limit"), 100);
+            String cursor = req.params.get("cursor");
+            return writtenResponse(req, out -> service.writeNodes(out, limit, offset, query, cursor, projection));
+        }).cacheableWhen(this::cacheableListing);
+
+        routes.addRaw(Method.GET, "/graph/nodes/top", req -> {
+            String column = req.params.get("column");
+            String by = req.params.getOrDefault("by", "degree");
+            String order = req.params.getOrDefault("order", "desc");
+            if (!order.equals("desc") && !order.equals("asc")) {
+                return jsonResponse(req.pretty(), errorResult("Unknown order '" + order + "'. Use: desc, asc"));
+            }
+            int k = Math.min(parseIntParam(req.params.get("k"), 10), MAX_TOP_K);
+            Projection projection = Projection.fromParams(req.params);
+            return writtenResponse(req, out -> service.writeTopNodes(out, by, column, k, order.equals("asc"), projection));
+        }).cacheableWhen(this::cacheableListing);
+
+        routes.addLocked(Method.POST, "/graph/node/label", req -> {
+            if (req.body == null || !req.body.has("id") || !req.body.has("label")) return errorResult("Missing 'id' or 'label'");
+            return service.setNodeLabel(req.body.get("id").getAsString(), req.body.get("label").getAsString());
+        });
+
+        routes.addLocked(Method.POST, "/graph/node/position", req -> {
+            if (req.body == null || !req.body.has("id")) return errorResult("Missing 'id'");
+            float x = req.body.has("x") ? req.body.get("x").getAsFloat() : 0;
+            float y = req.body.has("y") ? req.body.get("y").getAsFloat() : 0;
+            return service.setNodePosition(req.body.get("id").getAsString(), x, y);
+        });
+
+        routes.addLocked(Method.POST, "/graph/nodes/positions", req -> {
+            if (req.body == null || !req.body.has("positions")) return errorResult("Missing 'positions' array");
+            List<Map<String, Object>> positions = GSON.fromJson(req.body.get("positions"), List.class);
             return service.batchSetPositions(positions);
-        }
+        });
 
         // ─── Edges ───────────────────────────────────────────────────
 
-        if ("/graph/edge/add".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target"))
+        routes.addLocked(Method.POST, "/graph/edge/add", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target"))
                 return errorResult("Missing 'source' or 'target'");
-            String source = body.get("source").getAsString();
-            String target = body.get("target").getAsString();
-            Double weight = body.has("weight") ? body.get("weight").getAsDouble() : 1.0;
-            boolean directed = !body.has("directed") || body.get("directed").getAsBoolean();
+            String source = req.body.get("source").getAsString();
+            String target = req.body.get("target").getAsString();
+            Double weight = req.body.has("weight") ? req.body.get("weight").getAsDouble() : 1.0;
+            boolean directed = !req.body.has("directed") || req.body.get("directed").getAsBoolean();
             return service.addEdge(source, target, weight, directed);
-        }
+        });
 
-        if ("/graph/edges/add".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("edges")) return errorResult("Missing 'edges' array");
-            List<Map<String, Object>> edges = GSON.fromJson(body.get("edges"), List.class);
-            return service.addEdges(edges);
-        }
+        routes.addStreamed(Method.POST, "/graph/edges/add", (req, body) -> service.addEdges(body));
 
-        if ("/graph/edge/remove".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target"))
+        routes.addLocked(Method.POST, "/graph/edge/remove", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target"))
                 return errorResult("Missing 'source' or 'target'");
-            return service.removeEdge(body.get("source").getAsString(), body.get("target").getAsString());
-        }
+            return service.removeEdge(req.body.get("source").getAsString(), req.body.get("target").getAsString());
+        });
 
-        if ("/graph/edge/weight".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target") || !body.has("weight"))
+        routes.addLocked(Method.POST, "/graph/edge/weight", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target") || !req.body.has("weight"))
                 return errorResult("Missing 'source', 'target', or 'weight'");
             return service.setEdgeWeight(
-                body.get("source").getAsString(),
-                body.get("target").getAsString(),
-                body.get("weight").getAsDouble()
+                req.body.get("source").getAsString(),
+                req.body.get("target").getAsString(),
+                req.body.get("weight").getAsDouble()
             );
-        }
+        });
 
-        if ("/graph/edge/label".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target") || !body.has("label"))
+        routes.addLocked(Method.POST, "/graph/edge/label", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target") || !req.body.has("label"))
                 return errorResult("Missing 'source', 'target', or 'label'");
             return service.setEdgeLabel(
-                body.get("source").getAsString(),
-                body.get("target").getAsString(),
-                body.get("label").getAsString()
+                req.body.get("source").getAsString(),
+                req.body.get("target").getAsString(),
+                req.body.get("label").getAsString()
             );
-        }
+        });
+
+        routes.addRaw(Method.GET, "/graph/edges", req -> {
+            int offset = parseIntParam(req.params.get("offset"), 0);
+            Projection projection = Projection.fromParams(req.params);
+            if (isNdjson(req)) {
+                int limit = parseIntParam(req.params.get("limit"), Integer.MAX_VALUE);
+                try {
+                    return ndjsonResponse(service.streamEdges(limit, offset, projection));
+                } catch (IllegalArgumentException e) {
+                    return jsonResponse(req.pretty(), errorResult(e.getMessage()));
+                }
+            }
+            int limit = parseIntParam(req.params.get("limit"), 100);
+            String cursor = req.params.get("cursor");
+            return writtenResponse(req, out -> service.writeEdges(out, limit, offset, cursor, projection));
+        }).cacheableWhen(this::cacheableListing);
+
+        // ─── Spatial Queries ─────────────────────────────────────────
+
+        routes.addRaw(Method.GET, "/graph/spatial/box", req -> {
+            double x1 = parseDoubleParam(req.params.get("x1"), Double.NaN), y1 = parseDoubleParam(req.params.get("y1"), Double.NaN);
+            double x2 = parseDoubleParam(req.params.get("x2"), Double.NaN), y2 = parseDoubleParam(req.params.get("y2"), Double.NaN);
+            if (Double.isNaN(x1) || Double.isNaN(y1) || Double.isNaN(x2) || Double.isNaN(y2)) {
+                return jsonResponse(req.pretty(), errorResult("Missing or invalid 'x1', 'y1', 'x2' or 'y2'"));
+            }
+            int limit = parseIntParam(req.params.get("limit"), 1000);
+            Projection projection = Projection.fromParams(req.params);
+            return writtenResponse(req, out -> service.writeNodesInBox(out, x1, y1, x2, y2, limit, projection));
+        }).cacheableWhen(params -> cache.coversVisual());
+
+        routes.addRaw(Method.GET, "/graph/spatial/nearest", req -> {
+            String id = req.params.get("id");
+            double x = parseDoubleParam(req.params.get("x"), Double.NaN), y = parseDoubleParam(req.params.get("y"), Double.NaN);
+            if (id == null && (Double.isNaN(x) || Double.isNaN(y))) {
+                return jsonResponse(req.pretty(), errorResult("Give 'id' or both 'x' and 'y'"));
+            }
+            int k = parseIntParam(req.params.get("k"), 10);
+            Projection projection = Projection.fromParams(req.params);
+            return writtenResponse(req, out -> service.writeNearestNodes(out, id, x, y, k, projection));
+        }).cacheableWhen(params -> cache.coversVisual());
+
+        routes.addRaw(Method.GET, "/graph/spatial/radius", req -> {
+            String id = req.params.get("id");
+            double x = parseDoubleParam(req.params.get("x"), Double.NaN), y = parseDoubleParam(req.params.get("y"), Double.NaN);
+            double r = parseDoubleParam(req.params.get("r"), Double.NaN);
+            if (id == null && (Double.isNaN(x) || Double.isNaN(y))) {
+                return jsonResponse(req.pretty(), errorResult("Give 'id' or both 'x' and 'y'"));
+            }
+            if (Double.isNaN(r)) return jsonResponse(req.pretty(), errorResult("Missing or invalid 'r'"));
+            int limit = parseIntParam(req.params.get("limit"), 1000);
+            Projection projection = Projection.fromParams(req.params);
+            return writtenResponse(req, out -> service.writeNodesInRadius(out, id, x, y, r, limit, projection));
+        }).cacheableWhen(params -> cache.coversVisual());
 
-        if ("/graph/edges".equals(uri) && Method.GET.equals(method)) {
-            int limit = parseIntParam(params.get("limit"), 100);
-            int offset = parseIntParam(params.get("offset"), 0);
-            return service.queryEdges(limit, offset);
-        }
+        // ─── Change Log ──────────────────────────────────────────────
+
+        routes.addRaw(Method.GET, "/graph/changes", req -> {
+            String tag = req.params.get("since");   // a bare version or a whole ETag
+            long since = parseLongParam(tag != null ? tag.replace("W/", "").replace("\"", "") : null, -1);
+            int limit = parseIntParam(req.params.get("limit"), 10_000);
+            return writtenResponse(req, out -> service.writeChanges(out, since, limit));
+        });
 
         // ─── Graph Stats & Type ──────────────────────────────────────
 
-        if ("/graph/stats".equals(uri) && Method.GET.equals(method)) {
-            return service.getGraphStats();
-        }
+        routes.addLocked(Method.GET, "/graph/stats", req -> service.getGraphStats()).cacheable();
 
-        if ("/graph/type".equals(uri) && Method.GET.equals(method)) {
-            return service.getGraphType();
-        }
+        routes.addLocked(Method.GET, "/graph/type", req -> service.getGraphType()).cacheable();
 
         // ─── Attributes / Columns ────────────────────────────────────
 
-        if ("/graph/columns".equals(uri) && Method.GET.equals(method)) {
-            String target = params.getOrDefault("target", "node");
+        routes.addLocked(Method.GET, "/graph/columns", req -> {
+            String target = req.params.getOrDefault("target", "node");
             return service.getColumns(target);
-        }
+        }).cacheable();
 
-        if ("/graph/columns/add".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("name") || !body.has("type"))
+        routes.addLocked(Method.POST, "/graph/columns/add", req -> {
+            if (req.body == null || !req.body.has("name") || !req.body.has("type"))
                 return errorResult("Missing 'name' or 'type'");
-            String target = body.has("target") ? body.get("target").getAsString() : "node";
-            return service.addColumn(body.get("name").getAsString(), body.get("type").getAsString(), target);
-        }
+            String target = req.body.has("target") ? req.body.get("target").getAsString() : "node";
+            return service.addColumn(req.body.get("name").getAsString(), req.body.get("type").getAsString(), target);
+        });
 
-        if ("/graph/node/attributes".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id") || !body.has("attributes"))
+        routes.addLocked(Method.POST, "/graph/node/attributes", req -> {
+            if (req.body == null || !req.body.has("id") || !req.body.has("attributes"))
                 return errorResult("Missing 'id' or 'attributes'");
-            Map<String, Object> attrs = GSON.fromJson(body.get("attributes"), Map.class);
-            return service.setNodeAttributes(body.get("id").getAsString(), attrs);
-        }
+            Map<String, Object> attrs = GSON.fromJson(req.body.get("attributes"), Map.class);
+            return service.setNodeAttributes(req.body.get("id").getAsString(), attrs);
+        });
 
-        if ("/graph/nodes/attributes".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("updates")) return errorResult("Missing 'updates' array");
-            List<Map<String, Object>> updates = GSON.fromJson(body.get("updates"), List.class);
-            return service.batchSetNodeAttributes(updates);
-        }
+        routes.addStreamed(Method.POST, "/graph/nodes/attributes", (req, body) -> service.batchSetNodeAttributes(body));
+
+        routes.addStreamed(Method.POST, "/graph/nodes/column", (req, body) -> service.writeNodeColumn(body));
 
-        if ("/graph/edge/attributes".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target") || !body.has("attributes"))
+        routes.addLocked(Method.POST, "/graph/edge/attributes", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target") || !req.body.has("attributes"))
                 return errorResult("Missing 'source', 'target', or 'attributes'");
-            Map<String, Object> attrs = GSON.fromJson(body.get("attributes"), Map.class);
+            Map<String, Object> attrs = GSON.fromJson(req.body.get("attributes"), Map.class);
             return service.setEdgeAttributes(
-                body.get("source").getAsString(),
-                body.get("target").getAsString(),
+                req.body.get("source").getAsString(),
+                req.body.get("target").getAsString(),
                 attrs
             );
-        }
+        });
 
         // ─── Appearance ──────────────────────────────────────────────
 
-        if ("/appearance/node/color".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id")) return errorResult("Missing 'id'");
-            int r = body.has("r") ? body.get("r").getAsInt() : 0;
-            int g = body.has("g") ? body.get("g").getAsInt() : 0;
-            int b = body.has("b") ? body.get("b").getAsInt() : 0;
-            int a = body.has("a") ? body.get("a").getAsInt() : 255;
-            return service.setNodeColor(body.get("id").getAsString(), r, g, b, a);
-        }
-
-        if ("/appearance/node/size".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("id") || !body.has("size")) return errorResult("Missing 'id' or 'size'");
-            return service.setNodeSize(body.get("id").getAsString(), body.get("size").getAsFloat());
-        }
-
-        if ("/appearance/edge/color".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("source") || !body.has("target"))
+        routes.addLocked(Method.POST, "/appearance/node/color", req -> {
+            if (req.body == null || !req.body.has("id")) return errorResult("Missing 'id'");
+            int r = req.body.has("r") ? req.body.get("r").getAsInt() : 0;
+            int g = req.body.has("g") ? req.body.get("g").getAsInt() : 0;
+            int b = req.body.has("b") ? req.body.get("b").getAsInt() : 0;
+            int a = req.body.has("a") ? req.body.get("a").getAsInt() : 255;
+            return service.setNodeColor(req.body.get("id").getAsString(), r, g, b, a);
+        });
+
+        routes.addLocked(Method.POST, "/appearance/node/size", req -> {
+            if (req.body == null || !req.body.has("id") || !req.body.has("size")) return errorResult("Missing 'id' or 'size'");
+            return service.setNodeSize(req.body.get("id").getAsString(), req.body.get("size").getAsFloat());
+        });
+
+        routes.add(Method.POST, "/appearance/edge/color", req -> {
+            if (req.body == null || !req.body.has("source") || !req.body.has("target"))
                 return errorResult("Missing 'source' or 'target'");
-            int r = body.has("r") ? body.get("r").getAsInt() : 0;
-            int g = body.has("g") ? body.get("g").getAsInt() : 0;
-            int b = body.has("b") ? body.get("b").getAsInt() : 0;
-            int a = body.has("a") ? body.get("a").getAsInt() : 255;
-            return service.setEdgeColor(body.get("source").getAsString(), body.get("target").getAsString(), r, g, b, a);
-        }
-
-        if ("/appearance/nodes/color".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("nodes")) return errorResult("Missing 'nodes' array");
-            List<Map<String, Object>> nodes = GSON.fromJson(body.get("nodes"), List.class);
+            int r = req.body.has("r") ? req.body.get("r").getAsInt() : 0;
+            int g = req.body.has("g") ? req.body.get("g").getAsInt() : 0;
+            int b = req.body.has("b") ? req.body.get("b").getAsInt() : 0;
+            int a = req.body.has("a") ? req.body.get("a").getAsInt() : 255;
+            return service.setEdgeColor(req.body.get("source").getAsString(), req.body.get("target").getAsString(), r, g, b, a);
+        });
+
+        routes.addLocked(Method.POST, "/appearance/nodes/color", req -> {
+            if (req.body == null || !req.body.has("nodes")) return errorResult("Missing 'nodes' array");
+            List<Map<String, Object>> nodes = GSON.fromJson(req.body.get("nodes"), List.class);
             return service.batchSetNodeColors(nodes);
-        }
+        });
 
-        if ("/appearance/reset".equals(uri) && Method.POST.equals(method)) {
-            int r = body != null && body.has("r") ? body.get("r").getAsInt() : 153;
-            int g = body != null && body.has("g") ? body.get("g").getAsInt() : 153;
-            int b = body != null && body.has("b") ? body.get("b").getAsInt() : 153;
-            float size = body != null && body.has("size") ? body.get("size").getAsFloat() : 10f;
+        routes.add(Method.POST, "/appearance/reset", req -> {
+            int r = req.body != null && req.body.has("r") ? req.body.get("r").getAsInt() : 153;
+            int g = req.body != null && req.body.has("g") ? req.body.get("g").getAsInt() : 153;
+            int b = req.body != null && req.body.has("b") ? req.body.get("b").getAsInt() : 153;
+            float size = req.body != null && req.body.has("size") ? req.body.get("size").getAsFloat() : 10f;
             return service.resetAppearance(r, g, b, size);
-        }
+        });
 
-        if ("/appearance/partition/color".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("column")) return errorResult("Missing 'column'");
-            String column = body.get("column").getAsString();
+        routes.addLocked(Method.POST, "/appearance/partition/color", req -> {
+            if (req.body == null || !req.body.has("column")) return errorResult("Missing 'column'");
+            String column = req.body.get("column").getAsString();
             Map<String, int[]> colorMap = null;
-            if (body.has("colors") && body.get("colors").isJsonObject()) {
+            if (req.body.has("colors") && req.body.get("colors").isJsonObject()) {
                 colorMap = new HashMap<>();
-                JsonObject colors = body.getAsJsonObject("colors");
+                JsonObject colors = req.body.getAsJsonObject("colors");
                 for (String key : colors.keySet()) {
                     List<Number> rgb = GSON.fromJson(colors.get(key), List.class);
                     colorMap.put(key, new int[]{rgb.get(0).intValue(), rgb.get(1).intValue(), rgb.get(2).intValue()});
                 }
             }
             return service.colorByPartition(column, colorMap);
-        }
-
-        if ("/appearance/ranking/color".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("column")) return errorResult("Missing 'column'");
-            String column = body.get("column").getAsString();
-            int rMin = body.has("r_min") ? body.get("r_min").getAsInt() : 255;
-            int gMin = body.has("g_min") ? body.get("g_min").getAsInt() : 255;
-            int bMin = body.has("b_min") ? body.get("b_min").getAsInt() : 200;
-            int rMax = body.has("r_max") ? body.get("r_max").getAsInt() : 255;
-            int gMax = body.has("g_max") ? body.get("g_max").getAsInt() : 0;
-            int bMax = body.has("b_max") ? body.get("b_max").getAsInt() : 0;
-            return service.colorByRanking(column, rMin, gMin, bMin, rMax, gMax, bMax);
-        }
-
-        if ("/appearance/ranking/size".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("column")) return errorResult("Missing 'column'");
-            float minSize = body.has("min_size") ? body.get("min_size").getAsFloat() : 5f;
-            float maxSize = body.has("max_size") ? body.get("max_size").getAsFloat() : 50f;
-            return service.sizeByRanking(body.get("column").getAsString(), minSize, maxSize);
-        }
+        });
+
+        routes.addLocked(Method.POST, "/appearance/ranking/color", req -> {
+            if (req.body == null || !req.body.has("column")) return errorResult("Missing 'column'");
+            String column = req.body.get("column").getAsString();
+            double[] at = null;
+            int[][] colors;
+            if (req.body.has("stops") && req.body.get("stops").isJsonArray()) {
+                JsonArray stops = req.body.getAsJsonArray("stops");
+                colors = new int[stops.size()][];
+                for (int i = 0; i < stops.size(); i++) {
+                    JsonElement stop = stops.get(i);
+                    JsonElement color = stop.isJsonObject() ? stop.getAsJsonObject().get("color") : stop;
+                    if (color == null || !color.isJsonArray() || color.getAsJsonArray().size() < 3) {
+                        return errorResult("Stop " + i + ": expected [r, g, b] or {at, color: [r, g, b]}");
+                    }
+                    JsonArray rgb = color.getAsJsonArray();
+                    colors[i] = new int[rgb.size() > 3 ? 4 : 3];
+                    for (int c = 0; c < colors[i].length; c++) colors[i][c] = rgb.get(c).getAsInt();
+                    if (stop.isJsonObject() && stop.getAsJsonObject().has("at")) {
+                        if (at == null && i > 0) return errorResult("Give 'at' on every stop or on none");
+                        if (at == null) at = new double[stops.size()];
+                        at[i] = stop.getAsJsonObject().get("at").getAsDouble();
+                    } else if (at != null) {
+                        return errorResult("Give 'at' on every stop or on none");
+                    }
+                }
+            } else {
+                int rMin = req.body.has("r_min") ? req.body.get("r_min").getAsInt() : 255;
+                int gMin = req.body.has("g_min") ? req.body.get("g_min").getAsInt() : 255;
+                int bMin = req.body.has("b_min") ? req.body.get("b_min").getAsInt() : 200;
+                int rMax = req.body.has("r_max") ? req.body.get("r_max").getAsInt() : 255;
+                int gMax = req.body.has("g_max") ? req.body.get("g_max").getAsInt() : 0;
+                int bMax = req.body.has("b_max") ? req.body.get("b_max").getAsInt() : 0;
+                colors = new int[][] {{rMin, gMin, bMin}, {rMax, gMax, bMax}};
+            }
+            double[] percentiles = rankingPercentiles(req.body);
+            return service.colorByRanking(column, rankingScale(req.body), percentiles[0], percentiles[1], at, colors);
+        });
+
+        routes.addLocked(Method.POST, "/appearance/ranking/size", req -> {
+            if (req.body == null || !req.body.has("column")) return errorResult("Missing 'column'");
+            float minSize = req.body.has("min_size") ? req.body.get("min_size").getAsFloat() : 5f;
+            float maxSize = req.body.has("max_size") ? req.body.get("max_size").getAsFloat() : 50f;
+            double[] percentiles = rankingPercentiles(req.body);
+            return service.sizeByRanking(req.body.get("column").getAsString(), minSize, maxSize,
+                rankingScale(req.body), percentiles[0], percentiles[1]);
+        });
+
+        // Not lock-scoped: edge thickness and the preview refresh go through the EDT after the passes
+        routes.add(Method.POST, "/appearance/pipeline", req -> {
+            if (req.body == null || !req.body.has("transforms") || !req.body.get("transforms").isJsonArray()) {
+                return errorResult("Missing 'transforms' array");
+            }
+            boolean refresh = req.body.has("refresh_preview") && req.body.get("refresh_preview").getAsBoolean();
+            return service.applyAppearancePipeline(req.body.getAsJsonArray("transforms"), refresh);
+        });
 
         // ─── Layout ──────────────────────────────────────────────────
 
-        if ("/layout/run".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("algorithm")) return errorResult("Missing 'algorithm'");
-            String algo = body.get("algorithm").getAsString();
-            int iterations = body.has("iterations") ? body.get("iterations").getAsInt() : 1000;
+        routes.add(Method.POST, "/layout/run", req -> {
+            if (req.body == null || !req.body.has("algorithm")) return errorResult("Missing 'algorithm'");
+            String algo = req.body.get("algorithm").getAsString();
+            int iterations = req.body.has("iterations") ? req.body.get("iterations").getAsInt() : 1000;
             // Check if properties are provided - use setLayoutProperties for that
-            if (body.has("properties") && body.get("properties").isJsonObject()) {
-                Map<String, Object> properties = GSON.fromJson(body.get("properties"), Map.class);
+            if (req.body.has("properties") && req.body.get("properties").isJsonObject()) {
+                Map<String, Object> properties = GSON.fromJson(req.body.get("properties"), Map.class);
                 return service.setLayoutProperties(algo, properties, iterations);
             }
             return service.runLayout(algo, iterations);
-        }
+        }).keepsVersion();
 
-        if ("/layout/stop".equals(uri) && Method.POST.equals(method)) {
-            return service.stopLayout();
-        }
+        routes.add(Method.POST, "/layout/stop", req -> service.stopLayout()).keepsVersion();
 
-        if ("/layout/status".equals(uri) && Method.GET.equals(method)) {
-            return service.getLayoutStatus();
-        }
+        routes.add(Method.GET, "/layout/status", req -> service.getLayoutStatus());
 
-        if ("/layout/available".equals(uri) && Method.GET.equals(method)) {
-            return service.getAvailableLayouts();
-        }
+        routes.addRaw(Method.GET, "/layout/stream", req -> {
+            int fps = parseIntParam(req.params.get("fps"), 10);
+            boolean deltas = "true".equalsIgnoreCase(req.params.get("deltas"));
+            double threshold = parseDoubleParam(req.params.get("threshold"), 1.0);
+            double quantum = parseDoubleParam(req.params.get("quantum"), 1.0);
+            InputStream events = service.layoutEvents(fps, deltas, threshold, quantum);
+            if (events == null) return jsonResponse(false, errorResult("No layout has been started"));
+            Response response = newChunkedResponse(Response.Status.OK, "text/event-stream", events);
+            response.addHeader("Cache-Control", "no-cache");
+            return response;
+        }).lane(Lane.EXEMPT);
 
-        if ("/layout/properties".equals(uri) && Method.GET.equals(method)) {
-            String algo = params.get("algorithm");
+        routes.add(Method.GET, "/layout/available", req -> service.getAvailableLayouts());
+
+        routes.add(Method.GET, "/layout/properties", req -> {
+            String algo = req.params.get("algorithm");
             if (algo == null || algo.isEmpty()) return errorResult("Missing 'algorithm' parameter");
             return service.getLayoutProperties(algo);
-        }
+        });
 
-        if ("/layout/properties".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("algorithm") || !body.has("properties"))
+        routes.add(Method.POST, "/layout/properties", req -> {
+            if (req.body == null || !req.body.has("algorithm") || !req.body.has("properties"))
                 return errorResult("Missing 'algorithm' or 'properties'");
-            String algo = body.get("algorithm").getAsString();
-            Map<String, Object> properties = GSON.fromJson(body.get("properties"), Map.class);
-            int iterations = body.has("iterations") ? body.get("iterations").getAsInt() : 1000;
+            String algo = req.body.get("algorithm").getAsString();
+            Map<String, Object> properties = GSON.fromJson(req.body.get("properties"), Map.class);
+            int iterations = req.body.has("iterations") ? req.body.get("iterations").getAsInt() : 1000;
             return service.setLayoutProperties(algo, properties, iterations);
-        }
+        }).keepsVersion();
 
         // ─── Statistics ──────────────────────────────────────────────
 
-        if ("/statistics/modularity".equals(uri) && Method.POST.equals(method)) {
-            double res = body != null && body.has("resolution") ? body.get("resolution").getAsDouble() : 1.0;
+        routes.add(Method.POST, "/statistics/modularity", req -> {
+            double res = req.body != null && req.body.has("resolution") ? req.body.get("resolution").getAsDouble() : 1.0;
             return service.computeModularity(res);
-        }
+        }).lane(Lane.HEAVY);
 
-        if ("/statistics/degree".equals(uri) && Method.POST.equals(method)) {
-            return service.computeDegree();
-        }
+        routes.add(Method.POST, "/statistics/degree", req -> service.computeDegree()).lane(Lane.HEAVY);
 
-        if ("/statistics/betweenness".equals(uri) && Method.POST.equals(method)) {
-            return service.computeBetweenness();
-        }
+        routes.add(Method.POST, "/statistics/betweenness", req -> service.computeBetweenness()).lane(Lane.HEAVY);
 
-        if ("/statistics/pagerank".equals(uri) && Method.POST.equals(method)) {
-            return service.computePageRank();
-        }
+        routes.add(Method.POST, "/statistics/pagerank", req -> service.computePageRank()).lane(Lane.HEAVY);
 
-        if ("/statistics/connected-components".equals(uri) && Method.POST.equals(method)) {
-            return service.computeConnectedComponents();
-        }
+        routes.add(Method.POST, "/statistics/connected-components", req -> service.computeConnectedComponents()).lane(Lane.HEAVY);
 
-        if ("/statistics/clustering-coefficient".equals(uri) && Method.POST.equals(method)) {
-            return service.computeClusteringCoefficient();
-        }
+        routes.add(Method.POST, "/statistics/clustering-coefficient", req -> service.computeClusteringCoefficient()).lane(Lane.HEAVY);
 
-        if ("/statistics/avg-path-length".equals(uri) && Method.POST.equals(method)) {
-            return service.computeAvgPathLength();
-        }
+        routes.add(Method.POST, "/statistics/avg-path-length", req -> service.computeAvgPathLength()).lane(Lane.HEAVY);
 
-        if ("/statistics/hits".equals(uri) && Method.POST.equals(method)) {
-            return service.computeHITS();
-        }
+        routes.add(Method.POST, "/statistics/hits", req -> service.computeHITS()).lane(Lane.HEAVY);
 
-        if ("/statistics/eigenvector".equals(uri) && Method.POST.equals(method)) {
-            return service.computeEigenvectorCentrality();
-        }
+        routes.add(Method.POST, "/statistics/eigenvector", req -> service.computeEigenvectorCentrality()).lane(Lane.HEAVY);
 
         // ─── Graph Operations ────────────────────────────────────────
 
-        if ("/graph/clear".equals(uri) && Method.POST.equals(method)) {
-            return service.clearGraph();
-        }
+        routes.addLocked(Method.POST, "/graph/clear", req -> service.clearGraph());
 
         // ─── Filters ─────────────────────────────────────────────────
 
-        if ("/filter/degree".equals(uri) && Method.POST.equals(method)) {
-            int min = body != null && body.has("min") ? body.get("min").getAsInt() : 0;
-            int max = body != null && body.has("max") ? body.get("max").getAsInt() : 0;
+        routes.add(Method.POST, "/filter/degree", req -> {
+            int min = req.body != null && req.body.has("min") ? req.body.get("min").getAsInt() : 0;
+            int max = req.body != null && req.body.has("max") ? req.body.get("max").getAsInt() : 0;
             return service.filterByDegreeRange(min, max);
-        }
+        });
 
-        if ("/filter/edge-weight".equals(uri) && Method.POST.equals(method)) {
-            double min = body != null && body.has("min") ? body.get("min").getAsDouble() : 0;
-            double max = body != null && body.has("max") ? body.get("max").getAsDouble() : 0;
+        routes.add(Method.POST, "/filter/edge-weight", req -> {
+            double min = req.body != null && req.body.has("min") ? req.body.get("min").getAsDouble() : 0;
+            double max = req.body != null && req.body.has("max") ? req.body.get("max").getAsDouble() : 0;
             return service.filterByEdgeWeight(min, max);
-        }
+        });
 
-        if ("/filter/remove-isolates".equals(uri) && Method.POST.equals(method)) {
-            return service.removeIsolates();
-        }
+        routes.add(Method.POST, "/filter/remove-isolates", req -> service.removeIsolates());
 
-        if ("/filter/ego-network".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("node_id")) return errorResult("Missing 'node_id'");
-            String nodeId = body.get("node_id").getAsString();
-            int depth = body.has("depth") ? body.get("depth").getAsInt() : 1;
+        routes.add(Method.POST, "/filter/ego-network", req -> {
+            if (req.body == null || !req.body.has("node_id")) return errorResult("Missing 'node_id'");
+            String nodeId = req.body.get("node_id").getAsString();
+            int depth = req.body.has("depth") ? req.body.get("depth").getAsInt() : 1;
             return service.extractEgoNetwork(nodeId, depth);
-        }
+        }).lane(Lane.HEAVY);
 
-        if ("/filter/giant-component".equals(uri) && Method.POST.equals(method)) {
-            return service.extractGiantComponent();
-        }
+        routes.add(Method.POST, "/filter/giant-component", req -> service.extractGiantComponent()).lane(Lane.HEAVY);
 
-        if ("/filter/reset".equals(uri) && Method.POST.equals(method)) {
-            return service.resetFilters();
-        }
+        routes.add(Method.POST, "/filter/reset", req -> service.resetFilters());
 
         // ─── Edge Appearance ────────────────────────────────────────
 
-        if ("/appearance/edge/thickness-by-weight".equals(uri) && Method.POST.equals(method)) {
-            float minThickness = body != null && body.has("min_thickness") ? body.get("min_thickness").getAsFloat() : 1f;
-            float maxThickness = body != null && body.has("max_thickness") ? body.get("max_thickness").getAsFloat() : 5f;
+        routes.add(Method.POST, "/appearance/edge/thickness-by-weight", req -> {
+            float minThickness = req.body != null && req.body.has("min_thickness") ? req.body.get("min_thickness").getAsFloat() : 1f;
+            float maxThickness = req.body != null && req.body.has("max_thickness") ? req.body.get("max_thickness").getAsFloat() : 5f;
             return service.setEdgeThicknessByWeight(minThickness, maxThickness);
-        }
+        });
 
         // ─── Preview ─────────────────────────────────────────────────
 
-        if ("/preview/settings".equals(uri) && Method.GET.equals(method)) {
-            return service.getPreviewSettings();
-        }
+        routes.add(Method.GET, "/preview/settings", req -> service.getPreviewSettings())
+            .cacheableWhen(params -> cache.coversVisual());
 
-        if ("/preview/settings".equals(uri) && Method.POST.equals(method)) {
-            if (body == null) return errorResult("Missing request body");
-            Map<String, Object> settings = GSON.fromJson(body, Map.class);
+        routes.add(Method.POST, "/preview/settings", req -> {
+            if (req.body == null) return errorResult("Missing request body");
+            Map<String, Object> settings = GSON.fromJson(req.body, Map.class);
             return service.setPreviewSettings(settings);
-        }
+        });
 
         // ─── Export ──────────────────────────────────────────────────
 
-        if ("/export/gexf".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.exportGexf(body.get("file").getAsString());
-        }
+        routes.add(Method.POST, "/export/gexf", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.exportGexf(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY).keepsVersion();
 
-        if ("/export/png".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            String file = body.get("file").getAsString();
-            int w = body.has("width") ? body.get("width").getAsInt() : 1920;
-            int h = body.has("height") ? body.get("height").getAsInt() : 1080;
+        routes.add(Method.POST, "/export/png", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            String file = req.body.get("file").getAsString();
+            int w = req.body.has("width") ? req.body.get("width").getAsInt() : 1920;
+            int h = req.body.has("height") ? req.body.get("height").getAsInt() : 1080;
             return service.exportPng(file, w, h);
-        }
+        }).lane(Lane.HEAVY).keepsVersion();
 
-        if ("/export/pdf".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            String file = body.get("file").getAsString();
-            int w = body.has("width") ? body.get("width").getAsInt() : 0;
-            int h = body.has("height") ? body.get("height").getAsInt() : 0;
+        routes.add(Method.POST, "/export/pdf", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            String file = req.body.get("file").getAsString();
+            int w = req.body.has("width") ? req.body.get("width").getAsInt() : 0;
+            int h = req.body.has("height") ? req.body.get("height").getAsInt() : 0;
             return service.exportPdf(file, w, h);
-        }
+        }).lane(Lane.HEAVY).keepsVersion();
+
+        routes.add(Method.POST, "/export/svg", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.exportSvg(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY).keepsVersion();
+
+        routes.add(Method.POST, "/export/graphml", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.exportGraphml(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY).keepsVersion();
+
+        routes.add(Method.POST, "/export/csv", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            String file = req.body.get("file").getAsString();
+            String separator = req.body.has("separator") ? req.body.get("separator").getAsString() : ",";
+            String target = req.body.has("target") ? req.body.get("target").getAsString() : "nodes";
+            return service.exportCsv(file, separator, target);
+        }).lane(Lane.HEAVY).keepsVersion();
 
-        if ("/export/svg".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.exportSvg(body.get("file").getAsString());
-        }
+        // ─── Import ──────────────────────────────────────────────────
 
-        if ("/export/graphml".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.exportGraphml(body.get("file").getAsString());
-        }
+        routes.add(Method.POST, "/import/gexf", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.importFile(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY);
 
-        if ("/export/csv".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            String file = body.get("file").getAsString();
-            String separator = body.has("separator") ? body.get("separator").getAsString() : ",";
-            String target = body.has("target") ? body.get("target").getAsString() : "nodes";
-            return service.exportCsv(file, separator, target);
-        }
+        routes.add(Method.POST, "/import/graphml", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.importFile(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY);
 
-        // ─── Import ──────────────────────────────────────────────────
+        routes.add(Method.POST, "/import/csv", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.importFile(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY);
 
-        if ("/import/gexf".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.importFile(body.get("file").getAsString());
-        }
+        routes.add(Method.POST, "/import/file", req -> {
+            if (req.body == null || !req.body.has("file")) return errorResult("Missing 'file'");
+            return service.importFile(req.body.get("file").getAsString());
+        }).lane(Lane.HEAVY);
 
-        if ("/import/graphml".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.importFile(body.get("file").getAsString());
-        }
+        // ─── Batch ───────────────────────────────────────────────────
+
+        routes.add(Method.POST, "/batch", req -> {
+            if (req.body == null || !req.body.has("operations") || !req.body.get("operations").isJsonArray()) {
+                return errorResult("Missing 'operations' array");
+            }
+            JsonArray ops = req.body.getAsJsonArray("operations");
+            if (ops.size() > MAX_BATCH_OPERATIONS) return errorResult("Too many operations (max " + MAX_BATCH_OPERATIONS + ")");
+            boolean stopOnError = !req.body.has("stop_on_error") || req.body.get("stop_on_error").getAsBoolean();
+            List<OperationCall> calls = new ArrayList<>(ops.size());
+            for (int i = 0; i < ops.size(); i++) {
+                OperationCall call = resolveOperation(ops.get(i));
+                if (call.error != null) return errorResult("Operation " + i + ": " + call.error);
+                if (!call.route.isLockScoped()) return errorResult("Operation " + i + ": " + call.route + " cannot run in a batch");
+                calls.add(call);
+            }
+            JsonObject result = service.runLocked(() -> runBatch(calls, stopOnError));
+            if (result.has("failed") && result.get("failed").getAsInt() > 0
+                    && result.get("executed").getAsInt() > result.get("failed").getAsInt()) {
+                service.markModified();   // answered as a failure, but the operations that succeeded stay applied
+            }
+            return result;
+        });
+
+        routes.add(Method.POST, "/transaction", req -> {
+            if (req.body == null || !req.body.has("operations") || !req.body.get("operations").isJsonArray()) {
+                return errorResult("Missing 'operations' array");
+            }
+            JsonArray ops = req.body.getAsJsonArray("operations");
+            if (ops.size() > MAX_BATCH_OPERATIONS) return errorResult("Too many operations (max " + MAX_BATCH_OPERATIONS + ")");
+            boolean dryRun = req.body.has("dry_run") && req.body.get("dry_run").getAsBoolean();
+            List<OperationCall> calls = new ArrayList<>(ops.size());
+            for (int i = 0; i < ops.size(); i++) {
+                OperationCall call = resolveOperation(ops.get(i));
+                if (call.error != null) return errorResult("Operation " + i + ": " + call.error);
+                if (!call.route.isLockScoped()) return errorResult("Operation " + i + ": " + call.route + " cannot run in a transaction");
+                calls.add(call);
+            }
+            return service.runTransaction(() -> runBatch(calls, true), dryRun);
+        });
+
+        // ─── Jobs ────────────────────────────────────────────────────
+
+        routes.addRaw(Method.POST, "/jobs", req -> {
+            if (req.body == null) return jsonResponse(req.pretty(), errorResult("Missing operation, e.g. {\"path\": \"/statistics/betweenness\"}"));
+            OperationCall call = resolveOperation(req.body);
+            if (call.error != null) return jsonResponse(req.pretty(), errorResult(call.error));
+            JobManager.Job job = jobs.submit(call.route.toString(), () -> {
+                // Jobs share their route's admission slots with synchronous requests, but wait without a limit.
+                AdmissionController.Permit permit = admission.enter(call.route.lane());
+                JsonObject result = null;
+                try {
+                    result = call.route.handler().handle(call.req);
+                    return result;
+                } finally {
+                    permit.close();
+                    // the job may have changed the graph after POST /jobs returned
+                    if (!call.route.isKeepingVersion() && result != null
+                            && result.has("success") && result.get("success").getAsBoolean()) {
+                        service.markModified();
+                    }
+                }
+            });
+            if (job == null) return tooBusy("Job queue is full, retry later", 5);
+            return jsonResponse(req.pretty(), jobs.toJson(job));
+        }).lane(Lane.EXEMPT).keepsVersion();
+
+        routes.add(Method.GET, "/jobs", req -> jobs.list()).lane(Lane.EXEMPT);
+
+        routes.add(Method.GET, "/jobs/{id}", req -> {
+            JobManager.Job job = jobs.get(req.pathParam("id"));
+            if (job == null) return errorResult("Job not found: " + req.pathParam("id"));
+            return jobs.toJson(job);
+        }).lane(Lane.EXEMPT);
+
+        routes.add(Method.POST, "/jobs/{id}/cancel", req -> {
+            JobManager.Job job = jobs.get(req.pathParam("id"));
+            if (job == null) return errorResult("Job not found: " + req.pathParam("id"));
+            if (!jobs.cancel(job)) return errorResult("Job already finished: " + job.id());
+            return jobs.toJson(job);
+        }).lane(Lane.EXEMPT).keepsVersion();
+    }
+
+    private static final int MAX_BATCH_OPERATIONS = 10_000;
+
+    /** Largest k /graph/nodes/top returns; page through /graph/nodes for more. */
+    private static final int MAX_TOP_K = 10_000;
 
-        if ("/import/csv".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.importFile(body.get("file").getAsString());
+    /** One resolved /batch or /jobs operation, or the reason it cannot run. */
+    private static final class OperationCall {
+        final Route route;
+        final RouteRequest req;
+        final String error;
+
+        OperationCall(Route route, RouteRequest req, String error) {
+            this.route = route;
+            this.req = req;
+            this.error = error;
         }
+    }
 
-        if ("/import/file".equals(uri) && Method.POST.equals(method)) {
-            if (body == null || !body.has("file")) return errorResult("Missing 'file'");
-            return service.importFile(body.get("file").getAsString());
+    /**
+     * Resolves {"method": "POST", "path": "/graph/node/add", "body": {...}, "params": {...}}
+     * against the route table. Routes that stream their own response, and the
+     * /batch, /transaction and /jobs endpoints themselves, cannot be run this way.
+     */
+    private OperationCall resolveOperation(JsonElement el) {
+        if (el == null || !el.isJsonObject()) return new OperationCall(null, null, "not an object");
+        JsonObject op = el.getAsJsonObject();
+        if (!op.has("path")) return new OperationCall(null, null, "missing 'path'");
+        String path = op.get("path").getAsString();
+        Method method;
+        try {
+            method = op.has("method") ? Method.valueOf(op.get("method").getAsString().toUpperCase()) : Method.POST;
+        } catch (IllegalArgumentException e) {
+            return new OperationCall(null, null, "unknown method");
+        }
+        RouteTable.Match match = routes.match(method, path);
+        if (match == null) return new OperationCall(null, null, "unknown endpoint " + method + " " + path);
+        if (match.route.handler() == null || path.equals("/batch") || path.equals("/transaction") || path.startsWith("/jobs")) {
+            return new OperationCall(null, null, match.route + " cannot be run as an operation");
+        }
+        Map<String, String> params = new HashMap<>();
+        if (op.has("params") && op.get("params").isJsonObject()) {
+            for (Map.Entry<String, JsonElement> e : op.getAsJsonObject("params").entrySet()) {
+                params.put(e.getKey(), e.getValue().getAsString());
+            }
         }
+        JsonObject body = op.has("body") && op.get("body").isJsonObject() ? op.getAsJsonObject("body") : null;
+        return new OperationCall(match.route, new RouteRequest(params, body, match.pathParams), null);
+    }
 
-        return errorResult("Unknown endpoint: " + method + " " + uri);
+    /** Runs resolved operations in order; the caller holds the graph write lock. */
+    private JsonObject runBatch(List<OperationCall> calls, boolean stopOnError) {
+        JsonArray results = new JsonArray();
+        int executed = 0, failed = 0;
+        for (OperationCall call : calls) {
+            JsonObject r;
+            try {
+                r = call.route.handler().handle(call.req);
+            } catch (Exception e) {
+                r = errorResult(e.getMessage());
+            }
+            r.addProperty("index", executed++);
+            results.add(r);
+            if (!r.has("success") || !r.get("success").getAsBoolean()) {
+                failed++;
+                if (stopOnError) break;
+            }
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("success", failed == 0);
+        result.addProperty("executed", executed);
+        result.addProperty("failed", failed);
+        result.addProperty("skipped", calls.size() - executed);
+        result.add("results", results);
+        if (failed > 0) result.addProperty("error", failed + " operation(s) failed");
+        return result;
     }
 
     private int parseIntParam(String value, int defaultValue) {
@@ -563,6 +995,82 @@ public class GephiAPIServer extends NanoHTTPD {
         catch (NumberFormatException e) { return defaultValue; }
     }
 
+    private long parseLongParam(String value, long defaultValue) {
+        if (value == null) return defaultValue;
+        try { return Long.parseLong(value); }
+        catch (NumberFormatException e) { return defaultValue; }
+    }
+
+    private static String rankingScale(JsonObject body) {
+        return body.has("scale") ? body.get("scale").getAsString() : null;
+    }
+
+    /** "percentiles": [low, high] of the percentile scale; 5 and 95 by default. */
+    private static double[] rankingPercentiles(JsonObject body) {
+        double[] p = {5, 95};
+        if (body.has("percentiles") && body.get("percentiles").isJsonArray()) {
+            JsonArray arr = body.getAsJsonArray("percentiles");
+            if (arr.size() > 0) p[0] = arr.get(0).getAsDouble();
+            if (arr.size() > 1) p[1] = arr.get(1).getAsDouble();
+        }
+        return p;
+    }
+
+    private double parseDoubleParam(String value, double defaultValue) {
+        if (value == null) return defaultValue;
+        try { return Double.parseDouble(value); }
+        catch (NumberFormatException e) { return defaultValue; }
+    }
+
+    /** Event streams must reach the client frame by frame; gzip would hold them in its buffer. */
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return !"text/event-stream".equals(r.getMimeType()) && super.useGzipWhenAccepted(r);
+    }
+
+    /** Writes a JSON response document; returns whether it reports success. */
+    @FunctionalInterface
+    private interface JsonBody {
+        boolean write(JsonWriter out) throws IOException;
+    }
+
+    private Response jsonResponse(boolean pretty, JsonObject result) throws IOException {
+        boolean ok = result.has("success") && result.get("success").getAsBoolean();
+        return writtenResponse(pretty, out -> {
+            GSON.toJson(result, out);
+            return ok;
+        });
+    }
+
+    /** Serializes into this thread's reusable buffer: compact unless pretty, 200 on success and 400 otherwise. */
+    private Response writtenResponse(boolean pretty, JsonBody body) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.get();
+        boolean ok = body.write(buffer.open(pretty));
+        return buffer.toResponse(ok ? Response.Status.OK : Response.Status.BAD_REQUEST, "application/json");
+    }
+
+    private Response writtenResponse(RouteRequest req, JsonBody body) throws IOException {
+        return writtenResponse(req.pretty(), body);
+    }
+
+    /** Chunked NDJSON body, one record per line; a null stream means no project is open. */
+    private Response ndjsonResponse(InputStream stream) throws IOException {
+        if (stream == null) return jsonResponse(false, errorResult("No project open"));
+        return newChunkedResponse(Response.Status.OK, "application/x-ndjson", stream);
+    }
+
+    private boolean isNdjson(RouteRequest req) {
+        return "ndjson".equalsIgnoreCase(req.params.get("format"));
+    }
+
+    /** 429 Too Many Requests with a Retry-After hint in seconds. */
+    private Response tooBusy(String message, int retryAfterSeconds) {
+        Response response = newFixedLengthResponse(Response.Status.TOO_MANY_REQUESTS, "application/json",
+            GSON.toJson(errorResult(message)));
+        response.addHeader("Retry-After", Integer.toString(retryAfterSeconds));
+        return response;
+    }
+
     private JsonObject errorResult(String message) {
         JsonObject result = new JsonObject();
         result.addProperty("success", false);
@@ -576,13 +1084,53 @@ public class GephiAPIServer extends NanoHTTPD {
         response.addHeader("Access-Control-Allow-Headers", "Content-Type");
     }
 
+    /** Tracks each TCP connection's input so the runner can tell idle connections; see {@link WorkerAsyncRunner}. */
+    @Override
+    protected ClientHandler createClientHandler(Socket socket, InputStream in) {
+        ConnectionInput input = new ConnectionInput(in);
+        ClientHandler handler = super.createClientHandler(socket, input);
+        runner.track(handler, input);
+        return handler;
+    }
+
+    /**
+     * Runs HTTP sessions back to back on a connection that is not a TCP socket,
+     * as NanoHTTPD's ClientHandler does for sockets, until the client closes it
+     * or asks for Connection: close (both surface as a SocketException).
+     */
+    void serveConnection(InputStream in, OutputStream out) throws IOException {
+        TempFileManager tempFiles = getTempFileManagerFactory().create();
+        try {
+            HTTPSession session = new HTTPSession(tempFiles, in, out, InetAddress.getLoopbackAddress());
+            while (true) session.execute();
+        } finally {
+            tempFiles.clear();
+        }
+    }
+
     public void startServer() throws IOException {
         start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
-        LOGGER.info("Gephi MCP API started on http://127.0.0.1:" + getListeningPort());
+        LOGGER.info("Gephi MCP API started on http://127.0.0.1:" + getListeningPort() + " (runner: " + runner.mode() + ")");
+        String socketPath = System.getProperty("gephi.mcp.socket");
+        if (socketPath != null && !socketPath.trim().isEmpty()) {
+            try {
+                unixListener = UnixSocketListener.open(this, runner, socketPath.trim());
+                if (unixListener != null) LOGGER.info("Gephi MCP API also listening on unix:" + unixListener.path());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not listen on Unix socket " + socketPath, e);
+            }
+        }
     }
 
     public void stopServer() {
+        UnixSocketListener unix = unixListener;
+        if (unix != null) {
+            unix.close();
+            unixListener = null;
+        }
         stop();
+        runner.shutdown();
+        jobs.shutdown();
         service.shutdown();
         LOGGER.info("Gephi MCP API stopped");
     }
@@ -0,0 +1,50 @@
+package org.gephi.plugins.mcp.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The request body as a stream limited to Content-Length bytes, so a handler
+ * reading it can never run into the next request on a kept-alive connection.
+ */
+final class RequestBodyStream extends InputStream {
+
+    private final InputStream in;
+    private long remaining;
+
+    RequestBodyStream(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+    }
+
+    /** Bytes of the body not yet read. */
+    long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) return -1;
+        int b = in.read();
+        if (b >= 0) remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) return -1;
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) remaining -= n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    /** Leaves the connection's stream open; NanoHTTPD owns it. */
+    @Override
+    public void close() {
+    }
+}
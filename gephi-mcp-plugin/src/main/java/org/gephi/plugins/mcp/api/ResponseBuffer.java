@@ -0,0 +1,62 @@
+package org.gephi.plugins.mcp.api;
+
+import com.google.gson.stream.JsonWriter;
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Per-thread byte buffer that JSON responses are serialized into. The response
+ * body reads straight from the buffer without copying, so a buffer's contents
+ * stay valid until the next {@link #open} on the same thread; NanoHTTPD sends a
+ * response before reading the next request on that connection thread.
+ */
+final class ResponseBuffer {
+
+    private static final int INITIAL_SIZE = 8 * 1024;
+    private static final int RETAIN_LIMIT = 4 * 1024 * 1024;
+    private static final ThreadLocal<ResponseBuffer> LOCAL = ThreadLocal.withInitial(ResponseBuffer::new);
+
+    private static final class Bytes extends ByteArrayOutputStream {
+        Bytes(int size) { super(size); }
+        byte[] array() { return buf; }
+        int capacity() { return buf.length; }
+    }
+
+    private Bytes bytes;
+    private Writer writer;
+
+    private ResponseBuffer() {
+        bytes = new Bytes(INITIAL_SIZE);
+    }
+
+    static ResponseBuffer get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Resets the buffer and returns a compact (or indented, if pretty) writer over
+     * it. The character writer is new each time, so output a failed response left
+     * in it never reaches the next one.
+     */
+    JsonWriter open(boolean pretty) {
+        if (bytes.capacity() > RETAIN_LIMIT) bytes = new Bytes(INITIAL_SIZE);   // don't pin one huge dump per thread
+        bytes.reset();
+        writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        JsonWriter out = new JsonWriter(writer);
+        if (pretty) out.setIndent("  ");
+        return out;
+    }
+
+    Response toResponse(Response.IStatus status, String mimeType) throws IOException {
+        writer.flush();
+        int size = bytes.size();
+        return NanoHTTPD.newFixedLengthResponse(status, mimeType,
+            new ByteArrayInputStream(bytes.array(), 0, size), size);
+    }
+}
@@ -0,0 +1,80 @@
+package org.gephi.plugins.mcp.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Rendered bodies of cacheable GET routes, keyed by path and query and tagged
+ * with the graph version they were built from. An entry is only served while
+ * that version is current; older ones are replaced on the next miss or evicted
+ * least-recently-used once the total exceeds -Dgephi.mcp.cache.bytes.
+ *
+ * <p>The graph version sees every API change and structure and attribute edits
+ * made in Gephi, but not node positions, colors and sizes or preview settings
+ * changed in the UI (by dragging, a layout run from the UI, the appearance or
+ * preview panels). Responses showing those are only cached, and given an ETag,
+ * with -Dgephi.mcp.cache.visual=true, for setups where only the API edits them.
+ */
+final class ResponseCache {
+
+    static final class Entry {
+        final long version;
+        final String mimeType;
+        final byte[] body;
+
+        Entry(long version, String mimeType, byte[] body) {
+            this.version = version;
+            this.mimeType = mimeType;
+            this.body = body;
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean visual;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    ResponseCache(long maxBytes, boolean visual) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.visual = visual;
+    }
+
+    static ResponseCache fromSystemProperties() {
+        return new ResponseCache(Long.getLong("gephi.mcp.cache.bytes", 64L * 1024 * 1024),
+            Boolean.getBoolean("gephi.mcp.cache.visual"));
+    }
+
+    /** Whether responses showing visual state the version does not track may be cached. */
+    boolean coversVisual() {
+        return visual;
+    }
+
+    /** Whether a body of this size would be kept; a single entry may use at most a quarter of the budget. */
+    boolean accepts(long size) {
+        return size >= 0 && size <= maxBytes / 4;
+    }
+
+    synchronized Entry get(String key, long version) {
+        Entry e = entries.get(key);
+        return e != null && e.version == version ? e : null;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        if (!accepts(entry.body.length)) return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null) bytes -= previous.body.length;
+        bytes += entry.body.length;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            if (eldest == entry) break;
+            bytes -= eldest.body.length;
+            it.remove();
+        }
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,192 @@
+package org.gephi.plugins.mcp.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import org.gephi.plugins.mcp.service.Metrics;
+
+/**
+ * A single API endpoint: method, path pattern and the handler that serves it.
+ * Patterns may contain {name} segments, e.g. /graph/node/{id}; a trailing
+ * {name*} segment captures the rest of the path including slashes.
+ */
+final class Route {
+
+    /** Serves one matched request. */
+    @FunctionalInterface
+    interface Handler {
+        JsonObject handle(RouteRequest req) throws Exception;
+    }
+
+    /** Serves one matched request by reading its JSON body incrementally instead of parsing it up front. */
+    @FunctionalInterface
+    interface BodyHandler {
+        JsonObject handle(RouteRequest req, JsonReader body) throws Exception;
+    }
+
+    /** Serves one matched request with a hand-built response, e.g. a chunked stream. */
+    @FunctionalInterface
+    interface ResponseHandler {
+        Response handle(RouteRequest req) throws Exception;
+    }
+
+    private final Method method;
+    private final String pattern;
+    private final Handler handler;
+    private final ResponseHandler responseHandler;
+    private final BodyHandler bodyHandler;
+    private final String[] segments;     // null for literal patterns
+    private final boolean greedyTail;
+    private final boolean lockScoped;
+    private final Metrics.RouteStats stats;
+    private Predicate<Map<String, String>> cacheable;
+    private boolean keepsVersion;
+    private AdmissionController.Lane lane;
+
+    Route(Method method, String pattern, Handler handler, ResponseHandler responseHandler, boolean lockScoped) {
+        this(method, pattern, handler, responseHandler, null, lockScoped);
+    }
+
+    /**
+     * A streamed-body route; its {@link #handler()} replays an already parsed
+     * body through the same BodyHandler, for /batch and /jobs.
+     */
+    Route(Method method, String pattern, BodyHandler bodyHandler, boolean lockScoped) {
+        this(method, pattern,
+            req -> bodyHandler.handle(req, new JsonReader(new StringReader(req.body != null ? req.body.toString() : "{}"))),
+            null, bodyHandler, lockScoped);
+    }
+
+    private Route(Method method, String pattern, Handler handler, ResponseHandler responseHandler,
+                  BodyHandler bodyHandler, boolean lockScoped) {
+        this.method = method;
+        this.pattern = pattern;
+        this.handler = handler;
+        this.responseHandler = responseHandler;
+        this.bodyHandler = bodyHandler;
+        this.lockScoped = lockScoped;
+        this.stats = Metrics.get().route(method.name(), pattern);
+        this.lane = Method.GET.equals(method) || Method.HEAD.equals(method)
+            ? AdmissionController.Lane.READ : AdmissionController.Lane.WRITE;
+        if (pattern.indexOf('{') < 0) {
+            this.segments = null;
+            this.greedyTail = false;
+        } else {
+            this.segments = split(pattern);
+            String last = segments[segments.length - 1];
+            this.greedyTail = last.endsWith("*}");
+        }
+    }
+
+    Method method() { return method; }
+
+    String pattern() { return pattern; }
+
+    /** JSON handler, or null when the route builds its own response. */
+    Handler handler() { return handler; }
+
+    ResponseHandler responseHandler() { return responseHandler; }
+
+    /** Incremental body reader, or null when the body is parsed into a JsonObject first. */
+    BodyHandler bodyHandler() { return bodyHandler; }
+
+    boolean isTemplate() { return segments != null; }
+
+    Metrics.RouteStats stats() { return stats; }
+
+    /**
+     * Marks a GET route whose response depends only on the graph, its parameters
+     * and the graph version, so it can carry an ETag and be answered from the
+     * response cache. Call while registering routes, before the server starts.
+     */
+    Route cacheable() {
+        return cacheableWhen(params -> true);
+    }
+
+    /** Like {@link #cacheable()}, for the requests whose query parameters pass when. */
+    Route cacheableWhen(Predicate<Map<String, String>> when) {
+        this.cacheable = when;
+        return this;
+    }
+
+    boolean isCacheable(Map<String, String> params) { return cacheable != null && cacheable.test(params); }
+
+    /**
+     * Marks a non-GET route that never changes what cacheable routes show, e.g.
+     * a save, an export or job control, so serving it leaves the graph version
+     * and everything derived from it alone.
+     */
+    Route keepsVersion() {
+        this.keepsVersion = true;
+        return this;
+    }
+
+    boolean isKeepingVersion() { return keepsVersion; }
+
+    /** Overrides the admission class, which defaults to READ for GET and WRITE otherwise. */
+    Route lane(AdmissionController.Lane lane) {
+        this.lane = lane;
+        return this;
+    }
+
+    AdmissionController.Lane lane() { return lane; }
+
+    /**
+     * True when the handler only touches the graph through its (reentrant) lock on
+     * the calling thread, never the EDT, so it may run inside a /batch write lock.
+     */
+    boolean isLockScoped() { return lockScoped; }
+
+    /** Matches already-split URI segments against this template; returns the path parameters or null. */
+    Map<String, String> match(String[] uriSegments) {
+        if (segments == null) return null;
+        int n = segments.length;
+        if (greedyTail ? uriSegments.length < n : uriSegments.length != n) return null;
+        Map<String, String> pathParams = null;
+        for (int i = 0; i < n; i++) {
+            String seg = segments[i];
+            if (seg.startsWith("{")) {
+                String value = uriSegments[i];
+                if (greedyTail && i == n - 1) value = String.join("/", Arrays.copyOfRange(uriSegments, i, uriSegments.length));
+                if (value.isEmpty()) return null;
+                if (pathParams == null) pathParams = new HashMap<>(4);
+                pathParams.put(paramName(seg), value);
+            } else if (!seg.equals(uriSegments[i])) {
+                return null;
+            }
+        }
+        return pathParams != null ? pathParams : Collections.emptyMap();
+    }
+
+    private static String paramName(String seg) {
+        String name = seg.substring(1, seg.length() - 1);
+        return name.endsWith("*") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /** Splits "/a/b/c" into ["a", "b", "c"]; the leading slash is dropped, empty segments are kept. */
+    static String[] split(String path) {
+        List<String> parts = new ArrayList<>(8);
+        int start = path.startsWith("/") ? 1 : 0;
+        for (int i = start; i <= path.length(); i++) {
+            if (i == path.length() || path.charAt(i) == '/') {
+                parts.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return parts.toArray(new String[0]);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + pattern;
+    }
+}
@@ -0,0 +1,27 @@
+package org.gephi.plugins.mcp.api;
+
+import com.google.gson.JsonObject;
+import java.util.Map;
+
+/** Inputs handed to a {@link Route.Handler}: query parameters, parsed JSON body and path parameters. */
+final class RouteRequest {
+
+    final Map<String, String> params;
+    final JsonObject body;
+    final Map<String, String> pathParams;
+
+    RouteRequest(Map<String, String> params, JsonObject body, Map<String, String> pathParams) {
+        this.params = params;
+        this.body = body;
+        this.pathParams = pathParams;
+    }
+
+    String pathParam(String name) {
+        return pathParams.get(name);
+    }
+
+    /** Indented output was asked for with ?pretty=true; responses are compact otherwise. */
+    boolean pretty() {
+        return "true".equalsIgnoreCase(params.get("pretty"));
+    }
+}
@@ -0,0 +1,76 @@
+package org.gephi.plugins.mcp.api;
+
+import fi.iki.elonen.NanoHTTPD.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Route registry keyed by method and path. Literal paths resolve with one hash
+ * lookup; templated paths are only tried when no literal route matches.
+ */
+final class RouteTable {
+
+    /** A resolved route together with its extracted path parameters. */
+    static final class Match {
+        final Route route;
+        final Map<String, String> pathParams;
+
+        Match(Route route, Map<String, String> pathParams) {
+            this.route = route;
+            this.pathParams = pathParams;
+        }
+    }
+
+    private final Map<Method, Map<String, Route>> literal = new EnumMap<>(Method.class);
+    private final Map<Method, List<Route>> templated = new EnumMap<>(Method.class);
+
+    Route add(Method method, String pattern, Route.Handler handler) {
+        return register(new Route(method, pattern, handler, null, false));
+    }
+
+    /** Adds a route whose handler is safe to run under a caller-held graph write lock. */
+    Route addLocked(Method method, String pattern, Route.Handler handler) {
+        return register(new Route(method, pattern, handler, null, true));
+    }
+
+    /** Adds a lock-scoped route that reads its request body as a stream; see {@link Route.BodyHandler}. */
+    Route addStreamed(Method method, String pattern, Route.BodyHandler handler) {
+        return register(new Route(method, pattern, handler, true));
+    }
+
+    Route addRaw(Method method, String pattern, Route.ResponseHandler handler) {
+        return register(new Route(method, pattern, null, handler, false));
+    }
+
+    private Route register(Route route) {
+        Method method = route.method();
+        String pattern = route.pattern();
+        if (route.isTemplate()) {
+            templated.computeIfAbsent(method, m -> new ArrayList<>()).add(route);
+        } else {
+            Route previous = literal.computeIfAbsent(method, m -> new HashMap<>()).put(pattern, route);
+            if (previous != null) throw new IllegalStateException("Duplicate route: " + route);
+        }
+        return route;
+    }
+
+    Match match(Method method, String uri) {
+        Map<String, Route> byPath = literal.get(method);
+        if (byPath != null) {
+            Route route = byPath.get(uri);
+            if (route != null) return new Match(route, Collections.emptyMap());
+        }
+        List<Route> candidates = templated.get(method);
+        if (candidates == null) return null;
+        String[] segments = Route.split(uri);
+        for (Route route : candidates) {
+            Map<String, String> pathParams = route.match(segments);
+            if (pathParams != null) return new Match(route, pathParams);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,156 @@
+package org.gephi.plugins.mcp.api;
+
+import fi.iki.elonen.NanoHTTPD;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the API's routes on a Unix domain socket (-Dgephi.mcp.socket=/path),
+ * next to the TCP listener. Each accepted connection is handed to the server's
+ * {@link WorkerAsyncRunner}, which runs NanoHTTPD sessions back to back until
+ * the client closes it, so a local client can keep one connection open for
+ * many requests. Socket channels have no read timeout, so a sweeper closes
+ * connections whose read has been blocked longer than
+ * {@link NanoHTTPD#SOCKET_READ_TIMEOUT}, as the TCP listener does. The socket
+ * file is created owner-only. Unix domain socket channels need Java 16+; they are
+ * opened reflectively so the plugin still runs on Java 11 without them.
+ */
+final class UnixSocketListener {
+
+    private static final Logger LOGGER = Logger.getLogger(UnixSocketListener.class.getName());
+
+    private final GephiAPIServer server;
+    private final WorkerAsyncRunner runner;
+    private final Path path;
+    private final ServerSocketChannel channel;
+    private final Map<SocketChannel, ConnectionInput> open = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "MCP-UDS-Timeout");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean stopped;
+
+    private UnixSocketListener(GephiAPIServer server, WorkerAsyncRunner runner, Path path, ServerSocketChannel channel) {
+        this.server = server;
+        this.runner = runner;
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /** Binds the socket and starts accepting; returns null if this JVM has no Unix domain sockets. */
+    static UnixSocketListener open(GephiAPIServer server, WorkerAsyncRunner runner, String socketPath) throws IOException {
+        Path path = Paths.get(socketPath).toAbsolutePath();
+        ServerSocketChannel channel;
+        SocketAddress address;
+        try {
+            Class<?> family = Class.forName("java.net.StandardProtocolFamily");
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            ProtocolFamily unix = (ProtocolFamily) Enum.valueOf((Class<Enum>) family, "UNIX");
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", Path.class).invoke(null, path);
+            channel = (ServerSocketChannel) ServerSocketChannel.class
+                .getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            LOGGER.warning("MCP API: Unix domain sockets need Java 16+, not listening on " + path);
+            return null;
+        }
+        Files.deleteIfExists(path);   // left behind by an unclean shutdown
+        try {
+            channel.bind(address);
+            try {
+                Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system; rely on the directory's permissions
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        UnixSocketListener listener = new UnixSocketListener(server, runner, path, channel);
+        listener.sweeper.scheduleWithFixedDelay(listener::closeStalled, 1, 1, TimeUnit.SECONDS);
+        Thread acceptor = new Thread(listener::acceptLoop, "MCP-UDS-Accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return listener;
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!stopped) LOGGER.log(Level.WARNING, "MCP API: accept failed on " + path, e);
+                return;
+            }
+            ConnectionInput input = new ConnectionInput(Channels.newInputStream(client));
+            open.put(client, input);
+            runner.exec(client, input, () -> serve(client, input), () -> drop(client));
+        }
+    }
+
+    private void serve(SocketChannel client, ConnectionInput input) {
+        try (InputStream in = input;
+             OutputStream out = Channels.newOutputStream(client)) {
+            server.serveConnection(in, out);
+        } catch (SocketException | ClosedChannelException e) {
+            // client closed the connection or asked for Connection: close
+        } catch (IOException e) {
+            if (!stopped) LOGGER.log(Level.FINE, "MCP API: Unix socket connection failed", e);
+        } finally {
+            runner.release(client);
+            drop(client);
+        }
+    }
+
+    /** Closes connections whose read has waited longer than the read timeout. */
+    private void closeStalled() {
+        for (Map.Entry<SocketChannel, ConnectionInput> e : open.entrySet()) {
+            if (e.getValue().stalled(NanoHTTPD.SOCKET_READ_TIMEOUT)) close(e.getKey());
+        }
+    }
+
+    private void drop(SocketChannel client) {
+        open.remove(client);
+        close(client);
+    }
+
+    private static void close(SocketChannel client) {
+        try { client.close(); } catch (IOException e) { /* already closed */ }
+    }
+
+    String path() {
+        return path.toString();
+    }
+
+    void close() {
+        stopped = true;
+        sweeper.shutdownNow();
+        try { channel.close(); } catch (IOException e) { /* ignore */ }
+        for (SocketChannel client : new ArrayList<>(open.keySet())) close(client);
+        try { Files.deleteIfExists(path); } catch (IOException e) { /* ignore */ }
+    }
+}
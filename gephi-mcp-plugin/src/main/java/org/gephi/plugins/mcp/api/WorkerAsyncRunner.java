@@ -0,0 +1,194 @@
+package org.gephi.plugins.mcp.api;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.ClientHandler;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Connection runner for the API server. Selected with -Dgephi.mcp.runner:
+ * <ul>
+ *   <li>thread  - one new thread per connection (NanoHTTPD's default behaviour)</li>
+ *   <li>virtual - one virtual thread per connection (Java 21+, falls back to bounded)</li>
+ *   <li>bounded - fixed pool of -Dgephi.mcp.workers threads with a queue of
+ *       -Dgephi.mcp.queue pending connections; connections beyond that are closed</li>
+ * </ul>
+ * A connection holds its thread between keep-alive requests, so when every
+ * bounded worker is taken, connections idling between requests (see
+ * {@link ConnectionInput}) are closed to free workers for waiting ones. The
+ * Unix socket listener runs its connections here too, through
+ * {@link #exec(Object, ConnectionInput, Runnable, Runnable)}.
+ */
+final class WorkerAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkerAsyncRunner.class.getName());
+
+    /** The connection served on the current thread. */
+    private static final ThreadLocal<ConnectionInput> CURRENT = new ThreadLocal<>();
+
+    private final Executor executor;
+    private final String mode;
+    private final Map<ClientHandler, ConnectionInput> created = new ConcurrentHashMap<>();
+    private final Map<Object, Connection> running = new ConcurrentHashMap<>();
+
+    private WorkerAsyncRunner(Executor executor, String mode) {
+        this.executor = executor;
+        this.mode = mode;
+    }
+
+    static WorkerAsyncRunner fromSystemProperties() {
+        String mode = System.getProperty("gephi.mcp.runner", "thread").trim().toLowerCase();
+        int workers = Integer.getInteger("gephi.mcp.workers", Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        int queue = Integer.getInteger("gephi.mcp.queue", 64);
+        switch (mode) {
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadExecutor();
+                if (virtual != null) return new WorkerAsyncRunner(virtual, "virtual");
+                LOGGER.warning("MCP API: virtual threads need Java 21+, using bounded runner instead");
+                return bounded(workers, queue);
+            case "bounded":
+                return bounded(workers, queue);
+            default:
+                return new WorkerAsyncRunner(newThreadPerConnection(), "thread");
+        }
+    }
+
+    private static WorkerAsyncRunner bounded(int workers, int queue) {
+        int size = Math.max(1, workers);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)), daemonFactory("MCP-Worker-"));
+        pool.allowCoreThreadTimeOut(true);
+        return new WorkerAsyncRunner(pool, "bounded(" + size + " workers, queue " + Math.max(1, queue) + ")");
+    }
+
+    private static Executor newThreadPerConnection() {
+        ThreadFactory factory = daemonFactory("MCP-Request-");
+        return task -> factory.newThread(task).start();
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor() when running on Java 21+, otherwise null. */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return task -> {
+            Thread t = new Thread(task, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    String mode() {
+        return mode;
+    }
+
+    int openConnections() {
+        return running.size();
+    }
+
+    /** Registers the input of a handler about to be passed to {@link #exec}. */
+    void track(ClientHandler handler, ConnectionInput input) {
+        created.put(handler, input);
+    }
+
+    /** Marks the end of the request served on the calling thread. */
+    void requestDone() {
+        ConnectionInput input = CURRENT.get();
+        if (input != null) input.requestDone();
+    }
+
+    @Override
+    public void exec(ClientHandler handler) {
+        ConnectionInput input = created.remove(handler);
+        exec(handler, input != null ? input : new ConnectionInput(null),   // untracked: never idle
+            handler::run, handler::close);
+    }
+
+    /**
+     * Serves a connection NanoHTTPD did not accept, keyed by connection. serve
+     * must call {@link #release} when the connection ends; close may be called
+     * from any thread to end it early.
+     */
+    void exec(Object connection, ConnectionInput input, Runnable serve, Runnable close) {
+        running.put(connection, new Connection(input, close));
+        if (saturated()) closeIdle();
+        try {
+            executor.execute(() -> {
+                CURRENT.set(input);
+                try {
+                    serve.run();
+                } finally {
+                    CURRENT.remove();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(connection);
+            LOGGER.warning("MCP API: " + mode + " runner saturated, closing connection");
+            close.run();
+        }
+    }
+
+    /** Forgets a connection passed to {@link #exec(Object, ConnectionInput, Runnable, Runnable)} once it ended. */
+    void release(Object connection) {
+        running.remove(connection);
+    }
+
+    private boolean saturated() {
+        if (!(executor instanceof ThreadPoolExecutor)) return false;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        return pool.getActiveCount() >= pool.getMaximumPoolSize();
+    }
+
+    /** Closes connections waiting for their next request, so their workers take queued ones. */
+    private void closeIdle() {
+        int closed = 0;
+        for (Connection c : running.values()) {
+            if (!c.input.idle()) continue;
+            c.close.run();
+            closed++;
+        }
+        if (closed > 0) LOGGER.fine("MCP API: all workers busy, closed " + closed + " idle connection(s)");
+    }
+
+    @Override
+    public void closed(ClientHandler handler) {
+        release(handler);
+    }
+
+    @Override
+    public void closeAll() {
+        for (Connection c : new ArrayList<>(running.values())) c.close.run();
+    }
+
+    void shutdown() {
+        closeAll();
+        if (executor instanceof ExecutorService) ((ExecutorService) executor).shutdownNow();
+    }
+
+    private static final class Connection {
+        final ConnectionInput input;
+        final Runnable close;
+
+        Connection(ConnectionInput input, Runnable close) {
+            this.input = input;
+            this.close = close;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.Table;
+import org.gephi.graph.api.TextProperties;
+import org.gephi.project.api.Workspace;
+
+/**
+ * A list of appearance transforms applied as one pass over the nodes and one
+ * over the edges. Each transform is first evaluated into per-node arrays (node
+ * color, size and label visibility, by position in the gathered nodes) from
+ * primitive data: partition ids from {@link Partitions#encode} and ranking
+ * positions over the cached sorted keys of {@link AttributeIndex}. A later
+ * transform overrides earlier ones on the nodes it covers. The write pass then
+ * sets each node's final values once, skipping the ones that would not change.
+ *
+ * <p>Transforms, as JSON objects with a "type" and a "mode":
+ * <ul>
+ * <li>node_color: partition (column, colors?), ranking (column, scale?,
+ * percentiles?, stops?) or constant (color)</li>
+ * <li>node_size: ranking (column, min_size?, max_size?, scale?, percentiles?)
+ * or constant (size)</li>
+ * <li>node_label: constant (visible?), top (column, count) or threshold
+ * (column, min); top and threshold hide every other label</li>
+ * <li>edge_color: constant (color), source, target or mix (of the endpoints'
+ * colors once the node transforms are applied)</li>
+ * <li>edge_thickness: weight (min_thickness?, max_thickness?), preview settings
+ * the caller applies after the passes, see {@link #edgeThickness}</li>
+ * </ul>
+ */
+final class AppearancePipeline {
+
+    private static final int[][] DEFAULT_GRADIENT = {{255, 255, 200}, {255, 0, 0}};
+
+    private static final class Transform {
+        final int index;
+        final String type, mode, columnName;
+        Rankings.Scale scale;
+        double lowPercentile = 5, highPercentile = 95;
+        Rankings.Gradient gradient;
+        Map<String, Integer> colorMap;
+        int argb;
+        float min, max;
+        double threshold;
+        int count;
+        boolean visible;
+        Column column;
+        int applied;
+
+        Transform(int index, String type, String mode, String columnName) {
+            this.index = index;
+            this.type = type;
+            this.mode = mode;
+            this.columnName = columnName;
+        }
+
+        IllegalArgumentException invalid(String msg) {
+            return new IllegalArgumentException("Transform " + index + " (" + type + "): " + msg);
+        }
+    }
+
+    private final List<Transform> transforms;
+
+    private AppearancePipeline(List<Transform> transforms) {
+        this.transforms = transforms;
+    }
+
+    // ─── Parsing ────────────────────────────────────────────────────
+
+    /** Parses and validates transforms; throws IllegalArgumentException naming the first bad one. */
+    static AppearancePipeline parse(JsonArray specs) {
+        if (specs == null || specs.size() == 0) throw new IllegalArgumentException("No transforms given");
+        List<Transform> transforms = new ArrayList<>(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            if (!specs.get(i).isJsonObject()) throw new IllegalArgumentException("Transform " + i + ": expected an object");
+            transforms.add(parse(i, specs.get(i).getAsJsonObject()));
+        }
+        return new AppearancePipeline(transforms);
+    }
+
+    private static Transform parse(int index, JsonObject spec) {
+        if (!spec.has("type")) throw new IllegalArgumentException("Transform " + index + ": missing 'type'");
+        String type = spec.get("type").getAsString();
+        String mode = spec.has("mode") ? spec.get("mode").getAsString()
+            : type.equals("node_label") ? "constant" : type.equals("edge_thickness") ? "weight" : null;
+        Transform t = new Transform(index, type, mode, spec.has("column") ? spec.get("column").getAsString() : null);
+        if (mode == null) throw t.invalid("missing 'mode'");
+        switch (type + ":" + mode) {
+            case "node_color:partition":
+                requireColumn(t);
+                if (spec.has("colors") && spec.get("colors").isJsonObject()) {
+                    JsonObject colors = spec.getAsJsonObject("colors");
+                    t.colorMap = new HashMap<>();
+                    for (String value : colors.keySet()) t.colorMap.put(value, color(t, colors.get(value)));
+                }
+                break;
+            case "node_color:ranking":
+                requireColumn(t);
+                ranking(t, spec);
+                t.gradient = gradient(t, spec);
+                break;
+            case "node_size:ranking":
+                requireColumn(t);
+                ranking(t, spec);
+                t.min = spec.has("min_size") ? spec.get("min_size").getAsFloat() : 5f;
+                t.max = spec.has("max_size") ? spec.get("max_size").getAsFloat() : 50f;
+                break;
+            case "node_color:constant":
+            case "edge_color:constant":
+                if (!spec.has("color")) throw t.invalid("missing 'color'");
+                t.argb = color(t, spec.get("color"));
+                break;
+            case "node_size:constant":
+                if (!spec.has("size")) throw t.invalid("missing 'size'");
+                t.min = t.max = spec.get("size").getAsFloat();
+                break;
+            case "node_label:constant":
+                t.visible = !spec.has("visible") || spec.get("visible").getAsBoolean();
+                break;
+            case "node_label:top":
+                requireColumn(t);
+                if (!spec.has("count")) throw t.invalid("missing 'count'");
+                t.count = Math.max(0, spec.get("count").getAsInt());
+                break;
+            case "node_label:threshold":
+                requireColumn(t);
+                if (!spec.has("min")) throw t.invalid("missing 'min'");
+                t.threshold = spec.get("min").getAsDouble();
+                break;
+            case "edge_color:source":
+            case "edge_color:target":
+            case "edge_color:mix":
+                break;
+            case "edge_thickness:weight":
+                t.min = spec.has("min_thickness") ? spec.get("min_thickness").getAsFloat() : 1f;
+                t.max = spec.has("max_thickness") ? spec.get("max_thickness").getAsFloat() : 5f;
+                break;
+            default:
+                throw new IllegalArgumentException("Transform " + index + ": unknown type/mode " + type + "/" + mode
+                    + ". Use node_color (partition, ranking, constant), node_size (ranking, constant),"
+                    + " node_label (constant, top, threshold), edge_color (constant, source, target, mix)"
+                    + " or edge_thickness (weight)");
+        }
+        return t;
+    }
+
+    private static void requireColumn(Transform t) {
+        if (t.columnName == null) throw t.invalid("missing 'column'");
+    }
+
+    private static void ranking(Transform t, JsonObject spec) {
+        String scale = spec.has("scale") ? spec.get("scale").getAsString() : null;
+        t.scale = Rankings.Scale.parse(scale);
+        if (t.scale == null) throw t.invalid("unknown scale " + scale + ". Use: linear, log, sqrt, quantile, percentile");
+        if (spec.has("percentiles") && spec.get("percentiles").isJsonArray()) {
+            JsonArray p = spec.getAsJsonArray("percentiles");
+            if (p.size() > 0) t.lowPercentile = p.get(0).getAsDouble();
+            if (p.size() > 1) t.highPercentile = p.get(1).getAsDouble();
+        }
+    }
+
+    /** "stops" as [[r, g, b, a?], ...] or [{at, color}, ...], like /appearance/ranking/color. */
+    private static Rankings.Gradient gradient(Transform t, JsonObject spec) {
+        if (!spec.has("stops") || !spec.get("stops").isJsonArray()) return new Rankings.Gradient(null, DEFAULT_GRADIENT);
+        JsonArray stops = spec.getAsJsonArray("stops");
+        int[][] colors = new int[stops.size()][];
+        double[] at = null;
+        for (int i = 0; i < stops.size(); i++) {
+            JsonElement stop = stops.get(i);
+            JsonElement color = stop.isJsonObject() ? stop.getAsJsonObject().get("color") : stop;
+            if (color == null || !color.isJsonArray() || color.getAsJsonArray().size() < 3) {
+                throw t.invalid("stop " + i + ": expected [r, g, b] or {at, color: [r, g, b]}");
+            }
+            JsonArray rgb = color.getAsJsonArray();
+            colors[i] = new int[rgb.size() > 3 ? 4 : 3];
+            for (int c = 0; c < colors[i].length; c++) colors[i][c] = rgb.get(c).getAsInt();
+            boolean hasAt = stop.isJsonObject() && stop.getAsJsonObject().has("at");
+            if (hasAt ? at == null && i > 0 : at != null) throw t.invalid("give 'at' on every stop or on none");
+            if (hasAt) {
+                if (at == null) at = new double[stops.size()];
+                at[i] = stop.getAsJsonObject().get("at").getAsDouble();
+            }
+        }
+        try {
+            return new Rankings.Gradient(at, colors);
+        } catch (IllegalArgumentException e) {
+            throw t.invalid(e.getMessage());
+        }
+    }
+
+    /** [r, g, b] or [r, g, b, a], packed like {@link Color#getRGB}. */
+    private static int color(Transform t, JsonElement e) {
+        if (!e.isJsonArray() || e.getAsJsonArray().size() < 3) throw t.invalid("expected a color as [r, g, b] or [r, g, b, a]");
+        JsonArray c = e.getAsJsonArray();
+        try {
+            return new Color(c.get(0).getAsInt(), c.get(1).getAsInt(), c.get(2).getAsInt(),
+                c.size() > 3 ? c.get(3).getAsInt() : 255).getRGB();
+        } catch (IllegalArgumentException ex) {
+            throw t.invalid("color components must be within 0..255");
+        }
+    }
+
+    // ─── Applying ───────────────────────────────────────────────────
+
+    /** min and max thickness of the last edge_thickness transform, or null without one. */
+    float[] edgeThickness() {
+        float[] thickness = null;
+        for (Transform t : transforms) if (t.type.equals("edge_thickness")) thickness = new float[] {t.min, t.max};
+        return thickness;
+    }
+
+    /**
+     * Runs the node and edge passes; call under the graph write lock. Columns are
+     * resolved before anything is written, so an unknown or non-numeric column
+     * (IllegalArgumentException) leaves the graph untouched.
+     */
+    JsonObject apply(Workspace ws, GraphModel gm, Graph graph, ChangeLog changes) {
+        Table nodeTable = gm.getNodeTable();
+        List<Transform> partitioned = new ArrayList<>();
+        Transform edgeColor = null;
+        boolean nodePass = false;
+        for (Transform t : transforms) {
+            if (t.columnName != null && !t.mode.equals("constant")) {
+                t.column = nodeTable.getColumn(t.columnName);
+                if (t.column == null) throw t.invalid("column not found: " + t.columnName);
+                if (t.mode.equals("partition")) partitioned.add(t);
+                else if (!t.column.isNumber()) throw t.invalid("column " + t.columnName + " is not numeric");
+            }
+            if (t.type.startsWith("node_")) nodePass = true;
+            if (t.type.equals("edge_color")) edgeColor = t;   // covers every edge, so only the last one counts
+        }
+
+        JsonObject res = new JsonObject();
+        res.addProperty("success", true);
+        JsonObject changed = new JsonObject();
+        if (nodePass) applyToNodes(ws, gm, graph, nodeTable, partitioned, changes, res, changed);
+        if (edgeColor != null) applyToEdges(graph, edgeColor, changes, res, changed);
+
+        JsonArray applied = new JsonArray();
+        for (Transform t : transforms) {
+            JsonObject o = new JsonObject();
+            o.addProperty("type", t.type);
+            o.addProperty("mode", t.mode);
+            if (t.column != null) o.addProperty("column", t.columnName);
+            if (t.scale != null) o.addProperty("scale", t.scale.name().toLowerCase());
+            if (!t.type.equals("edge_thickness")) o.addProperty("applied", t.applied);
+            if (t.type.equals("edge_color") && t != edgeColor) o.addProperty("overridden", true);
+            applied.add(o);
+        }
+        res.add("transforms", applied);
+        res.add("changed", changed);
+        return res;
+    }
+
+    private void applyToNodes(Workspace ws, GraphModel gm, Graph graph, Table nodeTable, List<Transform> partitioned,
+                              ChangeLog changes, JsonObject res, JsonObject changed) {
+        // gather the nodes and the partition columns' values in one traversal
+        Node[] nodes = graph.getNodes().toArray();
+        int n = nodes.length;
+        Map<Transform, Object[]> values = new HashMap<>();
+        for (Transform t : partitioned) values.put(t, new Object[n]);
+        if (!partitioned.isEmpty()) {
+            for (int i = 0; i < n; i++) {
+                for (Transform t : partitioned) values.get(t)[i] = nodes[i].getAttribute(t.column);
+            }
+        }
+
+        // evaluate the transforms in order into the per-node outputs
+        int[] argb = null;
+        float[] size = null;
+        byte[] label = null;   // 0 untouched, 1 shown, 2 hidden
+        boolean[] colored = null, sized = null;
+        int[] storeIndex = null;
+        Map<Column, int[]> rankIndexes = new HashMap<>();
+        AttributeIndex index = AttributeIndex.of(ws, gm);
+        for (Transform t : transforms) {
+            if (!t.type.startsWith("node_")) continue;
+            AttributeIndex.NumericSnapshot sorted = null;
+            int[] at = null;   // node position of each sorted key
+            if (t.column != null && !t.mode.equals("partition")) {
+                sorted = index.sorted(graph, t.column);
+                if (storeIndex == null) storeIndex = storeIndex(nodes);
+                at = rankIndexes.get(t.column);
+                if (at == null) {
+                    at = new int[sorted.nodes.length];
+                    for (int p = 0; p < at.length; p++) {
+                        int store = sorted.nodes[p].getStoreId();
+                        at[p] = store < storeIndex.length ? storeIndex[store] : -1;
+                    }
+                    rankIndexes.put(t.column, at);
+                }
+            }
+            switch (t.type) {
+                case "node_color": {
+                    if (argb == null) {
+                        argb = new int[n];
+                        colored = new boolean[n];
+                    }
+                    if (t.mode.equals("constant")) {
+                        Arrays.fill(argb, t.argb);
+                        Arrays.fill(colored, true);
+                        t.applied = n;
+                    } else if (t.mode.equals("partition")) {
+                        Partitions.Encoded partitions = Partitions.encode(values.get(t));
+                        Integer[] palette = new Integer[partitions.values.length];
+                        if (t.colorMap != null) {
+                            for (int k = 0; k < palette.length; k++) palette[k] = t.colorMap.get(String.valueOf(partitions.values[k]));
+                        } else {
+                            Color[] auto = Partitions.of(ws, nodeTable).autoPalette(t.column, partitions.values);
+                            for (int k = 0; k < palette.length; k++) palette[k] = auto[k].getRGB();
+                        }
+                        for (int i = 0; i < n; i++) {
+                            int id = partitions.ids[i];
+                            if (id < 0 || palette[id] == null) continue;
+                            argb[i] = palette[id];
+                            colored[i] = true;
+                            t.applied++;
+                        }
+                    } else {
+                        int[] c = t.gradient.argb(Rankings.positions(sorted.keys, t.scale, t.lowPercentile, t.highPercentile));
+                        for (int p = 0; p < c.length; p++) {
+                            int i = at[p];
+                            if (i < 0) continue;
+                            argb[i] = c[p];
+                            colored[i] = true;
+                            t.applied++;
+                        }
+                    }
+                    break;
+                }
+                case "node_size": {
+                    if (size == null) {
+                        size = new float[n];
+                        sized = new boolean[n];
+                    }
+                    if (t.mode.equals("constant")) {
+                        Arrays.fill(size, t.min);
+                        Arrays.fill(sized, true);
+                        t.applied = n;
+                    } else {
+                        double[] pos = Rankings.positions(sorted.keys, t.scale, t.lowPercentile, t.highPercentile);
+                        for (int p = 0; p < pos.length; p++) {
+                            int i = at[p];
+                            if (i < 0) continue;
+                            size[i] = (float) (t.min + pos[p] * (t.max - t.min));
+                            sized[i] = true;
+                            t.applied++;
+                        }
+                    }
+                    break;
+                }
+                default: {   // node_label
+                    if (label == null) label = new byte[n];
+                    if (t.mode.equals("constant")) {
+                        Arrays.fill(label, t.visible ? (byte) 1 : (byte) 2);
+                        t.applied = t.visible ? n : 0;
+                        break;
+                    }
+                    Arrays.fill(label, (byte) 2);
+                    int from = t.mode.equals("top") ? Math.max(0, at.length - t.count) : sorted.lowerBound(t.threshold);
+                    for (int p = from; p < at.length; p++) {
+                        if (at[p] < 0) continue;
+                        label[at[p]] = 1;
+                        t.applied++;
+                    }
+                }
+            }
+        }
+
+        // one write pass over the nodes
+        Node[] colorChanged = argb != null ? new Node[n] : null;
+        Node[] sizeChanged = size != null ? new Node[n] : null;
+        Node[] labelChanged = label != null ? new Node[n] : null;
+        int colors = 0, sizes = 0, labels = 0;
+        for (int i = 0; i < n; i++) {
+            Node node = nodes[i];
+            if (colored != null && colored[i] && !hasColor(node.r(), node.g(), node.b(), node.alpha(), argb[i])) {
+                UndoLog.color(node);
+                node.setColor(new Color(argb[i], true));
+                colorChanged[colors++] = node;
+            }
+            if (sized != null && sized[i] && node.size() != size[i]) {
+                UndoLog.size(node);
+                node.setSize(size[i]);
+                sizeChanged[sizes++] = node;
+            }
+            if (label != null && label[i] != 0) {
+                TextProperties text = node.getTextProperties();
+                boolean visible = label[i] == 1;
+                if (text.isVisible() != visible) {
+                    text.setVisible(visible);
+                    labelChanged[labels++] = node;
+                }
+            }
+        }
+        res.addProperty("nodes", n);
+        if (colorChanged != null) {
+            changes.nodes(colorChanged, colors, "color");
+            changed.addProperty("node_color", colors);
+        }
+        if (sizeChanged != null) {
+            changes.nodes(sizeChanged, sizes, "size");
+            changed.addProperty("node_size", sizes);
+        }
+        if (labelChanged != null) {
+            changes.nodes(labelChanged, labels, "label");
+            changed.addProperty("node_label", labels);
+        }
+    }
+
+    /** Position in nodes by store id, -1 for store ids not among them. */
+    private static int[] storeIndex(Node[] nodes) {
+        int max = -1;
+        for (Node node : nodes) max = Math.max(max, node.getStoreId());
+        int[] index = new int[max + 1];
+        Arrays.fill(index, -1);
+        for (int i = 0; i < nodes.length; i++) index[nodes[i].getStoreId()] = i;
+        return index;
+    }
+
+    /** One write pass over the edges, after the node pass so endpoint colors are final. */
+    private static void applyToEdges(Graph graph, Transform t, ChangeLog changes, JsonObject res, JsonObject changed) {
+        Edge[] edges = graph.getEdges().toArray();
+        Edge[] colorChanged = new Edge[edges.length];
+        int colors = 0;
+        for (Edge e : edges) {
+            int c;
+            switch (t.mode) {
+                case "source": c = argb(e.getSource()); break;
+                case "target": c = argb(e.getTarget()); break;
+                case "mix": c = mix(argb(e.getSource()), argb(e.getTarget())); break;
+                default: c = t.argb;
+            }
+            if (hasColor(e.r(), e.g(), e.b(), e.alpha(), c)) continue;
+            e.setColor(new Color(c, true));
+            colorChanged[colors++] = e;
+        }
+        t.applied = edges.length;
+        res.addProperty("edges", edges.length);
+        changes.edges(colorChanged, colors, "color");
+        changed.addProperty("edge_color", colors);
+    }
+
+    private static int argb(Node n) {
+        return channel(n.alpha()) << 24 | channel(n.r()) << 16 | channel(n.g()) << 8 | channel(n.b());
+    }
+
+    private static int channel(float f) {
+        return Math.round(f * 255);
+    }
+
+    /** The channel-wise mean of a and b. */
+    private static int mix(int a, int b) {
+        int packed = 0;
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            packed |= ((((a >>> shift) & 0xff) + ((b >>> shift) & 0xff)) / 2) << shift;
+        }
+        return packed;
+    }
+
+    /** Whether the color (r, g, b, alpha) in [0, 1] is argb (packed like {@link Color#getRGB}), without allocating a Color. */
+    static boolean hasColor(float r, float g, float b, float alpha, int argb) {
+        return channel(alpha) == (argb >>> 24) && channel(r) == ((argb >> 16) & 0xff)
+            && channel(g) == ((argb >> 8) & 0xff) && channel(b) == (argb & 0xff);
+    }
+}
@@ -0,0 +1,392 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.Predicate;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.ColumnObserver;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.GraphObserver;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.Table;
+import org.gephi.project.api.Workspace;
+
+/**
+ * Secondary indexes over node attribute columns, kept in the workspace's lookup
+ * like {@link WorkspaceVersion}. Numeric columns are indexed as a sorted double[]
+ * with the nodes in the same order, so equality and range predicates are two
+ * binary searches; other columns as a hash map from value text to nodes, plus
+ * the sorted distinct values for prefix and range predicates. Writers
+ * (statistics, imports, the UI) never pay for upkeep: once a column observer
+ * sees its values change or the graph observer sees nodes come or go, the
+ * column's index is dropped. The next query scans the nodes and indexes only
+ * its matches, and the query after that, if nothing changed in between,
+ * rebuilds the full index. A column queried once per change so costs one pass
+ * and the sort of its matches, not a sort of every value. Top-k listings reuse
+ * a numeric column's sorted index while it is current; ranking appearance
+ * builds it.
+ */
+final class AttributeIndex {
+
+    private final Table table;
+    private final GraphObserver structure;
+    private long structureVersion;
+    private final Map<Column, ColumnIndex> columns = new HashMap<>();
+
+    private AttributeIndex(GraphModel graphModel) {
+        this.table = graphModel.getNodeTable();
+        this.structure = graphModel.createGraphObserver(graphModel.getGraph(), false);
+    }
+
+    static AttributeIndex of(Workspace ws, GraphModel graphModel) {
+        synchronized (ws) {
+            AttributeIndex index = ws.getLookup().lookup(AttributeIndex.class);
+            if (index == null) {
+                index = new AttributeIndex(graphModel);
+                ws.add(index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Nodes of g matching q, in index order. Call under the graph read lock;
+     * throws IllegalArgumentException for an unknown or unindexable column.
+     */
+    Node[] select(Graph g, AttributeQuery q) {
+        Column col = table.getColumn(q.attr);
+        if (col == null) throw new IllegalArgumentException("Column not found: " + q.attr);
+        if (col.isArray() || col.isDynamic()) {
+            throw new IllegalArgumentException("Column '" + q.attr + "' holds arrays or dynamic values and cannot be queried");
+        }
+        ColumnIndex index;
+        long version;
+        synchronized (this) {
+            if (structure.hasGraphChanged()) structureVersion++;
+            version = structureVersion;
+            for (Iterator<Map.Entry<Column, ColumnIndex>> it = columns.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Column, ColumnIndex> e = it.next();
+                if (table.getColumn(e.getKey().getId()) != e.getKey()) {   // column removed
+                    e.getValue().observer.destroy();
+                    it.remove();
+                }
+            }
+            index = columns.computeIfAbsent(col, ColumnIndex::new);
+        }
+        Snapshot snapshot = index.snapshot(g, version, false);
+        return snapshot != null ? snapshot.select(q) : scan(g, col, q);
+    }
+
+    /**
+     * q answered by one pass over the nodes: the matches are indexed like a full
+     * snapshot and selected from, so they come in the same order, except among
+     * equal numeric keys.
+     */
+    private static Node[] scan(Graph g, Column col, AttributeQuery q) {
+        if (col.isNumber()) {
+            DoublePredicate keep;
+            switch (q.op) {
+                case EQ:
+                case IN: {
+                    double[] values = q.values.stream().mapToDouble(NumericSnapshot::parse).toArray();
+                    keep = d -> {
+                        for (double v : values) if (d == v) return true;
+                        return false;
+                    };
+                    break;
+                }
+                case RANGE: {
+                    double min = q.min != null ? NumericSnapshot.parse(q.min) : Double.NEGATIVE_INFINITY;
+                    double max = q.max != null ? NumericSnapshot.parse(q.max) : Double.POSITIVE_INFINITY;
+                    keep = d -> d >= min && d <= max;
+                    break;
+                }
+                default:
+                    keep = d -> false;   // rejected by select
+            }
+            return NumericSnapshot.build(g, col, keep).select(q);
+        }
+        Predicate<String> keep;
+        switch (q.op) {
+            case EQ:
+            case IN:
+                keep = q.values::contains;
+                break;
+            case PREFIX:
+                keep = v -> v.startsWith(q.values.get(0));
+                break;
+            default:
+                keep = v -> (q.min == null || v.compareTo(q.min) >= 0) && (q.max == null || v.compareTo(q.max) <= 0);
+        }
+        return TextSnapshot.build(g, col, keep).select(q);
+    }
+
+    /**
+     * The sorted index of numeric column col, built now unless a query or an
+     * earlier call already did, brought up to date. Call under the graph read lock.
+     */
+    NumericSnapshot sorted(Graph g, Column col) {
+        if (!col.isNumber()) throw new IllegalArgumentException("Column '" + col.getId() + "' is not numeric");
+        ColumnIndex index;
+        long version;
+        synchronized (this) {
+            if (structure.hasGraphChanged()) structureVersion++;
+            version = structureVersion;
+            index = columns.computeIfAbsent(col, ColumnIndex::new);
+        }
+        return (NumericSnapshot) index.snapshot(g, version, true);
+    }
+
+    /**
+     * The sorted index of numeric column col if one is built and current, or due
+     * to be rebuilt; null otherwise. Call under the graph read lock.
+     */
+    NumericSnapshot sortedIfIndexed(Graph g, Column col) {
+        ColumnIndex index;
+        long version;
+        synchronized (this) {
+            index = columns.get(col);
+            if (index == null || !col.isNumber() || table.getColumn(col.getId()) != col) return null;
+            if (structure.hasGraphChanged()) structureVersion++;
+            version = structureVersion;
+        }
+        return (NumericSnapshot) index.snapshot(g, version, false);
+    }
+
+    private static final class ColumnIndex {
+        final Column column;
+        final ColumnObserver observer;
+        /** The index; null until built and after a change. */
+        private Snapshot snapshot;
+        /** The structure version snapshot was checked against. */
+        private long seenAt = -1;
+        /** Whether the column was looked up since its last change. */
+        private boolean used;
+
+        ColumnIndex(Column column) {
+            this.column = column;
+            this.observer = column.createColumnObserver(false);
+        }
+
+        /**
+         * The current index, built now when build is set or the column was
+         * already looked up since its last change; null for the first lookup
+         * after a change, which scans instead.
+         */
+        synchronized Snapshot snapshot(Graph g, long structureVersion, boolean build) {
+            if (observer.hasColumnChanged() || seenAt != structureVersion) {
+                snapshot = null;
+                seenAt = structureVersion;
+                used = false;
+            }
+            if (snapshot == null && (build || used)) {
+                snapshot = column.isNumber() ? NumericSnapshot.build(g, column, d -> true)
+                    : TextSnapshot.build(g, column, v -> true);
+            }
+            used = true;
+            return snapshot;
+        }
+    }
+
+    private interface Snapshot {
+        Node[] select(AttributeQuery q);
+    }
+
+    // ─── Numeric columns: sorted keys ───────────────────────────────
+
+    static final class NumericSnapshot implements Snapshot {
+        final double[] keys;
+        final Node[] nodes;
+
+        NumericSnapshot(double[] keys, Node[] nodes) {
+            this.keys = keys;
+            this.nodes = nodes;
+        }
+
+        /** The index of the nodes whose key passes keep. */
+        static NumericSnapshot build(Graph g, Column col, DoublePredicate keep) {
+            int n = g.getNodeCount(), size = 0;
+            double[] keys = new double[n];
+            Node[] nodes = new Node[n];
+            for (Node node : g.getNodes()) {
+                Object v = node.getAttribute(col);
+                if (!(v instanceof Number)) continue;
+                double d = ((Number) v).doubleValue();
+                if (Double.isNaN(d) || size == n || !keep.test(d)) continue;
+                keys[size] = d;
+                nodes[size++] = node;
+            }
+            keys = Arrays.copyOf(keys, size);
+            nodes = Arrays.copyOf(nodes, size);
+            sort(keys, nodes, 0, size);
+            return new NumericSnapshot(keys, nodes);
+        }
+
+        @Override
+        public Node[] select(AttributeQuery q) {
+            switch (q.op) {
+                case EQ: {
+                    double v = parse(q.values.get(0));
+                    return Arrays.copyOfRange(nodes, lowerBound(v), upperBound(v));
+                }
+                case IN: {
+                    List<Node> out = new ArrayList<>();
+                    for (String s : q.values) {
+                        double v = parse(s);
+                        out.addAll(Arrays.asList(nodes).subList(lowerBound(v), upperBound(v)));
+                    }
+                    return out.toArray(new Node[0]);
+                }
+                case RANGE: {
+                    int from = q.min != null ? lowerBound(parse(q.min)) : 0;
+                    int to = q.max != null ? upperBound(parse(q.max)) : keys.length;
+                    return from < to ? Arrays.copyOfRange(nodes, from, to) : new Node[0];
+                }
+                default:
+                    throw new IllegalArgumentException("'prefix' needs a text column");
+            }
+        }
+
+        private static double parse(String s) {
+            try {
+                return Double.parseDouble(s.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + s);
+            }
+        }
+
+        /** First position whose key is &gt;= v. */
+        int lowerBound(double v) {
+            int lo = 0, hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < v) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /** First position whose key is &gt; v. */
+        private int upperBound(double v) {
+            int lo = 0, hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] <= v) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        /**
+         * Sorts keys[from, to) ascending, moving nodes along. Three-way partitions,
+         * so the long runs of equal keys of class-like columns cost one pass.
+         */
+        private static void sort(double[] keys, Node[] nodes, int from, int to) {
+            while (to - from > 16) {
+                double pivot = median(keys[from], keys[(from + to) >>> 1], keys[to - 1]);
+                int lt = from, i = from, gt = to;
+                while (i < gt) {
+                    if (keys[i] < pivot) swap(keys, nodes, lt++, i++);
+                    else if (keys[i] > pivot) swap(keys, nodes, i, --gt);
+                    else i++;
+                }
+                if (lt - from < to - gt) {   // recurse into the smaller side
+                    sort(keys, nodes, from, lt);
+                    from = gt;
+                } else {
+                    sort(keys, nodes, gt, to);
+                    to = lt;
+                }
+            }
+            for (int i = from + 1; i < to; i++) {
+                for (int j = i; j > from && keys[j - 1] > keys[j]; j--) swap(keys, nodes, j, j - 1);
+            }
+        }
+
+        private static double median(double a, double b, double c) {
+            return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+        }
+
+        private static void swap(double[] keys, Node[] nodes, int i, int j) {
+            double k = keys[i]; keys[i] = keys[j]; keys[j] = k;
+            Node n = nodes[i]; nodes[i] = nodes[j]; nodes[j] = n;
+        }
+    }
+
+    // ─── Other columns: value text to nodes ─────────────────────────
+
+    private static final class TextSnapshot implements Snapshot {
+        final Map<String, Node[]> groups;
+        final String[] sortedValues;
+
+        TextSnapshot(Map<String, Node[]> groups) {
+            this.groups = groups;
+            this.sortedValues = groups.keySet().toArray(new String[0]);
+            Arrays.sort(sortedValues);
+        }
+
+        /** The index of the nodes whose value text passes keep. */
+        static TextSnapshot build(Graph g, Column col, Predicate<String> keep) {
+            Map<String, List<Node>> lists = new HashMap<>();
+            for (Node node : g.getNodes()) {
+                Object v = node.getAttribute(col);
+                if (v == null) continue;
+                String text = v.toString();
+                if (keep.test(text)) lists.computeIfAbsent(text, k -> new ArrayList<>()).add(node);
+            }
+            Map<String, Node[]> groups = new HashMap<>(lists.size() * 2);
+            for (Map.Entry<String, List<Node>> e : lists.entrySet()) {
+                groups.put(e.getKey(), e.getValue().toArray(new Node[0]));
+            }
+            return new TextSnapshot(groups);
+        }
+
+        @Override
+        public Node[] select(AttributeQuery q) {
+            switch (q.op) {
+                case EQ: {
+                    Node[] match = groups.get(q.values.get(0));
+                    return match != null ? match.clone() : new Node[0];
+                }
+                case IN: {
+                    List<Node> out = new ArrayList<>();
+                    for (String s : q.values) {
+                        Node[] match = groups.get(s);
+                        if (match != null) out.addAll(Arrays.asList(match));
+                    }
+                    return out.toArray(new Node[0]);
+                }
+                case PREFIX: {
+                    String prefix = q.values.get(0);
+                    int from = insertionPoint(prefix), to = from;
+                    while (to < sortedValues.length && sortedValues[to].startsWith(prefix)) to++;
+                    return union(from, to);
+                }
+                default: {
+                    int from = q.min != null ? insertionPoint(q.min) : 0;
+                    int to = sortedValues.length;
+                    if (q.max != null) {
+                        to = insertionPoint(q.max);
+                        if (to < sortedValues.length && sortedValues[to].equals(q.max)) to++;
+                    }
+                    return union(from, to);
+                }
+            }
+        }
+
+        private int insertionPoint(String s) {
+            int i = Arrays.binarySearch(sortedValues, s);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        private Node[] union(int from, int to) {
+            List<Node> out = new ArrayList<>();
+            for (int i = from; i < to; i++) out.addAll(Arrays.asList(groups.get(sortedValues[i])));
+            return out.toArray(new Node[0]);
+        }
+    }
+}
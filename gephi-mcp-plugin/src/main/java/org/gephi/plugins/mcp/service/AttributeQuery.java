@@ -0,0 +1,58 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A predicate on one node attribute, from /graph/nodes query parameters:
+ * attr=&lt;column&gt; with exactly one of eq=&lt;value&gt; (or val=), in=&lt;v1,v2,...&gt;,
+ * min=&lt;value&gt; and/or max=&lt;value&gt; (inclusive), or prefix=&lt;text&gt;.
+ */
+public final class AttributeQuery {
+
+    enum Op { EQ, IN, RANGE, PREFIX }
+
+    final String attr;
+    final Op op;
+    /** The eq value, the distinct in values, or the prefix. */
+    final List<String> values;
+    /** Range bounds; either may be null for an open end. */
+    final String min, max;
+
+    private AttributeQuery(String attr, Op op, List<String> values, String min, String max) {
+        this.attr = attr;
+        this.op = op;
+        this.values = values;
+        this.min = min;
+        this.max = max;
+    }
+
+    /** The query in params, or null when there is no attr parameter. */
+    public static AttributeQuery fromParams(Map<String, String> params) {
+        String attr = params.get("attr");
+        if (attr == null || attr.isEmpty()) return null;
+        String eq = params.containsKey("eq") ? params.get("eq") : params.get("val");
+        String in = params.get("in");
+        String min = params.get("min"), max = params.get("max");
+        String prefix = params.get("prefix");
+        int given = (eq != null ? 1 : 0) + (in != null ? 1 : 0) + (prefix != null ? 1 : 0)
+            + (min != null || max != null ? 1 : 0);
+        if (given != 1) {
+            throw new IllegalArgumentException("With 'attr', give exactly one of eq (or val), in, min/max, prefix");
+        }
+        if (eq != null) return new AttributeQuery(attr, Op.EQ, List.of(eq), null, null);
+        if (prefix != null) return new AttributeQuery(attr, Op.PREFIX, List.of(prefix), null, null);
+        if (in != null) {
+            return new AttributeQuery(attr, Op.IN, new ArrayList<>(new LinkedHashSet<>(List.of(in.split(",", -1)))), null, null);
+        }
+        return new AttributeQuery(attr, Op.RANGE, List.of(), min, max);
+    }
+
+    /** Canonical text of the query, e.g. to tell whether a cursor was issued for it. */
+    @Override
+    public String toString() {
+        return attr + " " + op + " " + values + " " + min + " " + max;
+    }
+}
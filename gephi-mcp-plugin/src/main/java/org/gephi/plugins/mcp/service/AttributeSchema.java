@@ -0,0 +1,254 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Element;
+import org.gephi.graph.api.Table;
+
+/**
+ * Attribute columns of one bulk request, resolved once per key instead of once
+ * per cell. A key's type comes from the request's declared schema, else from the
+ * existing column, else from its first non-null value (number: Double, boolean:
+ * Boolean, anything else: String). Values are read from the JsonReader straight
+ * into the column's type, without a toString() and re-parse.
+ */
+final class AttributeSchema {
+
+    enum Kind {
+        STRING(String.class), INTEGER(Integer.class), LONG(Long.class),
+        FLOAT(Float.class), DOUBLE(Double.class), BOOLEAN(Boolean.class),
+        /** Column types bulk writes don't handle (arrays, dynamic values); cells are skipped. */
+        OTHER(null);
+
+        final Class<?> type;
+
+        Kind(Class<?> type) {
+            this.type = type;
+        }
+
+        static Kind of(Class<?> type) {
+            for (Kind k : values()) if (k.type == type) return k;
+            return OTHER;
+        }
+
+        /** string, integer/int, long, float, double, boolean/bool; null if unknown. */
+        static Kind parse(String name) {
+            if (name == null) return null;
+            switch (name.toLowerCase()) {
+                case "string": return STRING;
+                case "integer": case "int": return INTEGER;
+                case "long": return LONG;
+                case "float": return FLOAT;
+                case "double": return DOUBLE;
+                case "boolean": case "bool": return BOOLEAN;
+                default: return null;
+            }
+        }
+    }
+
+    /** A value that could not be converted to its column's type; the cell is left unchanged. */
+    static final Object INVALID = new Object();
+
+    /** The attributes of one record, as (slot, typed value) pairs. */
+    static final class Row {
+        /** Shared by records without attributes; never written to. */
+        static final Row EMPTY = new Row();
+
+        private static final int[] NO_SLOTS = new int[0];
+        private static final Object[] NO_VALUES = new Object[0];
+
+        private int[] slots = NO_SLOTS;
+        private Object[] values = NO_VALUES;
+        private int size;
+
+        void put(int slot, Object value) {
+            if (size == slots.length) {
+                int capacity = Math.max(4, size * 2);
+                slots = Arrays.copyOf(slots, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            slots[size] = slot;
+            values[size++] = value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private static final class Slot {
+        final String key;
+        Kind kind;           // null until declared, found on the table or inferred
+        Column column;       // null until created
+
+        Slot(String key, Kind kind, Column column) {
+            this.key = key;
+            this.kind = kind;
+            this.column = column;
+        }
+    }
+
+    private final Table table;
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<Slot> slots = new ArrayList<>();
+    private final List<String> created = new ArrayList<>();
+    private int invalid;
+
+    AttributeSchema(Table table) {
+        this.table = table;
+    }
+
+    /** Declares key's type up front; throws if an existing column has another type. */
+    void declare(String key, String typeName) {
+        Kind kind = Kind.parse(typeName);
+        if (kind == null) {
+            throw new IllegalArgumentException("Unknown type '" + typeName + "' for " + key
+                + ". Use: string, integer, long, float, double, boolean");
+        }
+        Column col = table.getColumn(key);
+        if (col != null && Kind.of(col.getTypeClass()) != kind) {
+            throw new IllegalArgumentException("Column '" + key + "' already exists as "
+                + col.getTypeClass().getSimpleName() + ", not " + typeName);
+        }
+        Integer i = index.get(key);
+        if (i != null) {
+            slots.get(i).kind = kind;
+            return;
+        }
+        index.put(key, slots.size());
+        slots.add(new Slot(key, kind, col));
+    }
+
+    /** Reads a {key: value, ...} object into a row; "id" is never writable and is skipped. */
+    Row readRow(JsonReader in) throws IOException {
+        Row row = new Row();
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return row;
+        }
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (key.equalsIgnoreCase("id")) {
+                in.skipValue();
+                continue;
+            }
+            int slot = slot(key);
+            Object value = read(slots.get(slot), in);
+            if (value == INVALID) invalid++;
+            else row.put(slot, value);
+        }
+        in.endObject();
+        return row;
+    }
+
+    private int slot(String key) {
+        Integer i = index.get(key);
+        if (i != null) return i;
+        Column col = table.getColumn(key);
+        index.put(key, slots.size());
+        slots.add(new Slot(key, col != null ? Kind.of(col.getTypeClass()) : null, col));
+        return slots.size() - 1;
+    }
+
+    private static Object read(Slot slot, JsonReader in) throws IOException {
+        JsonToken t = in.peek();
+        if (t == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (slot.kind == null) {
+            slot.kind = t == JsonToken.NUMBER ? Kind.DOUBLE : t == JsonToken.BOOLEAN ? Kind.BOOLEAN : Kind.STRING;
+        }
+        try {
+            switch (slot.kind) {
+                case STRING:
+                    if (t == JsonToken.STRING || t == JsonToken.NUMBER) return in.nextString();
+                    if (t == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+                    return JsonIngest.readValue(in);   // nested value: its JSON text
+                case BOOLEAN:
+                    if (t == JsonToken.BOOLEAN) return in.nextBoolean();
+                    if (t == JsonToken.STRING) return Boolean.parseBoolean(in.nextString());
+                    if (t == JsonToken.NUMBER) return in.nextDouble() != 0;
+                    break;
+                case LONG:
+                    if (t != JsonToken.NUMBER && t != JsonToken.STRING) break;
+                    try {
+                        return in.nextLong();
+                    } catch (NumberFormatException e) {
+                        return (long) in.nextDouble();   // the reader keeps the token buffered after a failed nextLong
+                    }
+                case INTEGER:
+                    if (t == JsonToken.NUMBER || t == JsonToken.STRING) return (int) in.nextDouble();
+                    break;
+                case FLOAT:
+                    if (t == JsonToken.NUMBER || t == JsonToken.STRING) return (float) in.nextDouble();
+                    break;
+                case DOUBLE:
+                    if (t == JsonToken.NUMBER || t == JsonToken.STRING) return in.nextDouble();
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException | MalformedJsonException e) {
+            // a string that is not a number, or "NaN"/"Infinity"; the token is still buffered and skipped below
+        }
+        in.skipValue();
+        return INVALID;
+    }
+
+    /**
+     * Creates the columns of keys seen or declared since the last call. Call under
+     * the graph write lock, before {@link #apply}ing rows read so far.
+     */
+    void createColumns() {
+        for (Slot s : slots) {
+            if (s.column != null) continue;
+            if (s.kind == null) continue;   // only nulls so far
+            Column existing = table.getColumn(s.key);   // added since the slot was resolved
+            if (existing != null) {
+                s.column = existing;
+                s.kind = Kind.of(existing.getTypeClass());
+                continue;
+            }
+            s.column = table.addColumn(s.key, s.kind.type);
+            UndoLog.columnAdded(table, s.column);
+            created.add(s.key);
+        }
+    }
+
+    /** Writes row's values to element; cells the column rejects are counted as invalid. */
+    void apply(Row row, Element element) {
+        for (int i = 0; i < row.size; i++) {
+            Slot s = slots.get(row.slots[i]);
+            if (s.column == null || s.kind == Kind.OTHER) continue;
+            Object value = row.values[i];
+            if (value != null && !s.kind.type.isInstance(value)) {
+                invalid++;   // column adopted with another type after the value was read
+                continue;
+            }
+            try {
+                UndoLog.attribute(element, s.column);
+                element.setAttribute(s.column, value);
+            } catch (IllegalArgumentException e) {
+                invalid++;
+            }
+        }
+    }
+
+    List<String> createdColumns() {
+        return created;
+    }
+
+    int invalidCount() {
+        return invalid;
+    }
+}
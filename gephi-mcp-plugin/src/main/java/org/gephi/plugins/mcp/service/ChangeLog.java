@@ -0,0 +1,241 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphDiff;
+import org.gephi.graph.api.Node;
+
+/**
+ * Bounded log of a workspace's changes for /graph/changes, owned by its
+ * {@link WorkspaceVersion}. Records go into a ring of parallel arrays and are
+ * stamped with the workspace version of the bump that publishes them, so a
+ * client holding version v asks for everything after v. Additions and removals
+ * come from the version's graph observer diff, which also sees edits made in
+ * the Gephi UI; value edits (labels, positions, colors, attributes...) are
+ * recorded by the service methods that make them. Once the ring has wrapped
+ * past a version, a client at that version must resync.
+ */
+final class ChangeLog {
+
+    static final String ADD = "add", REMOVE = "remove", UPDATE = "update";
+
+    /** One change; id, source and target are null for an update of every node or edge. */
+    static final class Change {
+        final long version;
+        final String op;
+        final boolean edge;
+        final String id, source, target, field;
+
+        Change(long version, String op, boolean edge, String id, String source, String target, String field) {
+            this.version = version;
+            this.op = op;
+            this.edge = edge;
+            this.id = id;
+            this.source = source;
+            this.target = target;
+            this.field = field;
+        }
+    }
+
+    /** Changes after some version, or a resync order. */
+    static final class Slice {
+        final boolean resync;
+        final List<Change> changes;
+        /** Version the client holds after applying changes. */
+        final long version;
+        /** Whether changes stopped at the limit before reaching version. */
+        final boolean more;
+
+        Slice(boolean resync, List<Change> changes, long version, boolean more) {
+            this.resync = resync;
+            this.changes = changes;
+            this.version = version;
+            this.more = more;
+        }
+    }
+
+    private final int capacity;
+    private final long[] versions;
+    private final String[] ops;
+    private final boolean[] edges;
+    private final String[] ids, sources, targets, fields;
+    /** Sequence numbers: records [oldest, head) are in the ring, [oldest, sealed) have a version. */
+    private long oldest, sealed, head;
+    /** Changes up to this version are not (or no longer) in the ring. */
+    private long droppedThrough;
+    /** Whether an unsealed record was overwritten or a diff went unlisted, so the next seal's version is lost too. */
+    private boolean pendingDropped;
+
+    ChangeLog(int capacity, long createdAt) {
+        this.capacity = Math.max(1, capacity);
+        this.versions = new long[this.capacity];
+        this.ops = new String[this.capacity];
+        this.edges = new boolean[this.capacity];
+        this.ids = new String[this.capacity];
+        this.sources = new String[this.capacity];
+        this.targets = new String[this.capacity];
+        this.fields = new String[this.capacity];
+        this.droppedThrough = createdAt;
+    }
+
+    static int capacityFromSystemProperties() {
+        return Integer.getInteger("gephi.mcp.changes.capacity", 100_000);
+    }
+
+    // ─── Recording ──────────────────────────────────────────────────
+
+    /** A value edit of node n, e.g. field "label". */
+    void node(Node n, String field) {
+        append(UPDATE, false, String.valueOf(n.getId()), null, null, field);
+    }
+
+    /** A value edit of edge e, e.g. field "weight". */
+    void edge(Edge e, String field) {
+        append(UPDATE, true, String.valueOf(e.getId()),
+            String.valueOf(e.getSource().getId()), String.valueOf(e.getTarget().getId()), field);
+    }
+
+    /** Value edits of nodes[0, count), as one record for every node once they are too many to list. */
+    void nodes(Node[] nodes, int count, String field) {
+        if (count > capacity / 16) {
+            allNodes(field);
+            return;
+        }
+        for (int i = 0; i < count; i++) node(nodes[i], field);
+    }
+
+    /** Value edits of edges[0, count), like {@link #nodes}. */
+    void edges(Edge[] edges, int count, String field) {
+        if (count > capacity / 16) {
+            allEdges(field);
+            return;
+        }
+        for (int i = 0; i < count; i++) edge(edges[i], field);
+    }
+
+    /** A value edit of every node, e.g. a statistic's column or a ranking's colors. */
+    void allNodes(String field) {
+        append(UPDATE, false, null, null, null, field);
+    }
+
+    /** A value edit of every edge. */
+    void allEdges(String field) {
+        append(UPDATE, true, null, null, null, field);
+    }
+
+    /**
+     * Records the additions and removals of a graph observer diff, removals first
+     * so a removed and re-added id ends up present. Elements that were added and
+     * removed again within the diff are only reported as removed. A diff too large
+     * to list is not recorded; clients at earlier versions must resync instead.
+     * Returns whether a node was, or would have been, recorded.
+     */
+    boolean diff(GraphDiff diff, Graph g) {
+        Node[] removedNodes = diff.getRemovedNodes().toArray(), addedNodes = diff.getAddedNodes().toArray();
+        Edge[] removedEdges = diff.getRemovedEdges().toArray(), addedEdges = diff.getAddedEdges().toArray();
+        if (removedNodes.length + addedNodes.length + removedEdges.length + addedEdges.length > capacity / 16) {
+            resync();
+            return removedNodes.length + addedNodes.length > 0;
+        }
+        boolean nodes = false;
+        for (Edge e : removedEdges) {
+            if (!g.contains(e)) append(REMOVE, true, String.valueOf(e.getId()),
+                String.valueOf(e.getSource().getId()), String.valueOf(e.getTarget().getId()), null);
+        }
+        for (Node n : removedNodes) {
+            if (!g.contains(n)) {
+                append(REMOVE, false, String.valueOf(n.getId()), null, null, null);
+                nodes = true;
+            }
+        }
+        for (Node n : addedNodes) {
+            if (g.contains(n)) {
+                append(ADD, false, String.valueOf(n.getId()), null, null, null);
+                nodes = true;
+            }
+        }
+        for (Edge e : addedEdges) {
+            if (g.contains(e)) append(ADD, true, String.valueOf(e.getId()),
+                String.valueOf(e.getSource().getId()), String.valueOf(e.getTarget().getId()), null);
+        }
+        return nodes;
+    }
+
+    /** Makes the next seal's version the oldest a client can read changes from. */
+    private synchronized void resync() {
+        pendingDropped = true;
+    }
+
+    private synchronized void append(String op, boolean edge, String id, String source, String target, String field) {
+        if (head - oldest == capacity) {
+            if (oldest < sealed) droppedThrough = Math.max(droppedThrough, versions[slot(oldest)]);
+            else pendingDropped = true;
+            oldest++;
+        }
+        int i = slot(head++);
+        ops[i] = op;
+        edges[i] = edge;
+        ids[i] = id;
+        sources[i] = source;
+        targets[i] = target;
+        fields[i] = field;
+    }
+
+    /** Publishes the records made since the last seal under version. */
+    synchronized void seal(long version) {
+        for (long s = Math.max(sealed, oldest); s < head; s++) versions[slot(s)] = version;
+        sealed = head;
+        if (pendingDropped) {
+            droppedThrough = version;
+            pendingDropped = false;
+        }
+    }
+
+    /** Position of the next record, for {@link #truncate}. */
+    synchronized long mark() {
+        return head;
+    }
+
+    /**
+     * Drops the records made since mark, e.g. by a transaction that was rolled
+     * back. Records already sealed or overwritten by the ring stay as they are.
+     */
+    synchronized void truncate(long mark) {
+        head = Math.max(mark, Math.max(sealed, oldest));
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    // ─── Reading ────────────────────────────────────────────────────
+
+    /**
+     * The published changes after version since, whole versions at a time and
+     * stopping once limit changes are collected; a resync order when since is
+     * older than what the ring still holds or newer than current.
+     */
+    synchronized Slice since(long since, long current, int limit) {
+        if (since < droppedThrough || since > current) return new Slice(true, List.of(), current, false);
+        long lo = Math.max(oldest, 0), hi = sealed;
+        while (lo < hi) {   // first sealed record with version > since
+            long mid = (lo + hi) >>> 1;
+            if (versions[slot(mid)] <= since) lo = mid + 1; else hi = mid;
+        }
+        List<Change> out = new ArrayList<>();
+        long s = lo;
+        while (s < sealed) {
+            long version = versions[slot(s)];
+            if (out.size() >= Math.max(limit, 1)) {
+                return new Slice(false, out, out.get(out.size() - 1).version, true);
+            }
+            for (; s < sealed && versions[slot(s)] == version; s++) {
+                int i = slot(s);
+                out.add(new Change(version, ops[i], edges[i], ids[i], sources[i], targets[i], fields[i]));
+            }
+        }
+        return new Slice(false, out, current, false);
+    }
+}
@@ -0,0 +1,183 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Element;
+
+/**
+ * The values of one column write, read from the request straight into a
+ * primitive array of the column's type: double[] for double, float and integer
+ * columns, long[] for long columns, Object[] for strings and booleans. Nulls
+ * and values the type rejects are kept as bit sets, so writing a cell is an
+ * array read and a box, with no per-cell lookup or conversion.
+ */
+final class ColumnValues {
+
+    final AttributeSchema.Kind kind;
+    private double[] doubles;
+    private long[] longs;
+    private Object[] objects;
+    private final BitSet nulls = new BitSet(), invalid = new BitSet();
+    private int size;
+
+    private ColumnValues(AttributeSchema.Kind kind) {
+        this.kind = kind;
+        switch (kind) {
+            case DOUBLE: case FLOAT: case INTEGER: doubles = new double[1024]; break;
+            case LONG: longs = new long[1024]; break;
+            default: objects = new Object[1024]; break;
+        }
+    }
+
+    /**
+     * Reads a JSON array of values for a column of kind, or of the kind of its
+     * first non-null value (number: double, boolean: boolean, else string) when
+     * kind is null.
+     */
+    static ColumnValues read(JsonReader in, AttributeSchema.Kind kind) throws IOException {
+        in.beginArray();
+        int nulls = 0;
+        while (kind == null && in.hasNext()) {
+            JsonToken t = in.peek();
+            if (t == JsonToken.NULL) {
+                in.nextNull();
+                nulls++;
+                continue;
+            }
+            kind = t == JsonToken.NUMBER ? AttributeSchema.Kind.DOUBLE
+                : t == JsonToken.BOOLEAN ? AttributeSchema.Kind.BOOLEAN : AttributeSchema.Kind.STRING;
+        }
+        ColumnValues v = new ColumnValues(kind != null ? kind : AttributeSchema.Kind.STRING);
+        for (int i = 0; i < nulls; i++) v.addNull();
+        while (in.hasNext()) v.add(in);
+        in.endArray();
+        return v;
+    }
+
+    /**
+     * Decodes base64 little-endian doubles for a numeric column of kind (double
+     * when null); NaN stands for null.
+     */
+    static ColumnValues decode(String base64, AttributeSchema.Kind kind) {
+        if (kind == null) kind = AttributeSchema.Kind.DOUBLE;
+        if (kind == AttributeSchema.Kind.STRING || kind == AttributeSchema.Kind.BOOLEAN) {
+            throw new IllegalArgumentException("'values_base64' needs a numeric column");
+        }
+        byte[] bytes = Base64.getDecoder().decode(base64);
+        if (bytes.length % Double.BYTES != 0) {
+            throw new IllegalArgumentException("'values_base64' is not a whole number of doubles");
+        }
+        ColumnValues v = new ColumnValues(kind);
+        int n = bytes.length / Double.BYTES;
+        double[] doubles = new double[n];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(doubles);
+        for (int i = 0; i < n; i++) if (Double.isNaN(doubles[i])) v.nulls.set(i);
+        if (kind == AttributeSchema.Kind.LONG) {
+            v.longs = new long[n];
+            for (int i = 0; i < n; i++) v.longs[i] = (long) doubles[i];
+        } else {
+            v.doubles = doubles;
+        }
+        v.size = n;
+        return v;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int invalidCount() {
+        return invalid.cardinality();
+    }
+
+    private void add(JsonReader in) throws IOException {
+        grow();
+        JsonToken t = in.peek();
+        if (t == JsonToken.NULL) {
+            in.nextNull();
+            nulls.set(size++);
+            return;
+        }
+        try {
+            switch (kind) {
+                case DOUBLE: case FLOAT: case INTEGER:
+                    if (t != JsonToken.NUMBER && t != JsonToken.STRING) break;
+                    double d = in.nextDouble();
+                    doubles[size++] = d;
+                    return;
+                case LONG:
+                    if (t != JsonToken.NUMBER && t != JsonToken.STRING) break;
+                    long l;
+                    try {
+                        l = in.nextLong();
+                    } catch (NumberFormatException e) {
+                        l = (long) in.nextDouble();   // the token is still buffered after a failed nextLong
+                    }
+                    longs[size++] = l;
+                    return;
+                case BOOLEAN:
+                    Boolean b;
+                    if (t == JsonToken.BOOLEAN) b = in.nextBoolean();
+                    else if (t == JsonToken.STRING) b = Boolean.parseBoolean(in.nextString());
+                    else if (t == JsonToken.NUMBER) b = in.nextDouble() != 0;
+                    else break;
+                    objects[size++] = b;
+                    return;
+                default:
+                    String s;
+                    if (t == JsonToken.STRING || t == JsonToken.NUMBER) s = in.nextString();
+                    else if (t == JsonToken.BOOLEAN) s = Boolean.toString(in.nextBoolean());
+                    else s = (String) JsonIngest.readValue(in);   // nested value: its JSON text
+                    objects[size++] = s;
+                    return;
+            }
+        } catch (NumberFormatException | MalformedJsonException e) {
+            // not a number, or "NaN"/"Infinity"; the token is still buffered and skipped below
+        }
+        in.skipValue();
+        invalid.set(size++);
+    }
+
+    private void addNull() {
+        grow();
+        nulls.set(size++);
+    }
+
+    private void grow() {
+        int capacity = doubles != null ? doubles.length : longs != null ? longs.length : objects.length;
+        if (size < capacity) return;
+        if (doubles != null) doubles = Arrays.copyOf(doubles, capacity * 2);
+        else if (longs != null) longs = Arrays.copyOf(longs, capacity * 2);
+        else objects = Arrays.copyOf(objects, capacity * 2);
+    }
+
+    /**
+     * Writes value i to element's cell of col, which must have this kind's type;
+     * returns false, leaving the cell unchanged, if the value was invalid.
+     */
+    boolean write(int i, Element element, Column col) {
+        if (invalid.get(i)) return false;
+        UndoLog.attribute(element, col);
+        element.setAttribute(col, value(i));
+        return true;
+    }
+
+    private Object value(int i) {
+        if (nulls.get(i)) return null;
+        switch (kind) {
+            case DOUBLE: return doubles[i];
+            case FLOAT: return (float) doubles[i];
+            case INTEGER: return (int) doubles[i];
+            case LONG: return longs[i];
+            default: return objects[i];
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.gephi.plugins.mcp.service;
+
+import org.gephi.graph.api.Edge;
+
+/**
+ * Open-addressing map from a (source, target) pair of node store ids, packed
+ * into one long, to the edge between them. Used by bulk edge ingest to find
+ * duplicates with one probe of primitive arrays instead of a chain of
+ * Graph.getEdge lookups per row.
+ */
+final class EdgeIndex {
+
+    private long[] keys;
+    private Edge[] edges;
+    private int size;
+    private int mask;
+
+    EdgeIndex() {
+        int capacity = 1 << 12;
+        keys = new long[capacity];
+        edges = new Edge[capacity];
+        mask = capacity - 1;
+    }
+
+    /** The key of source -> target; undirected pairs get the same key in either order. */
+    static long key(int sourceStoreId, int targetStoreId, boolean directed) {
+        if (!directed && sourceStoreId > targetStoreId) {
+            int swap = sourceStoreId;
+            sourceStoreId = targetStoreId;
+            targetStoreId = swap;
+        }
+        return ((long) sourceStoreId << 32) | (targetStoreId & 0xffffffffL);
+    }
+
+    Edge get(long key) {
+        for (int i = slot(key); edges[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return edges[i];
+        }
+        return null;
+    }
+
+    /** Maps key to edge, replacing any edge it had. */
+    void put(long key, Edge edge) {
+        int i = slot(key);
+        for (; edges[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                edges[i] = edge;
+                return;
+            }
+        }
+        keys[i] = key;
+        edges[i] = edge;
+        if (++size > (mask + 1) * 3 / 4) grow();
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;   // Fibonacci hashing; store ids are dense and small
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Edge[] oldEdges = edges;
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        edges = new Edge[capacity];
+        mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldEdges[j] == null) continue;
+            int i = slot(oldKeys[j]);
+            while (edges[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            edges[i] = oldEdges[j];
+        }
+    }
+}
@@ -2,12 +2,21 @@ package org.gephi.plugins.mcp.service;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import java.awt.Color;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -22,10 +31,13 @@ import org.gephi.appearance.api.Function;
 import org.gephi.graph.api.Column;
 import org.gephi.graph.api.DirectedGraph;
 import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.EdgeIterable;
+import org.gephi.graph.api.Element;
 import org.gephi.graph.api.Graph;
 import org.gephi.graph.api.GraphController;
 import org.gephi.graph.api.GraphModel;
 import org.gephi.graph.api.Node;
+import org.gephi.graph.api.NodeIterable;
 import org.gephi.graph.api.Table;
 import org.gephi.io.exporter.api.ExportController;
 import org.gephi.io.exporter.spi.CharacterExporter;
@@ -52,14 +64,27 @@ import org.openide.util.Lookup;
 public class GephiControlService {
 
     private static final Logger LOGGER = Logger.getLogger(GephiControlService.class.getName());
+    private static final int STREAM_BATCH_SIZE = 1000;
+    private static final int INGEST_CHUNK = 10_000;
     private static GephiControlService instance;
 
     private final AtomicBoolean layoutRunning = new AtomicBoolean(false);
     private volatile String currentLayoutName = null;
     private volatile Future<?> layoutFuture = null;
+    private volatile LayoutRun layoutRun = null;
     private final ExecutorService layoutExecutor = Executors.newSingleThreadExecutor();
-
-    private GephiControlService() {}
+    private final ThreadLocal<Workspace> pinnedWorkspace = new ThreadLocal<>();
+    private final PageCursors pageCursors = PageCursors.fromSystemProperties();
+    private volatile SpatialIndex spatialIndex;
+
+    private GephiControlService() {
+        Metrics.get().gauge("gephi_mcp_layout_running", "1 while a layout is running.",
+            () -> layoutRunning.get() ? 1 : 0);
+        Metrics.get().gauge("gephi_mcp_layout_iterations_per_second", "Iteration rate of the current or last layout run.", () -> {
+            LayoutRun run = layoutRun;
+            return run != null ? run.iterationsPerSecond() : 0;
+        });
+    }
 
     public static synchronized GephiControlService getInstance() {
         if (instance == null) instance = new GephiControlService();
@@ -84,12 +109,15 @@ public class GephiControlService {
         }
         final Object[] result = new Object[1];
         final Exception[] exception = new Exception[1];
+        final long queued = System.nanoTime();
         try {
             SwingUtilities.invokeAndWait(() -> {
+                Metrics.get().edtWait.recordNanos(System.nanoTime() - queued);
                 try { result[0] = callable.call(); }
                 catch (Exception e) { exception[0] = e; }
             });
         } catch (Exception e) { throw new RuntimeException(e); }
+        finally { Metrics.get().edtTotal.recordNanos(System.nanoTime() - queued); }
         if (exception[0] != null) throw new RuntimeException(exception[0]);
         return (T) result[0];
     }
@@ -109,7 +137,8 @@ public class GephiControlService {
     }
 
     private Workspace currentWorkspace() {
-        return getProjectController().getCurrentWorkspace();
+        Workspace pinned = pinnedWorkspace.get();
+        return pinned != null ? pinned : getProjectController().getCurrentWorkspace();
     }
 
     private GraphModel currentGraphModel() {
@@ -125,6 +154,96 @@ public class GephiControlService {
         return e;
     }
 
+    /**
+     * Runs body with the current workspace pinned for this thread and its graph
+     * write lock held once around the whole call. Service methods invoked from
+     * body re-enter that lock instead of contending for it, and see the same
+     * workspace even if the user switches workspaces meanwhile. Only for callers
+     * that stay on this thread (nothing that goes through runOnEDT).
+     */
+    public JsonObject runLocked(Callable<JsonObject> body) {
+        try {
+            Workspace ws = currentWorkspace();
+            if (ws == null) return error("No project open");
+            Graph g = getGraphController().getGraphModel(ws).getGraph();
+            pinnedWorkspace.set(ws);
+            GraphLocks.writeLock(g);
+            try {
+                return body.call();
+            } finally {
+                g.writeUnlock();
+                pinnedWorkspace.remove();
+            }
+        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+    }
+
+    /**
+     * Runs body like {@link #runLocked} as one transaction: an {@link UndoLog}
+     * records the before-image of every change the lock-scoped service methods
+     * make, and if body's result is not successful, throws, or dryRun is set, the
+     * changes are undone newest first before the write lock is released. Readers
+     * therefore see all of body's changes or none of them.
+     */
+    public JsonObject runTransaction(Callable<JsonObject> body, boolean dryRun) {
+        return runLocked(() -> {
+            Workspace ws = currentWorkspace();
+            GraphModel gm = getGraphController().getGraphModel(ws);
+            Graph g = gm.getGraph();
+            WorkspaceVersion version = WorkspaceVersion.of(ws, gm);
+            long mark = version.begin();
+            UndoLog undo = UndoLog.begin();
+            try {
+                JsonObject r;
+                try {
+                    r = body.call();
+                } catch (Exception e) {
+                    undo.rollback(g);
+                    version.rollback(mark);
+                    throw e;
+                }
+                boolean ok = r.has("success") && r.get("success").getAsBoolean();
+                int records = undo.size();
+                if (!ok || dryRun) {
+                    undo.rollback(g);
+                    version.rollback(mark);
+                }
+                r.addProperty("committed", ok && !dryRun);
+                r.addProperty("undo_records", records);
+                return r;
+            } finally {
+                UndoLog.end();
+            }
+        });
+    }
+
+    /**
+     * Modification version of the current workspace, for ETags. It changes after
+     * every {@link #markModified} and whenever nodes or edges are added or removed
+     * outside the API. -1 while a layout is moving nodes or no project is open,
+     * meaning responses must not be treated as cacheable.
+     */
+    public long graphVersion() {
+        if (layoutRunning.get()) return -1;
+        Workspace ws = currentWorkspace();
+        if (ws == null) return -1;
+        return WorkspaceVersion.of(ws, getGraphController().getGraphModel(ws)).current();
+    }
+
+    /** Records that the current workspace changed; called after every mutating request. */
+    public void markModified() {
+        Workspace ws = currentWorkspace();
+        if (ws != null) markModified(ws);
+    }
+
+    private void markModified(Workspace ws) {
+        WorkspaceVersion.of(ws, getGraphController().getGraphModel(ws)).bump();
+    }
+
+    /** The change log of ws, for the value edits that graph observers do not report. */
+    private ChangeLog changes(Workspace ws) {
+        return WorkspaceVersion.of(ws, getGraphController().getGraphModel(ws)).changes();
+    }
+
     // ─── Project Management ──────────────────────────────────────────
 
     public JsonObject createProject(String name) {
@@ -255,7 +374,7 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 if (g.getNode(id) != null) return error("Node exists: " + id);
                 Node n = gm.factory().newNode(id);
@@ -269,6 +388,7 @@ public class GephiControlService {
                     }
                 }
                 g.addNode(n);
+                UndoLog.nodeAdded(n);
                 JsonObject r = success("Node added");
                 r.addProperty("node_id", id);
                 return r;
@@ -276,34 +396,156 @@ public class GephiControlService {
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject addNodes(List<Map<String, Object>> nodes) {
+    /**
+     * Streams {"schema"?: {key: type}, "nodes": [{id, label?, attributes?}, ...]}
+     * from in and adds the nodes not yet in the graph; existing ids are skipped.
+     */
+    public JsonObject addNodes(JsonReader in) {
+        return ingestNodes(in, "nodes", NodeIngestMode.INSERT);
+    }
+
+    /** Like {@link #addNodes}, but existing nodes get the record's label and attributes. */
+    public JsonObject upsertNodes(JsonReader in) {
+        return ingestNodes(in, "nodes", NodeIngestMode.UPSERT);
+    }
+
+    private enum NodeIngestMode { INSERT, UPSERT, UPDATE }
+
+    private static final class NodeRecord {
+        String id;
+        String label;
+        AttributeSchema.Row attributes;
+    }
+
+    private static final class IngestCounts {
+        int added, updated, skipped;
+    }
+
+    /**
+     * Shared bulk node ingest. Records are read in chunks of INGEST_CHUNK outside
+     * the lock, with attribute values already converted to their column's type by
+     * an {@link AttributeSchema}; each chunk then creates its new columns and is
+     * applied under one write lock. A "schema" field must come before the array.
+     */
+    private JsonObject ingestNodes(JsonReader in, String arrayKey, NodeIngestMode mode) {
+        IngestCounts counts = new IngestCounts();
+        AttributeSchema schema = null;
         try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            int added = 0, skipped = 0;
-            g.writeLock();
+            schema = new AttributeSchema(gm.getNodeTable());
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return error("Missing '" + arrayKey + "' array");
+            boolean seen = false;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("schema") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                    if (seen) throw new IllegalArgumentException("'schema' must come before '" + arrayKey + "'");
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        String key = in.nextName();
+                        schema.declare(key, JsonIngest.readString(in));
+                    }
+                    in.endObject();
+                } else if (name.equals(arrayKey) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    seen = true;
+                    ingestNodeArray(in, gm, g, schema, mode, counts, changes(ws));
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            if (!seen) return error("Missing '" + arrayKey + "' array");
+            JsonObject r = new JsonObject();
+            r.addProperty("success", true);
+            addIngestCounts(r, mode, counts, schema);
+            return r;
+        } catch (Exception e) {
+            JsonObject r = error("Failed: " + e.getMessage());
+            addIngestCounts(r, mode, counts, schema);
+            return r;
+        }
+    }
+
+    private void ingestNodeArray(JsonReader in, GraphModel gm, Graph g, AttributeSchema schema,
+                                 NodeIngestMode mode, IngestCounts counts, ChangeLog changes) throws IOException {
+        in.beginArray();
+        List<NodeRecord> chunk = new ArrayList<>();
+        while (in.hasNext()) {
+            chunk.clear();
+            while (in.hasNext() && chunk.size() < INGEST_CHUNK) chunk.add(readNodeRecord(in, schema));
+            GraphLocks.writeLock(g);
             try {
-                for (Map<String, Object> nd : nodes) {
-                    String id = (String) nd.get("id");
-                    if (id == null || g.getNode(id) != null) { skipped++; continue; }
-                    String label = (String) nd.getOrDefault("label", id);
-                    Node n = gm.factory().newNode(id);
-                    n.setLabel(label);
-                    n.setX((float)(Math.random() * 1000 - 500));
-                    n.setY((float)(Math.random() * 1000 - 500));
-                    n.setSize(10f);
-                    g.addNode(n);
-                    added++;
+                schema.createColumns();
+                for (NodeRecord rec : chunk) {
+                    Node n = rec.id != null ? g.getNode(rec.id) : null;
+                    if (rec.id == null || (n == null ? mode == NodeIngestMode.UPDATE : mode == NodeIngestMode.INSERT)) {
+                        counts.skipped++;
+                        continue;
+                    }
+                    if (n == null) {
+                        n = gm.factory().newNode(rec.id);
+                        n.setLabel(rec.label != null ? rec.label : rec.id);
+                        n.setX((float)(Math.random() * 1000 - 500));
+                        n.setY((float)(Math.random() * 1000 - 500));
+                        n.setSize(10f);
+                        if (!rec.attributes.isEmpty()) schema.apply(rec.attributes, n);
+                        g.addNode(n);
+                        UndoLog.nodeAdded(n);
+                        counts.added++;
+                    } else {
+                        if (rec.label != null) {
+                            UndoLog.label(n);
+                            n.setLabel(rec.label);
+                            changes.node(n, "label");
+                        }
+                        if (!rec.attributes.isEmpty()) {
+                            schema.apply(rec.attributes, n);
+                            changes.node(n, "attributes");
+                        }
+                        counts.updated++;
+                    }
                 }
-                JsonObject r = new JsonObject();
-                r.addProperty("success", true);
-                r.addProperty("added", added);
-                r.addProperty("skipped", skipped);
-                return r;
             } finally { g.writeUnlock(); }
-        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+        }
+        in.endArray();
+    }
+
+    /** {id, label?, attributes?} of one node record; unknown fields are skipped. */
+    private NodeRecord readNodeRecord(JsonReader in, AttributeSchema schema) throws IOException {
+        NodeRecord rec = new NodeRecord();
+        rec.attributes = AttributeSchema.Row.EMPTY;
+        if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); return rec; }
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id": rec.id = JsonIngest.readString(in); break;
+                case "label": rec.label = JsonIngest.readString(in); break;
+                case "attributes": rec.attributes = schema.readRow(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return rec;
+    }
+
+    private static void addIngestCounts(JsonObject r, NodeIngestMode mode, IngestCounts counts,
+                                        AttributeSchema schema) {
+        if (mode == NodeIngestMode.UPDATE) {
+            r.addProperty("set", counts.updated);
+            r.addProperty("not_found", counts.skipped);
+        } else {
+            r.addProperty("added", counts.added);
+            if (mode == NodeIngestMode.UPSERT) r.addProperty("updated", counts.updated);
+            r.addProperty("skipped", counts.skipped);
+        }
+        if (schema == null) return;
+        JsonArray created = new JsonArray();
+        for (String c : schema.createdColumns()) created.add(c);
+        r.add("columns_created", created);
+        r.addProperty("invalid_values", schema.invalidCount());
     }
 
     public JsonObject removeNode(String id) {
@@ -311,11 +553,12 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = getGraphController().getGraphModel(ws).getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node n = g.getNode(id);
                 if (n == null) return error("Node not found: " + id);
                 int edgesRemoved = g.getDegree(n);
+                UndoLog.nodeRemoved(g, n);
                 g.removeNode(n);
                 JsonObject r = success("Node removed");
                 r.addProperty("edges_removed", edgesRemoved);
@@ -329,12 +572,13 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = getGraphController().getGraphModel(ws).getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 int removed = 0, notFound = 0;
                 for (String id : ids) {
                     Node n = g.getNode(id);
                     if (n == null) { notFound++; continue; }
+                    UndoLog.nodeRemoved(g, n);
                     g.removeNode(n);
                     removed++;
                 }
@@ -347,56 +591,93 @@ public class GephiControlService {
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject queryNodes(String attr, String val, int limit, int offset) {
+    /**
+     * Writes the /graph/nodes response document straight from the graph into out,
+     * without an intermediate JsonObject tree. With a query, only the matching
+     * nodes, found through the {@link AttributeIndex}, are counted and listed.
+     * A non-null cursor pages through {@link PageCursors} instead of by offset;
+     * projection picks the fields written per node. Returns false if an error
+     * document was written.
+     */
+    public boolean writeNodes(JsonWriter out, int limit, int offset, AttributeQuery query, String cursor,
+                              Projection projection) throws IOException {
+        Workspace ws = currentWorkspace();
+        if (ws == null) {
+            GraphJsonWriter.writeError(out, "No project open");
+            return false;
+        }
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        NdjsonStream.RecordWriter<Node> writer;
         try {
-            Workspace ws = currentWorkspace();
-            if (ws == null) return error("No project open");
-            GraphModel gm = getGraphController().getGraphModel(ws);
-            Graph g = gm.getGraph();
-            g.readLock();
+            writer = GraphJsonWriter.nodeWriter(g, gm.getNodeTable(), projection);
+        } catch (IllegalArgumentException e) {
+            GraphJsonWriter.writeError(out, e.getMessage());
+            return false;
+        }
+        GraphLocks.readLock(g);
+        try {
+            Node[] matches = null;
             try {
-                JsonArray arr = new JsonArray();
-                int count = 0, skip = 0;
-                for (Node n : g.getNodes()) {
+                if (cursor != null) {
+                    PageCursors.Page<Node> page = pageCursors.page(ws, WorkspaceVersion.of(ws, gm).current(),
+                        "n", query != null ? query.toString() : "", cursor, limit,
+                        () -> query != null ? AttributeIndex.of(ws, gm).select(g, query) : g.getNodes().toArray());
+                    writePage(out, "nodes", g, page, writer);
+                    return true;
+                }
+                if (query != null) matches = AttributeIndex.of(ws, gm).select(g, query);
+            } catch (IllegalArgumentException e) {
+                GraphJsonWriter.writeError(out, e.getMessage());
+                return false;
+            }
+            int total = matches != null ? matches.length : g.getNodeCount();
+            int count = Math.max(0, Math.min(limit, total - Math.max(offset, 0)));
+            out.beginObject();
+            out.name("success").value(true);
+            out.name("total").value(total);
+            out.name("count").value(count);
+            out.name("nodes").beginArray();
+            if (matches != null) {
+                int from = Math.max(offset, 0);
+                for (int i = 0; i < count; i++) writer.write(out, matches[from + i]);
+            } else {
+                NodeIterable nodes = g.getNodes();
+                int skip = 0, written = 0;
+                for (Node n : nodes) {
                     if (skip++ < offset) continue;
-                    if (count >= limit) break;
-                    JsonObject o = new JsonObject();
-                    o.addProperty("id", n.getId().toString());
-                    o.addProperty("label", n.getLabel());
-                    o.addProperty("x", n.x());
-                    o.addProperty("y", n.y());
-                    o.addProperty("size", n.size());
-                    o.addProperty("degree", g.getDegree(n));
-                    Color c = n.getColor();
-                    if (c != null) {
-                        o.addProperty("r", c.getRed());
-                        o.addProperty("g", c.getGreen());
-                        o.addProperty("b", c.getBlue());
-                        o.addProperty("a", c.getAlpha());
-                    }
-                    // Include all custom attributes
-                    JsonObject attrs = new JsonObject();
-                    for (Column col : gm.getNodeTable()) {
-                        if (col.isProperty()) continue; // skip built-in
-                        Object v = n.getAttribute(col);
-                        if (v != null) {
-                            if (v instanceof Number) attrs.addProperty(col.getTitle(), (Number) v);
-                            else if (v instanceof Boolean) attrs.addProperty(col.getTitle(), (Boolean) v);
-                            else attrs.addProperty(col.getTitle(), v.toString());
-                        }
-                    }
-                    if (attrs.size() > 0) o.add("attributes", attrs);
-                    arr.add(o);
-                    count++;
+                    if (written >= count) { nodes.doBreak(); break; }
+                    writer.write(out, n);
+                    written++;
                 }
-                JsonObject r = new JsonObject();
-                r.addProperty("success", true);
-                r.addProperty("total", g.getNodeCount());
-                r.addProperty("count", count);
-                r.add("nodes", arr);
-                return r;
-            } finally { g.readUnlock(); }
-        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+            }
+            out.endArray();
+            out.endObject();
+            return true;
+        } finally { g.readUnlock(); }
+    }
+
+    /**
+     * Streams nodes, or those matching query, as NDJSON, releasing the read lock
+     * between batches; null when no project is open. Throws IllegalArgumentException
+     * for a query on an unknown or unindexable column, or a bad projection.
+     */
+    public InputStream streamNodes(int limit, int offset, AttributeQuery query, Projection projection) {
+        Workspace ws = currentWorkspace();
+        if (ws == null) return null;
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        NdjsonStream.RecordWriter<Node> writer = GraphJsonWriter.nodeWriter(g, gm.getNodeTable(), projection);
+        Node[] nodes;
+        if (query == null) {
+            nodes = g.getNodes().toArray();
+        } else {
+            GraphLocks.readLock(g);
+            try { nodes = AttributeIndex.of(ws, gm).select(g, query); } finally { g.readUnlock(); }
+        }
+        int start = Math.min(Math.max(offset, 0), nodes.length);
+        int end = (int) Math.min((long) start + Math.max(limit, 0), nodes.length);
+        return new NdjsonStream<>(g, nodes, start, end, STREAM_BATCH_SIZE, writer, Graph::contains);
     }
 
     public JsonObject setNodeLabel(String id, String label) {
@@ -404,11 +685,13 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node n = g.getNode(id);
                 if (n == null) return error("Node not found: " + id);
+                UndoLog.label(n);
                 n.setLabel(label);
+                changes(ws).node(n, "label");
                 return success("Label set");
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -419,12 +702,14 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node n = g.getNode(id);
                 if (n == null) return error("Node not found: " + id);
+                UndoLog.position(n);
                 n.setX(x);
                 n.setY(y);
+                changes(ws).node(n, "position");
                 return success("Position set");
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -435,15 +720,18 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            ChangeLog changes = changes(ws);
+            GraphLocks.writeLock(g);
             try {
                 int set = 0, notFound = 0;
                 for (Map<String, Object> pos : positions) {
                     String id = (String) pos.get("id");
                     Node n = g.getNode(id);
                     if (n == null) { notFound++; continue; }
+                    UndoLog.position(n);
                     n.setX(((Number) pos.get("x")).floatValue());
                     n.setY(((Number) pos.get("y")).floatValue());
+                    changes.node(n, "position");
                     set++;
                 }
                 JsonObject r = new JsonObject();
@@ -463,7 +751,7 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node s = g.getNode(src), t = g.getNode(tgt);
                 if (s == null) return error("Source not found: " + src);
@@ -471,38 +759,196 @@ public class GephiControlService {
                 if (findEdge(g, s, t) != null) return error("Edge exists");
                 Edge e = gm.factory().newEdge(s, t, directed ? 1 : 0, weight != null ? weight : 1.0, true);
                 g.addEdge(e);
+                UndoLog.edgeAdded(e);
                 return success("Edge added");
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject addEdges(List<Map<String, Object>> edges) {
+    /** What bulk edge ingest does with an edge whose endpoints already have one of its type. */
+    private enum DuplicatePolicy {
+        /** Keep the existing edge, drop the new one. */
+        SKIP,
+        /** Add the new weight to the existing edge and apply its attributes. */
+        MERGE,
+        /** Add a parallel edge; no duplicate check at all. */
+        PARALLEL;
+
+        static DuplicatePolicy parse(String name) {
+            if (name == null) return SKIP;
+            switch (name.toLowerCase()) {
+                case "skip": return SKIP;
+                case "merge": case "merge-sum-weight": return MERGE;
+                case "parallel": case "keep-parallel": return PARALLEL;
+                default: throw new IllegalArgumentException("Unknown duplicates policy '" + name
+                    + "'. Use: skip, merge, parallel");
+            }
+        }
+    }
+
+    /**
+     * Streams {"directed"?: bool, "type"?: label, "duplicates"?: skip|merge|parallel,
+     * "schema"?: {key: type}, "edges": [{source, target, weight?, attributes?}, ...]}
+     * from in, in chunks like {@link #addNodes}; options must come before "edges".
+     * Duplicates are found with an {@link EdgeIndex} of the pairs this request has
+     * added or met, so each row costs one primitive hash probe, plus one typed
+     * Graph.getEdge only when the graph already had edges.
+     */
+    public JsonObject addEdges(JsonReader in) {
+        IngestCounts counts = new IngestCounts();
+        AttributeSchema schema = null;
         try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            int added = 0, skipped = 0;
-            g.writeLock();
+            schema = new AttributeSchema(gm.getEdgeTable());
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return error("Missing 'edges' array");
+            boolean directed = true, seen = false;
+            Object typeLabel = null;
+            DuplicatePolicy policy = DuplicatePolicy.SKIP;
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("edges") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    seen = true;
+                    int type;
+                    if (typeLabel == null) {
+                        type = directed ? 1 : 0;   // same types as addEdge
+                    } else {
+                        GraphLocks.writeLock(g);
+                        try { type = gm.addEdgeType(typeLabel); } finally { g.writeUnlock(); }
+                    }
+                    ingestEdgeArray(in, gm, g, schema, directed, type, policy, counts, changes(ws));
+                    continue;
+                }
+                if (seen && EDGE_INGEST_OPTIONS.contains(name)) {
+                    throw new IllegalArgumentException("'" + name + "' must come before 'edges'");
+                }
+                switch (name) {
+                    case "directed": directed = in.nextBoolean(); break;
+                    case "type": typeLabel = JsonIngest.readString(in); break;
+                    case "duplicates": policy = DuplicatePolicy.parse(JsonIngest.readString(in)); break;
+                    case "schema":
+                        if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); break; }
+                        in.beginObject();
+                        while (in.hasNext()) {
+                            String key = in.nextName();
+                            schema.declare(key, JsonIngest.readString(in));
+                        }
+                        in.endObject();
+                        break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+            if (!seen) return error("Missing 'edges' array");
+            JsonObject r = new JsonObject();
+            r.addProperty("success", true);
+            addEdgeIngestCounts(r, policy, counts, schema);
+            return r;
+        } catch (Exception e) {
+            JsonObject r = error("Failed: " + e.getMessage());
+            addEdgeIngestCounts(r, DuplicatePolicy.MERGE, counts, schema);
+            return r;
+        }
+    }
+
+    private static final Set<String> EDGE_INGEST_OPTIONS = Set.of("directed", "type", "duplicates", "schema");
+
+    private void ingestEdgeArray(JsonReader in, GraphModel gm, Graph g, AttributeSchema schema, boolean directed,
+                                 int type, DuplicatePolicy policy, IngestCounts counts, ChangeLog changes) throws IOException {
+        EdgeIndex index = policy == DuplicatePolicy.PARALLEL ? null : new EdgeIndex();
+        boolean graphHadEdges = g.getEdgeCount() > 0;
+        in.beginArray();
+        List<EdgeRecord> chunk = new ArrayList<>();
+        while (in.hasNext()) {
+            chunk.clear();
+            while (in.hasNext() && chunk.size() < INGEST_CHUNK) chunk.add(readEdgeRecord(in, schema));
+            GraphLocks.writeLock(g);
             try {
-                for (Map<String, Object> ed : edges) {
-                    String src = (String) ed.get("source");
-                    String tgt = (String) ed.get("target");
-                    if (src == null || tgt == null) { skipped++; continue; }
-                    Node s = g.getNode(src), t = g.getNode(tgt);
-                    if (s == null || t == null || findEdge(g, s, t) != null) { skipped++; continue; }
-                    Double w = ed.containsKey("weight") ? ((Number) ed.get("weight")).doubleValue() : 1.0;
-                    Edge e = gm.factory().newEdge(s, t, 1, w, true);
-                    g.addEdge(e);
-                    added++;
+                schema.createColumns();
+                for (EdgeRecord ed : chunk) {
+                    Node s = ed.source != null ? g.getNode(ed.source) : null;
+                    Node t = ed.target != null ? g.getNode(ed.target) : null;
+                    if (s == null || t == null) { counts.skipped++; continue; }
+                    long key = 0;
+                    if (index != null) {
+                        key = EdgeIndex.key(s.getStoreId(), t.getStoreId(), directed);
+                        Edge existing = index.get(key);
+                        if (existing == null && graphHadEdges) {
+                            existing = g.getEdge(s, t, type);
+                            if (existing == null && !directed) existing = g.getEdge(t, s, type);
+                            if (existing != null) index.put(key, existing);
+                        }
+                        if (existing != null) {
+                            if (policy == DuplicatePolicy.MERGE) {
+                                UndoLog.weight(existing);
+                                existing.setWeight(existing.getWeight() + ed.weight);
+                                changes.edge(existing, "weight");
+                                if (!ed.attributes.isEmpty()) {
+                                    schema.apply(ed.attributes, existing);
+                                    changes.edge(existing, "attributes");
+                                }
+                                counts.updated++;
+                            } else {
+                                counts.skipped++;
+                            }
+                            continue;
+                        }
+                    }
+                    Edge e = gm.factory().newEdge(s, t, type, ed.weight, directed);
+                    if (!ed.attributes.isEmpty()) schema.apply(ed.attributes, e);
+                    try {
+                        if (!g.addEdge(e)) { counts.skipped++; continue; }
+                    } catch (IllegalArgumentException rejected) {
+                        counts.skipped++;   // e.g. a parallel edge the graph store does not allow
+                        continue;
+                    }
+                    UndoLog.edgeAdded(e);
+                    if (index != null) index.put(key, e);
+                    counts.added++;
                 }
-                JsonObject r = new JsonObject();
-                r.addProperty("success", true);
-                r.addProperty("added", added);
-                r.addProperty("skipped", skipped);
-                return r;
             } finally { g.writeUnlock(); }
-        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+        }
+        in.endArray();
+    }
+
+    private static void addEdgeIngestCounts(JsonObject r, DuplicatePolicy policy, IngestCounts counts,
+                                            AttributeSchema schema) {
+        r.addProperty("added", counts.added);
+        if (policy == DuplicatePolicy.MERGE) r.addProperty("merged", counts.updated);
+        r.addProperty("skipped", counts.skipped);
+        if (schema == null) return;
+        JsonArray created = new JsonArray();
+        for (String c : schema.createdColumns()) created.add(c);
+        r.add("columns_created", created);
+        r.addProperty("invalid_values", schema.invalidCount());
+    }
+
+    private static final class EdgeRecord {
+        String source;
+        String target;
+        double weight = 1.0;
+        AttributeSchema.Row attributes = AttributeSchema.Row.EMPTY;
+    }
+
+    /** {source, target, weight?, attributes?} of one edge record; unknown fields are skipped. */
+    private EdgeRecord readEdgeRecord(JsonReader in, AttributeSchema schema) throws IOException {
+        EdgeRecord ed = new EdgeRecord();
+        if (in.peek() != JsonToken.BEGIN_OBJECT) { in.skipValue(); return ed; }
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "source": ed.source = JsonIngest.readString(in); break;
+                case "target": ed.target = JsonIngest.readString(in); break;
+                case "weight": ed.weight = in.nextDouble(); break;
+                case "attributes": ed.attributes = schema.readRow(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+        return ed;
     }
 
     public JsonObject removeEdge(String source, String target) {
@@ -510,12 +956,13 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node s = g.getNode(source), t = g.getNode(target);
                 if (s == null || t == null) return error("Node not found");
                 Edge e = findEdge(g, s, t);
                 if (e == null) return error("Edge not found");
+                UndoLog.edgeRemoved(e);
                 g.removeEdge(e);
                 return success("Edge removed");
             } finally { g.writeUnlock(); }
@@ -527,13 +974,15 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node s = g.getNode(source), t = g.getNode(target);
                 if (s == null || t == null) return error("Node not found");
                 Edge e = findEdge(g, s, t);
                 if (e == null) return error("Edge not found");
+                UndoLog.weight(e);
                 e.setWeight(weight);
+                changes(ws).edge(e, "weight");
                 return success("Weight set to " + weight);
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -544,66 +993,387 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph g = currentGraphModel().getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node s = g.getNode(source), t = g.getNode(target);
                 if (s == null || t == null) return error("Node not found");
                 Edge e = findEdge(g, s, t);
                 if (e == null) return error("Edge not found");
+                UndoLog.label(e);
                 e.setLabel(label);
+                changes(ws).edge(e, "label");
                 return success("Edge label set");
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject queryEdges(int limit, int offset) {
+    /**
+     * Writes the /graph/edges response document straight from the graph, by offset or,
+     * with a non-null cursor, through {@link PageCursors}, writing the fields projection
+     * picks; returns false if an error document was written.
+     */
+    public boolean writeEdges(JsonWriter out, int limit, int offset, String cursor, Projection projection) throws IOException {
+        Workspace ws = currentWorkspace();
+        if (ws == null) {
+            GraphJsonWriter.writeError(out, "No project open");
+            return false;
+        }
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        NdjsonStream.RecordWriter<Edge> writer;
         try {
-            Workspace ws = currentWorkspace();
-            if (ws == null) return error("No project open");
-            GraphModel gm = getGraphController().getGraphModel(ws);
-            Graph g = gm.getGraph();
-            g.readLock();
+            writer = GraphJsonWriter.edgeWriter(gm.getEdgeTable(), projection);
+        } catch (IllegalArgumentException e) {
+            GraphJsonWriter.writeError(out, e.getMessage());
+            return false;
+        }
+        GraphLocks.readLock(g);
+        try {
+            if (cursor != null) {
+                PageCursors.Page<Edge> page;
+                try {
+                    page = pageCursors.page(ws, WorkspaceVersion.of(ws, gm).current(), "e", "", cursor, limit,
+                        () -> g.getEdges().toArray());
+                } catch (IllegalArgumentException e) {
+                    GraphJsonWriter.writeError(out, e.getMessage());
+                    return false;
+                }
+                writePage(out, "edges", g, page, writer);
+                return true;
+            }
+            int total = g.getEdgeCount();
+            int count = Math.max(0, Math.min(limit, total - Math.max(offset, 0)));
+            out.beginObject();
+            out.name("success").value(true);
+            out.name("total").value(total);
+            out.name("count").value(count);
+            out.name("edges").beginArray();
+            EdgeIterable edges = g.getEdges();
+            int skip = 0, written = 0;
+            for (Edge e : edges) {
+                if (skip++ < offset) continue;
+                if (written >= count) { edges.doBreak(); break; }
+                writer.write(out, e);
+                written++;
+            }
+            out.endArray();
+            out.endObject();
+            return true;
+        } finally { g.readUnlock(); }
+    }
+
+    /**
+     * Streams edges as NDJSON, releasing the read lock between batches; null when no
+     * project is open. Throws IllegalArgumentException for a bad projection.
+     */
+    public InputStream streamEdges(int limit, int offset, Projection projection) {
+        Workspace ws = currentWorkspace();
+        if (ws == null) return null;
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        NdjsonStream.RecordWriter<Edge> writer = GraphJsonWriter.edgeWriter(gm.getEdgeTable(), projection);
+        Edge[] edges = g.getEdges().toArray();
+        int start = Math.min(Math.max(offset, 0), edges.length);
+        int end = (int) Math.min((long) start + Math.max(limit, 0), edges.length);
+        return new NdjsonStream<>(g, edges, start, end, STREAM_BATCH_SIZE, writer, Graph::contains);
+    }
+
+    /**
+     * Writes one cursor page: total and count as for offset pages, then the elements
+     * still in the graph, next_cursor (null on the last page) and graph_changed.
+     */
+    private <T extends Element> void writePage(JsonWriter out, String field, Graph g, PageCursors.Page<T> page,
+                                               NdjsonStream.RecordWriter<T> writer) throws IOException {
+        List<T> live = new ArrayList<>(page.to - page.from);
+        for (int i = page.from; i < page.to; i++) {
+            T element = page.elements[i];
+            if (element instanceof Node ? g.contains((Node) element) : g.contains((Edge) element)) live.add(element);
+        }
+        out.beginObject();
+        out.name("success").value(true);
+        out.name("total").value(page.total);
+        out.name("count").value(live.size());
+        out.name(field).beginArray();
+        for (T element : live) writer.write(out, element);
+        out.endArray();
+        out.name("next_cursor").value(page.next);
+        out.name("graph_changed").value(page.graphChanged);
+        out.name("version").value(page.version);
+        out.endObject();
+    }
+
+    // ─── Spatial Queries ─────────────────────────────────────────────
+
+    /**
+     * The spatial index of the current positions. Each query first checks the
+     * cached index against every node's position, wherever it was moved from
+     * (see {@link SpatialIndex#refresh}): a few moved nodes, e.g. from batch
+     * position writes, are patched in. After nodes were added or removed, or
+     * many moved (a layout here or in the Gephi UI), the query scans a copy of
+     * the positions, and the tree is built by the next query that finds them
+     * unmoved, so positions still moving never pay for a tree. While a layout
+     * started here runs, queries scan without caching. Call under the graph read lock.
+     */
+    private SpatialIndex spatialIndex(Workspace ws, GraphModel gm, Graph g) {
+        if (layoutRunning.get()) return SpatialIndex.scan(g, -1);
+        long version = WorkspaceVersion.of(ws, gm).nodes();   // versions are unique across workspaces
+        SpatialIndex index = spatialIndex;
+        SpatialIndex current = index != null && index.version == version ? index.refresh() : null;
+        if (current == null) current = SpatialIndex.scan(g, version);
+        else if (current.isScan()) current = SpatialIndex.build(g, version);   // positions held still since the last query
+        if (current != index) spatialIndex = current;
+        return current;
+    }
+
+    /** Writes the nodes inside the box, at most limit of them; returns false if an error document was written. */
+    public boolean writeNodesInBox(JsonWriter out, double minX, double minY, double maxX, double maxY,
+                                   int limit, Projection projection) throws IOException {
+        return writeSpatial(out, projection, (ws, gm, g) -> {
+            List<Node> found = spatialIndex(ws, gm, g).box(
+                Math.min(minX, maxX), Math.min(minY, maxY), Math.max(minX, maxX), Math.max(minY, maxY));
+            List<SpatialIndex.Hit> hits = new ArrayList<>(found.size());
+            for (Node n : found) hits.add(new SpatialIndex.Hit(n, Double.NaN));
+            return hits;
+        }, limit, false);
+    }
+
+    /**
+     * Writes the k nodes nearest to node id, or to (x, y) when id is null, nearest first
+     * with their distances; returns false if an error document was written.
+     */
+    public boolean writeNearestNodes(JsonWriter out, String id, double x, double y, int k,
+                                     Projection projection) throws IOException {
+        return writeSpatial(out, projection, (ws, gm, g) -> {
+            Node center = spatialCenter(g, id);
+            return spatialIndex(ws, gm, g).nearest(center != null ? center.x() : x, center != null ? center.y() : y,
+                Math.max(0, k), center);
+        }, Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * Writes the nodes within radius of node id, or of (x, y) when id is null, nearest
+     * first with their distances and at most limit of them; returns false if an error
+     * document was written.
+     */
+    public boolean writeNodesInRadius(JsonWriter out, String id, double x, double y, double radius,
+                                      int limit, Projection projection) throws IOException {
+        return writeSpatial(out, projection, (ws, gm, g) -> {
+            Node center = spatialCenter(g, id);
+            return spatialIndex(ws, gm, g).radius(center != null ? center.x() : x, center != null ? center.y() : y,
+                Math.max(0, radius), center);
+        }, limit, true);
+    }
+
+    private static Node spatialCenter(Graph g, String id) {
+        if (id == null) return null;
+        Node n = g.getNode(id);
+        if (n == null) throw new IllegalArgumentException("Node not found: " + id);
+        return n;
+    }
+
+    @FunctionalInterface
+    private interface SpatialQuery {
+        List<SpatialIndex.Hit> run(Workspace ws, GraphModel gm, Graph g);
+    }
+
+    /** {success, total, count, nodes, distances?}: the first limit hits, written with projection. */
+    private boolean writeSpatial(JsonWriter out, Projection projection, SpatialQuery query,
+                                 int limit, boolean distances) throws IOException {
+        Workspace ws = currentWorkspace();
+        if (ws == null) {
+            GraphJsonWriter.writeError(out, "No project open");
+            return false;
+        }
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        GraphLocks.readLock(g);
+        try {
+            NdjsonStream.RecordWriter<Node> writer;
+            List<SpatialIndex.Hit> hits;
             try {
-                JsonArray arr = new JsonArray();
-                int count = 0, skip = 0;
-                for (Edge e : g.getEdges()) {
-                    if (skip++ < offset) continue;
-                    if (count >= limit) break;
-                    JsonObject o = new JsonObject();
-                    o.addProperty("source", e.getSource().getId().toString());
-                    o.addProperty("target", e.getTarget().getId().toString());
-                    o.addProperty("weight", e.getWeight());
-                    o.addProperty("directed", e.isDirected());
-                    if (e.getLabel() != null) o.addProperty("label", e.getLabel());
-                    Color c = e.getColor();
-                    if (c != null) {
-                        o.addProperty("r", c.getRed());
-                        o.addProperty("g", c.getGreen());
-                        o.addProperty("b", c.getBlue());
-                    }
-                    // Include custom attributes
-                    JsonObject attrs = new JsonObject();
-                    for (Column col : gm.getEdgeTable()) {
-                        if (col.isProperty()) continue;
-                        Object v = e.getAttribute(col);
-                        if (v != null) {
-                            if (v instanceof Number) attrs.addProperty(col.getTitle(), (Number) v);
-                            else if (v instanceof Boolean) attrs.addProperty(col.getTitle(), (Boolean) v);
-                            else attrs.addProperty(col.getTitle(), v.toString());
-                        }
+                writer = GraphJsonWriter.nodeWriter(g, gm.getNodeTable(), projection);
+                hits = query.run(ws, gm, g);
+            } catch (IllegalArgumentException e) {
+                GraphJsonWriter.writeError(out, e.getMessage());
+                return false;
+            }
+            int count = Math.min(hits.size(), Math.max(0, limit));
+            out.beginObject();
+            out.name("success").value(true);
+            out.name("total").value(hits.size());
+            out.name("count").value(count);
+            out.name("nodes").beginArray();
+            for (int i = 0; i < count; i++) writer.write(out, hits.get(i).node);
+            out.endArray();
+            if (distances) {
+                out.name("distances").beginArray();
+                for (int i = 0; i < count; i++) GraphJsonWriter.writeDouble(out, hits.get(i).distance);
+                out.endArray();
+            }
+            out.endObject();
+            return true;
+        } finally { g.readUnlock(); }
+    }
+
+    // ─── Top-k ───────────────────────────────────────────────────────
+
+    /** Structural rankings of /graph/nodes/top; a column is named separately. */
+    private static final List<String> DEGREE_RANKINGS = List.of("degree", "in_degree", "out_degree", "weighted_degree");
+
+    /**
+     * Writes the k nodes with the largest values (smallest when ascending) of by,
+     * one of {@link #DEGREE_RANKINGS}, or of numeric column when it is non-null,
+     * best first with their values. A column a query has indexed is read off its
+     * sorted {@link AttributeIndex}; otherwise the values are gathered in one pass
+     * and picked by {@link TopK}. Returns false if an error document was written.
+     */
+    public boolean writeTopNodes(JsonWriter out, String by, String column, int k, boolean ascending,
+                                 Projection projection) throws IOException {
+        Workspace ws = currentWorkspace();
+        if (ws == null) {
+            GraphJsonWriter.writeError(out, "No project open");
+            return false;
+        }
+        GraphModel gm = getGraphController().getGraphModel(ws);
+        Graph g = gm.getGraph();
+        GraphLocks.readLock(g);
+        try {
+            NdjsonStream.RecordWriter<Node> writer;
+            Column col = null;
+            try {
+                writer = GraphJsonWriter.nodeWriter(g, gm.getNodeTable(), projection);
+                if (column != null) {
+                    col = gm.getNodeTable().getColumn(column);
+                    if (col == null) throw new IllegalArgumentException("Column not found: " + column);
+                    if (!col.isNumber() || col.isArray() || col.isDynamic()) {
+                        throw new IllegalArgumentException("Column '" + column + "' is not numeric");
                     }
-                    if (attrs.size() > 0) o.add("attributes", attrs);
-                    arr.add(o);
-                    count++;
+                } else if (!DEGREE_RANKINGS.contains(by)) {
+                    throw new IllegalArgumentException("Unknown ranking '" + by + "'. Use: "
+                        + String.join(", ", DEGREE_RANKINGS) + ", or give 'column'");
                 }
-                JsonObject r = new JsonObject();
-                r.addProperty("success", true);
-                r.addProperty("total", g.getEdgeCount());
-                r.addProperty("count", count);
-                r.add("edges", arr);
-                return r;
-            } finally { g.readUnlock(); }
-        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+            } catch (IllegalArgumentException e) {
+                GraphJsonWriter.writeError(out, e.getMessage());
+                return false;
+            }
+            Node[] ranked;
+            double[] values;
+            int total = 0;
+            AttributeIndex.NumericSnapshot sorted = col != null ? AttributeIndex.of(ws, gm).sortedIfIndexed(g, col) : null;
+            if (sorted != null) {
+                total = sorted.keys.length;
+                ranked = new Node[Math.max(0, Math.min(k, total))];
+                values = new double[ranked.length];
+                for (int i = 0; i < ranked.length; i++) {
+                    int p = ascending ? i : total - 1 - i;
+                    ranked[i] = sorted.nodes[p];
+                    values[i] = sorted.keys[p];
+                }
+            } else {
+                Node[] nodes = g.getNodes().toArray();
+                double[] keys = rankKeys(gm, g, nodes, by, col);
+                for (double key : keys) if (!Double.isNaN(key)) total++;
+                int[] top = TopK.select(keys, k, ascending);
+                ranked = new Node[top.length];
+                values = new double[top.length];
+                for (int i = 0; i < top.length; i++) {
+                    ranked[i] = nodes[top[i]];
+                    values[i] = keys[top[i]];
+                }
+            }
+            out.beginObject();
+            out.name("success").value(true);
+            out.name("by").value(col != null ? col.getId() : by);
+            out.name("order").value(ascending ? "asc" : "desc");
+            out.name("total").value(total);
+            out.name("count").value(ranked.length);
+            out.name("nodes").beginArray();
+            for (Node n : ranked) writer.write(out, n);
+            out.endArray();
+            out.name("values").beginArray();
+            for (double v : values) GraphJsonWriter.writeDouble(out, v);
+            out.endArray();
+            out.endObject();
+            return true;
+        } finally { g.readUnlock(); }
+    }
+
+    /** The ranking key of each node, NaN where col has no numeric value. Call under the read lock. */
+    private static double[] rankKeys(GraphModel gm, Graph g, Node[] nodes, String by, Column col) {
+        double[] keys = new double[nodes.length];
+        if (col != null) {
+            for (int i = 0; i < nodes.length; i++) {
+                Object v = nodes[i].getAttribute(col);
+                keys[i] = v instanceof Number ? ((Number) v).doubleValue() : Double.NaN;
+            }
+        } else if (by.equals("weighted_degree")) {
+            // one pass over the edges instead of one edge iteration per node
+            int maxStoreId = -1;
+            for (Node n : nodes) maxStoreId = Math.max(maxStoreId, n.getStoreId());
+            int[] position = new int[maxStoreId + 1];
+            for (int i = 0; i < nodes.length; i++) position[nodes[i].getStoreId()] = i;
+            for (Edge e : g.getEdges()) {
+                double w = e.getWeight();
+                keys[position[e.getSource().getStoreId()]] += w;
+                keys[position[e.getTarget().getStoreId()]] += w;
+            }
+        } else {
+            DirectedGraph dg = gm.getDirectedGraph();
+            for (int i = 0; i < nodes.length; i++) {
+                switch (by) {
+                    case "in_degree": keys[i] = dg.getInDegree(nodes[i]); break;
+                    case "out_degree": keys[i] = dg.getOutDegree(nodes[i]); break;
+                    default: keys[i] = g.getDegree(nodes[i]);
+                }
+            }
+        }
+        return keys;
+    }
+
+    // ─── Change Log ──────────────────────────────────────────────────
+
+    /**
+     * Writes the changes of the current workspace after version since (an ETag
+     * value or the version of an earlier response), at most about limit of them,
+     * or {resync: true} when the {@link ChangeLog} no longer reaches back that
+     * far; returns false if an error document was written.
+     */
+    public boolean writeChanges(JsonWriter out, long since, int limit) throws IOException {
+        Workspace ws = currentWorkspace();
+        if (ws == null) {
+            GraphJsonWriter.writeError(out, "No project open");
+            return false;
+        }
+        WorkspaceVersion version = WorkspaceVersion.of(ws, getGraphController().getGraphModel(ws));
+        ChangeLog.Slice slice = version.changes().since(since, version.current(), limit);
+        out.beginObject();
+        out.name("success").value(true);
+        out.name("since").value(since);
+        out.name("version").value(slice.version);
+        out.name("resync").value(slice.resync);
+        out.name("count").value(slice.changes.size());
+        out.name("more").value(slice.more);
+        out.name("changes").beginArray();
+        for (ChangeLog.Change c : slice.changes) {
+            out.beginObject();
+            out.name("v").value(c.version);
+            out.name("op").value(c.op);
+            out.name("type").value(c.edge ? "edge" : "node");
+            if (c.id != null) {
+                out.name("id").value(c.id);
+                if (c.edge) {
+                    out.name("source").value(c.source);
+                    out.name("target").value(c.target);
+                }
+            } else {
+                out.name("all").value(true);
+            }
+            if (c.field != null) out.name("field").value(c.field);
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+        return true;
     }
 
     // ─── Graph Stats ─────────────────────────────────────────────────
@@ -614,7 +1384,7 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            g.readLock();
+            GraphLocks.readLock(g);
             try {
                 int nc = g.getNodeCount(), ec = g.getEdgeCount();
                 double density = nc > 1 ? (2.0 * ec) / (nc * (nc - 1)) : 0;
@@ -681,7 +1451,7 @@ public class GephiControlService {
             if (table.getColumn(name) != null) return error("Column already exists: " + name);
             Class<?> cls = typeStringToClass(type);
             if (cls == null) return error("Unknown type: " + type + ". Use: string, integer, double, float, boolean, long");
-            table.addColumn(name, cls);
+            UndoLog.columnAdded(table, table.addColumn(name, cls));
             return success("Column '" + name + "' added");
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
@@ -692,46 +1462,143 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = currentGraphModel();
             Graph g = gm.getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node n = g.getNode(id);
                 if (n == null) return error("Node not found: " + id);
                 for (Map.Entry<String, Object> e : attrs.entrySet()) {
                     ensureColumnAndSet(gm.getNodeTable(), n, e.getKey(), e.getValue());
                 }
+                changes(ws).node(n, "attributes");
                 return success("Attributes set on node " + id);
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject batchSetNodeAttributes(List<Map<String, Object>> updates) {
+    /**
+     * Streams {"schema"?: {key: type}, "updates": [{id, attributes: {...}}, ...]}
+     * from in, like {@link #addNodes}; ids not in the graph are counted as not_found.
+     */
+    public JsonObject batchSetNodeAttributes(JsonReader in) {
+        return ingestNodes(in, "updates", NodeIngestMode.UPDATE);
+    }
+
+    /**
+     * Streams {"column": name, "type"?: type, "ids"?: [...], "values": [...]} from
+     * in and writes one node column: values[i] to node ids[i], or without ids to
+     * the i-th node in store id order (the order of a cursor listing), in which
+     * case values must cover every node and "version" must give the listing's
+     * version; the write is refused if nodes were added or removed since, as
+     * store ids may have been reused. Numeric values may instead come as
+     * "values_base64", little-endian doubles. The column is resolved or created
+     * once and the values parsed into a primitive array before the write lock is taken.
+     */
+    public JsonObject writeNodeColumn(JsonReader in) {
         try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
-            GraphModel gm = currentGraphModel();
+            GraphModel gm = getGraphController().getGraphModel(ws);
             Graph g = gm.getGraph();
-            g.writeLock();
-            try {
-                int set = 0, notFound = 0;
-                for (Map<String, Object> update : updates) {
-                    String id = (String) update.get("id");
-                    Node n = g.getNode(id);
-                    if (n == null) { notFound++; continue; }
-                    @SuppressWarnings("unchecked")
-                    Map<String, Object> attrs = (Map<String, Object>) update.get("attributes");
-                    if (attrs != null) {
-                        for (Map.Entry<String, Object> e : attrs.entrySet()) {
-                            ensureColumnAndSet(gm.getNodeTable(), n, e.getKey(), e.getValue());
+            Table table = gm.getNodeTable();
+            String name = null;
+            AttributeSchema.Kind kind = null;
+            String[] ids = null;
+            long version = -1;
+            ColumnValues values = null;
+            if (in.peek() != JsonToken.BEGIN_OBJECT) return error("Missing 'column' or 'values'");
+            in.beginObject();
+            while (in.hasNext()) {
+                String key = in.nextName();
+                if (key.equals("column") || key.equals("type")) {
+                    if (ids != null || values != null) {
+                        throw new IllegalArgumentException("'" + key + "' must come before 'ids' and 'values'");
+                    }
+                    if (key.equals("column")) {
+                        name = JsonIngest.readString(in);
+                    } else {
+                        String type = JsonIngest.readString(in);
+                        kind = AttributeSchema.Kind.parse(type);
+                        if (kind == null) return error("Unknown type: " + type + ". Use: string, integer, long, float, double, boolean");
+                    }
+                } else if (key.equals("version") && in.peek() == JsonToken.NUMBER) {
+                    version = in.nextLong();
+                } else if (key.equals("ids") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    List<String> list = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) list.add(JsonIngest.readString(in));
+                    in.endArray();
+                    ids = list.toArray(new String[0]);
+                } else if ((key.equals("values") && in.peek() == JsonToken.BEGIN_ARRAY)
+                           || (key.equals("values_base64") && in.peek() == JsonToken.STRING)) {
+                    if (name == null) throw new IllegalArgumentException("'column' must come before '" + key + "'");
+                    Column col = table.getColumn(name);
+                    if (col != null) {
+                        AttributeSchema.Kind existing = AttributeSchema.Kind.of(col.getTypeClass());
+                        if (existing == AttributeSchema.Kind.OTHER || col.isProperty()) {
+                            return error("Column '" + name + "' cannot be written");
+                        }
+                        if (kind != null && kind != existing) {
+                            return error("Column '" + name + "' already exists as " + col.getTypeClass().getSimpleName());
                         }
+                        kind = existing;
                     }
-                    set++;
+                    values = key.equals("values") ? ColumnValues.read(in, kind) : ColumnValues.decode(in.nextString(), kind);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            if (name == null || values == null) return error("Missing 'column' or 'values'");
+            if (ids != null && ids.length != values.size()) {
+                return error("'ids' has " + ids.length + " entries but 'values' has " + values.size());
+            }
+            if (ids == null && version < 0) {
+                return error("Without 'ids', pass the 'version' of the cursor listing the node order was read from");
+            }
+
+            int written = 0, notFound = 0;
+            boolean created = false;
+            GraphLocks.writeLock(g);
+            try {
+                Node[] nodes;
+                if (ids == null) {
+                    nodes = PageCursors.listingOrder(g, version, WorkspaceVersion.of(ws, gm).nodes());
+                    if (nodes.length != values.size()) {
+                        return error("'values' has " + values.size() + " entries but the graph has " + nodes.length
+                            + " nodes; pass 'ids' or fetch the id order again");
+                    }
+                } else {
+                    nodes = new Node[ids.length];
+                    for (int i = 0; i < ids.length; i++) nodes[i] = ids[i] != null ? g.getNode(ids[i]) : null;
+                }
+                Column col = table.getColumn(name);
+                if (col == null) {
+                    col = table.addColumn(name, values.kind.type);
+                    UndoLog.columnAdded(table, col);
+                    created = true;
+                } else if (col.getTypeClass() != values.kind.type) {
+                    return error("Column '" + name + "' was changed to " + col.getTypeClass().getSimpleName());
+                }
+                for (int i = 0; i < nodes.length; i++) {
+                    if (nodes[i] == null) notFound++;
+                    else if (values.write(i, nodes[i], col)) written++;
+                }
+                ChangeLog changes = changes(ws);
+                if (ids == null) {
+                    changes.allNodes("attributes");
+                } else {
+                    for (Node n : nodes) if (n != null) changes.node(n, "attributes");
                 }
-                JsonObject r = new JsonObject();
-                r.addProperty("success", true);
-                r.addProperty("set", set);
-                r.addProperty("not_found", notFound);
-                return r;
             } finally { g.writeUnlock(); }
+
+            JsonObject r = success("Column '" + name + "' written");
+            r.addProperty("column", name);
+            r.addProperty("type", values.kind.type.getSimpleName());
+            r.addProperty("created", created);
+            r.addProperty("written", written);
+            r.addProperty("not_found", notFound);
+            r.addProperty("invalid", values.invalidCount());
+            return r;
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
@@ -741,7 +1608,7 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = currentGraphModel();
             Graph g = gm.getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 Node s = g.getNode(source), t = g.getNode(target);
                 if (s == null || t == null) return error("Node not found");
@@ -750,6 +1617,7 @@ public class GephiControlService {
                 for (Map.Entry<String, Object> entry : attrs.entrySet()) {
                     ensureColumnAndSet(gm.getEdgeTable(), e, entry.getKey(), entry.getValue());
                 }
+                changes(ws).edge(e, "attributes");
                 return success("Attributes set on edge");
             } finally { g.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -768,6 +1636,9 @@ public class GephiControlService {
                 cls = Boolean.class;
             }
             col = table.addColumn(key, cls);
+            UndoLog.columnAdded(table, col);
+        } else {
+            UndoLog.attribute((Element) element, col);
         }
         // Convert value to column type
         Object converted = convertToColumnType(value, col.getTypeClass());
@@ -809,11 +1680,13 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph graph = currentGraphModel().getGraph();
-            graph.writeLock();
+            GraphLocks.writeLock(graph);
             try {
                 Node n = graph.getNode(id);
                 if (n == null) return error("Node not found: " + id);
+                UndoLog.color(n);
                 n.setColor(new Color(r, g, b, a));
+                changes(ws).node(n, "color");
                 return success("Node color set");
             } finally { graph.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -824,11 +1697,13 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph graph = currentGraphModel().getGraph();
-            graph.writeLock();
+            GraphLocks.writeLock(graph);
             try {
                 Node n = graph.getNode(id);
                 if (n == null) return error("Node not found: " + id);
+                UndoLog.size(n);
                 n.setSize(size);
+                changes(ws).node(n, "size");
                 return success("Node size set to " + size);
             } finally { graph.writeUnlock(); }
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
@@ -845,6 +1720,7 @@ public class GephiControlService {
                 Edge e = findEdge(graph, s, t);
                 if (e == null) return error("Edge not found");
                 e.setColor(new Color(r, g, b, a));
+                changes(ws).edge(e, "color");
                 return success("Edge color set");
             } catch (Exception e) { return error("Failed: " + e.getMessage()); }
         });
@@ -855,7 +1731,8 @@ public class GephiControlService {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
             Graph graph = currentGraphModel().getGraph();
-            graph.writeLock();
+            ChangeLog changes = changes(ws);
+            GraphLocks.writeLock(graph);
             try {
                 int set = 0, notFound = 0;
                 for (Map<String, Object> nc : nodeColors) {
@@ -866,7 +1743,9 @@ public class GephiControlService {
                     int g = ((Number) nc.get("g")).intValue();
                     int b = ((Number) nc.get("b")).intValue();
                     int a = nc.containsKey("a") ? ((Number) nc.get("a")).intValue() : 255;
+                    UndoLog.color(n);
                     n.setColor(new Color(r, g, b, a));
+                    changes.node(n, "color");
                     set++;
                 }
                 JsonObject res = new JsonObject();
@@ -890,6 +1769,8 @@ public class GephiControlService {
                     n.setColor(defaultColor);
                     n.setSize(size);
                 }
+                changes(ws).allNodes("color");
+                changes(ws).allNodes("size");
                 return success("Appearance reset for all nodes");
             } catch (Exception e) { return error("Failed: " + e.getMessage()); }
         });
@@ -897,154 +1778,189 @@ public class GephiControlService {
 
     // ─── Appearance: Color/Size by Attribute ─────────────────────────
 
+    /**
+     * Colors nodes by the distinct values of a column, from colorMap (value text
+     * to RGB) or else the column's cached auto palette. Runs on the calling thread
+     * under the graph write lock, not on the EDT: values are gathered once,
+     * dictionary-encoded in parallel, and only nodes whose color changes are written.
+     */
     public JsonObject colorByPartition(String columnName, Map<String, int[]> colorMap) {
-        return runOnEDT(() -> {
+        try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
+            GraphModel gm = currentGraphModel();
+            Graph graph = gm.getGraph();
+            GraphLocks.writeLock(graph);
             try {
-                GraphModel gm = currentGraphModel();
-                Graph graph = gm.getGraph();
                 Column col = gm.getNodeTable().getColumn(columnName);
                 if (col == null) return error("Column not found: " + columnName);
 
-                // Collect distinct values
-                java.util.Map<String, Color> palette = new java.util.LinkedHashMap<>();
+                Node[] nodes = graph.getNodes().toArray();
+                Object[] values = new Object[nodes.length];
+                for (int i = 0; i < nodes.length; i++) values[i] = nodes[i].getAttribute(col);
+                Partitions.Encoded partitions = Partitions.encode(values);
+
+                Color[] colors;
                 if (colorMap != null && !colorMap.isEmpty()) {
-                    for (Map.Entry<String, int[]> e : colorMap.entrySet()) {
-                        int[] c = e.getValue();
-                        palette.put(e.getKey(), new Color(c[0], c[1], c[2]));
+                    colors = new Color[partitions.values.length];
+                    for (int k = 0; k < colors.length; k++) {
+                        int[] c = colorMap.get(String.valueOf(partitions.values[k]));
+                        if (c != null) colors[k] = new Color(c[0], c[1], c[2]);
                     }
                 } else {
-                    // Auto-generate palette
-                    java.util.Set<String> values = new java.util.LinkedHashSet<>();
-                    Node[] allNodes = graph.getNodes().toArray();
-                    for (Node n : allNodes) {
-                        Object v = n.getAttribute(col);
-                        if (v != null) values.add(v.toString());
-                    }
-
-                    Color[] defaultPalette = {
-                        new Color(31, 119, 180), new Color(255, 127, 14), new Color(44, 160, 44),
-                        new Color(214, 39, 40), new Color(148, 103, 189), new Color(140, 86, 75),
-                        new Color(227, 119, 194), new Color(127, 127, 127), new Color(188, 189, 34),
-                        new Color(23, 190, 207), new Color(174, 199, 232), new Color(255, 187, 120)
-                    };
-                    int idx = 0;
-                    for (String v : values) {
-                        palette.put(v, defaultPalette[idx % defaultPalette.length]);
-                        idx++;
-                    }
+                    colors = Partitions.of(ws, gm.getNodeTable()).autoPalette(col, partitions.values);
                 }
 
-                Node[] allNodes = graph.getNodes().toArray();
-                int colored = 0;
-                for (Node n : allNodes) {
-                    Object v = n.getAttribute(col);
-                    if (v != null) {
-                        Color c = palette.get(v.toString());
-                        if (c != null) {
-                            n.setColor(c);
-                            colored++;
-                        }
-                    }
+                int colored = 0, changedCount = 0;
+                Node[] changed = new Node[nodes.length];
+                for (int i = 0; i < nodes.length; i++) {
+                    int id = partitions.ids[i];
+                    Color c = id >= 0 ? colors[id] : null;
+                    if (c == null) continue;
+                    colored++;
+                    Node n = nodes[i];
+                    if (hasColor(n, c.getRGB())) continue;
+                    UndoLog.color(n);
+                    n.setColor(c);
+                    changed[changedCount++] = n;
                 }
+                changes(ws).nodes(changed, changedCount, "color");
                 JsonObject r = success("Colored " + colored + " nodes by " + columnName);
-                r.addProperty("partitions", palette.size());
+                r.addProperty("partitions", colorMap != null && !colorMap.isEmpty() ? colorMap.size() : partitions.values.length);
+                r.addProperty("changed", changedCount);
                 return r;
-            } catch (Exception e) { return error("Failed: " + e.getMessage()); }
-        });
+            } finally { graph.writeUnlock(); }
+        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject colorByRanking(String columnName, int rMin, int gMin, int bMin, int rMax, int gMax, int bMax) {
-        return runOnEDT(() -> {
+    /**
+     * Colors nodes by a numeric column through a gradient (stop positions at, or
+     * evenly spaced when null) on the given scale; see {@link Rankings#positions}.
+     * Works from the column's cached sorted index under the graph write lock, so
+     * only nodes whose color changes are written.
+     */
+    public JsonObject colorByRanking(String columnName, String scale, double lowPercentile, double highPercentile,
+                                     double[] at, int[][] colors) {
+        try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
+            Rankings.Scale s = Rankings.Scale.parse(scale);
+            if (s == null) return error("Unknown scale: " + scale + ". Use: linear, log, sqrt, quantile, percentile");
+            Rankings.Gradient gradient = new Rankings.Gradient(at, colors);
+            GraphModel gm = currentGraphModel();
+            Graph graph = gm.getGraph();
+            GraphLocks.writeLock(graph);
             try {
-                GraphModel gm = currentGraphModel();
-                Graph graph = gm.getGraph();
                 Column col = gm.getNodeTable().getColumn(columnName);
                 if (col == null) return error("Column not found: " + columnName);
-
-                // Find min/max values
-                double min = Double.MAX_VALUE, max = Double.MIN_VALUE;
-                Node[] allNodes = graph.getNodes().toArray();
-                for (Node n : allNodes) {
-                    Object v = n.getAttribute(col);
-                    if (v instanceof Number) {
-                        double d = ((Number) v).doubleValue();
-                        if (d < min) min = d;
-                        if (d > max) max = d;
-                    }
+                AttributeIndex.NumericSnapshot sorted = col.isNumber() ? AttributeIndex.of(ws, gm).sorted(graph, col) : null;
+                if (sorted == null || sorted.keys.length == 0) return error("No numeric values in column " + columnName);
+
+                int[] argb = gradient.argb(Rankings.positions(sorted.keys, s, lowPercentile, highPercentile));
+                Node[] changed = new Node[argb.length];
+                int changedCount = 0;
+                for (int i = 0; i < argb.length; i++) {
+                    Node n = sorted.nodes[i];
+                    if (hasColor(n, argb[i])) continue;
+                    UndoLog.color(n);
+                    n.setColor(new Color(argb[i], true));
+                    changed[changedCount++] = n;
                 }
-
-                if (min == Double.MAX_VALUE) return error("No numeric values in column " + columnName);
-                double range = max - min;
-                if (range == 0) range = 1;
-
-                int colored = 0;
-                for (Node n : allNodes) {
-                    Object v = n.getAttribute(col);
-                    if (v instanceof Number) {
-                        double t = (((Number) v).doubleValue() - min) / range;
-                        int r = (int)(rMin + t * (rMax - rMin));
-                        int g = (int)(gMin + t * (gMax - gMin));
-                        int b = (int)(bMin + t * (bMax - bMin));
-                        n.setColor(new Color(
-                            Math.max(0, Math.min(255, r)),
-                            Math.max(0, Math.min(255, g)),
-                            Math.max(0, Math.min(255, b))
-                        ));
-                        colored++;
-                    }
-                }
-                JsonObject res = success("Colored " + colored + " nodes by ranking on " + columnName);
-                res.addProperty("min_value", min);
-                res.addProperty("max_value", max);
+                changes(ws).nodes(changed, changedCount, "color");
+                JsonObject res = success("Colored " + argb.length + " nodes by ranking on " + columnName);
+                res.addProperty("scale", s.name().toLowerCase());
+                res.addProperty("min_value", sorted.keys[0]);
+                res.addProperty("max_value", sorted.keys[sorted.keys.length - 1]);
+                res.addProperty("changed", changedCount);
                 return res;
-            } catch (Exception e) { return error("Failed: " + e.getMessage()); }
-        });
+            } finally { graph.writeUnlock(); }
+        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
-    public JsonObject sizeByRanking(String columnName, float minSize, float maxSize) {
-        return runOnEDT(() -> {
+    /** Sizes nodes by a numeric column on the given scale, like {@link #colorByRanking}. */
+    public JsonObject sizeByRanking(String columnName, float minSize, float maxSize, String scale,
+                                    double lowPercentile, double highPercentile) {
+        try {
             Workspace ws = currentWorkspace();
             if (ws == null) return error("No project open");
+            Rankings.Scale s = Rankings.Scale.parse(scale);
+            if (s == null) return error("Unknown scale: " + scale + ". Use: linear, log, sqrt, quantile, percentile");
+            GraphModel gm = currentGraphModel();
+            Graph graph = gm.getGraph();
+            GraphLocks.writeLock(graph);
             try {
-                GraphModel gm = currentGraphModel();
-                Graph graph = gm.getGraph();
                 Column col = gm.getNodeTable().getColumn(columnName);
                 if (col == null) return error("Column not found: " + columnName);
-
-                double min = Double.MAX_VALUE, max = Double.MIN_VALUE;
-                Node[] allNodes = graph.getNodes().toArray();
-                for (Node n : allNodes) {
-                    Object v = n.getAttribute(col);
-                    if (v instanceof Number) {
-                        double d = ((Number) v).doubleValue();
-                        if (d < min) min = d;
-                        if (d > max) max = d;
-                    }
+                AttributeIndex.NumericSnapshot sorted = col.isNumber() ? AttributeIndex.of(ws, gm).sorted(graph, col) : null;
+                if (sorted == null || sorted.keys.length == 0) return error("No numeric values in column " + columnName);
+
+                double[] t = Rankings.positions(sorted.keys, s, lowPercentile, highPercentile);
+                Node[] changed = new Node[t.length];
+                int changedCount = 0;
+                for (int i = 0; i < t.length; i++) {
+                    Node n = sorted.nodes[i];
+                    float size = (float) (minSize + t[i] * (maxSize - minSize));
+                    if (n.size() == size) continue;
+                    UndoLog.size(n);
+                    n.setSize(size);
+                    changed[changedCount++] = n;
                 }
+                changes(ws).nodes(changed, changedCount, "size");
+                JsonObject res = success("Sized " + t.length + " nodes by " + columnName);
+                res.addProperty("scale", s.name().toLowerCase());
+                res.addProperty("min_value", sorted.keys[0]);
+                res.addProperty("max_value", sorted.keys[sorted.keys.length - 1]);
+                res.addProperty("changed", changedCount);
+                return res;
+            } finally { graph.writeUnlock(); }
+        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
+    }
 
-                if (min == Double.MAX_VALUE) return error("No numeric values in column " + columnName);
-                double range = max - min;
-                if (range == 0) range = 1;
+    /** Whether n's color is argb (packed like {@link Color#getRGB}), compared without allocating a Color. */
+    private static boolean hasColor(Node n, int argb) {
+        return AppearancePipeline.hasColor(n.r(), n.g(), n.b(), n.alpha(), argb);
+    }
 
-                int sized = 0;
-                for (Node n : allNodes) {
-                    Object v = n.getAttribute(col);
-                    if (v instanceof Number) {
-                        double t = (((Number) v).doubleValue() - min) / range;
-                        n.setSize((float)(minSize + t * (maxSize - minSize)));
-                        sized++;
+    // ─── Appearance: Pipeline ────────────────────────────────────────
+
+    /**
+     * Applies a list of appearance transforms (see {@link AppearancePipeline}) as
+     * one pass over the nodes and one over the edges, under a single write lock on
+     * the calling thread. The EDT is entered once afterwards, and only for edge
+     * thickness preview settings and, with refreshPreview, one preview refresh.
+     */
+    public JsonObject applyAppearancePipeline(JsonArray transforms, boolean refreshPreview) {
+        try {
+            Workspace ws = currentWorkspace();
+            if (ws == null) return error("No project open");
+            AppearancePipeline pipeline = AppearancePipeline.parse(transforms);
+            GraphModel gm = currentGraphModel();
+            Graph graph = gm.getGraph();
+            JsonObject res;
+            GraphLocks.writeLock(graph);
+            try {
+                res = pipeline.apply(ws, gm, graph, changes(ws));
+            } finally { graph.writeUnlock(); }
+            res.addProperty("message", "Applied " + transforms.size() + " appearance transform(s)");
+
+            float[] thickness = pipeline.edgeThickness();
+            if (thickness != null || refreshPreview) {
+                JsonObject preview = runOnEDT(() -> {
+                    PreviewController pc = Lookup.getDefault().lookup(PreviewController.class);
+                    if (pc == null) return error("Preview controller not available");
+                    if (thickness != null) {
+                        PreviewModel pm = pc.getModel(ws);
+                        if (pm == null) return error("Preview model not available");
+                        setEdgeThickness(pm, thickness[0], thickness[1]);
                     }
-                }
-                JsonObject res = success("Sized " + sized + " nodes by " + columnName);
-                res.addProperty("min_value", min);
-                res.addProperty("max_value", max);
-                return res;
-            } catch (Exception e) { return error("Failed: " + e.getMessage()); }
-        });
+                    if (refreshPreview) pc.refreshPreview(ws);
+                    return success("Preview updated");
+                });
+                if (!preview.get("success").getAsBoolean()) res.add("preview_error", preview.get("error"));
+                res.addProperty("preview_refreshed", refreshPreview && preview.get("success").getAsBoolean());
+            }
+            return res;
+        } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
     // ─── Layout ──────────────────────────────────────────────────────
@@ -1064,26 +1980,40 @@ public class GephiControlService {
             }
             if (layout == null) return error("Layout not found: " + algo);
             layout.setGraphModel(gm);
-            final Layout fl = layout;
-            final int iters = iterations > 0 ? iterations : 1000;
-            layoutRunning.set(true);
-            currentLayoutName = algo;
-            layoutFuture = layoutExecutor.submit(() -> {
-                try {
-                    fl.initAlgo();
-                    for (int i = 0; i < iters && layoutRunning.get() && fl.canAlgo(); i++) fl.goAlgo();
-                    fl.endAlgo();
-                } catch (Exception e) { LOGGER.log(Level.WARNING, "Layout error", e); }
-                finally { layoutRunning.set(false); currentLayoutName = null; }
-            });
-            JsonObject r = new JsonObject();
-            r.addProperty("success", true);
-            r.addProperty("layout", algo);
-            r.addProperty("status", "running");
-            return r;
+            return startLayout(layout, algo, iterations, ws, gm);
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
+    private JsonObject startLayout(Layout layout, String algo, int iterations, Workspace ws, GraphModel gm) {
+        final int iters = iterations > 0 ? iterations : 1000;
+        final LayoutRun run = new LayoutRun(algo, iters, gm);
+        layoutRunning.set(true);
+        currentLayoutName = algo;
+        layoutRun = run;
+        layoutFuture = layoutExecutor.submit(() -> {
+            try {
+                layout.initAlgo();
+                for (int i = 0; i < iters && layoutRunning.get() && layout.canAlgo(); i++) {
+                    layout.goAlgo();
+                    run.iterationDone(i + 1);
+                }
+                layout.endAlgo();
+            } catch (Exception e) { LOGGER.log(Level.WARNING, "Layout error", e); }
+            finally {
+                run.finish();
+                layoutRunning.set(false);
+                currentLayoutName = null;
+                changes(ws).allNodes("position");
+                markModified(ws);   // positions moved; the version was frozen while running
+            }
+        });
+        JsonObject r = new JsonObject();
+        r.addProperty("success", true);
+        r.addProperty("layout", algo);
+        r.addProperty("status", "running");
+        return r;
+    }
+
     public JsonObject stopLayout() {
         if (!layoutRunning.get()) return success("No layout running");
         layoutRunning.set(false);
@@ -1094,11 +2024,24 @@ public class GephiControlService {
     public JsonObject getLayoutStatus() {
         JsonObject r = new JsonObject();
         r.addProperty("success", true);
+        LayoutRun run = layoutRun;
+        if (run != null) run.describe(r);
         r.addProperty("running", layoutRunning.get());
         if (currentLayoutName != null) r.addProperty("layout", currentLayoutName);
         return r;
     }
 
+    /**
+     * Server-Sent Events stream for the latest layout run: progress every frame and,
+     * if deltas is set, quantized moves of nodes that shifted more than threshold.
+     * Null when no layout has been started.
+     */
+    public InputStream layoutEvents(int fps, boolean deltas, double threshold, double quantum) {
+        LayoutRun run = layoutRun;
+        if (run == null) return null;
+        return new LayoutEventStream(run, fps, deltas, threshold, quantum);
+    }
+
     public JsonObject getAvailableLayouts() {
         JsonArray arr = new JsonArray();
         for (LayoutBuilder b : Lookup.getDefault().lookupAll(LayoutBuilder.class)) {
@@ -1194,23 +2137,7 @@ public class GephiControlService {
             }
 
             // Run layout with configured properties
-            final Layout fl = layout;
-            final int iters = iterations > 0 ? iterations : 1000;
-            layoutRunning.set(true);
-            currentLayoutName = algo;
-            layoutFuture = layoutExecutor.submit(() -> {
-                try {
-                    fl.initAlgo();
-                    for (int i = 0; i < iters && layoutRunning.get() && fl.canAlgo(); i++) fl.goAlgo();
-                    fl.endAlgo();
-                } catch (Exception e) { LOGGER.log(Level.WARNING, "Layout error", e); }
-                finally { layoutRunning.set(false); currentLayoutName = null; }
-            });
-            JsonObject r = new JsonObject();
-            r.addProperty("success", true);
-            r.addProperty("layout", algo);
-            r.addProperty("status", "running");
-            return r;
+            return startLayout(layout, algo, iterations, ws, gm);
         } catch (Exception e) { return error("Failed: " + e.getMessage()); }
     }
 
@@ -1270,7 +2197,10 @@ public class GephiControlService {
             }
 
             // Execute
+            trackLongTask(JobManager.current(), stat, "Running " + matchedBuilder.getName());
             stat.execute(gm);
+            changes(ws).allNodes("attributes");   // statistics write their result columns
+            changes(ws).allEdges("attributes");
 
             // Build result
             JsonObject r = new JsonObject();
@@ -1302,6 +2232,70 @@ public class GephiControlService {
         }
     }
 
+    /**
+     * When running as a job, feeds a Gephi LongTask's ProgressTicket calls into the
+     * job's progress and cancels the task with the job. Done reflectively so the
+     * module needs no dependency on the longtask/progress APIs.
+     */
+    private void trackLongTask(JobManager.Job job, Object task, String name) {
+        if (job == null) return;
+        job.progress(-1, name);
+        job.onCancel(() -> {
+            try { task.getClass().getMethod("cancel").invoke(task); }
+            catch (Exception e) { /* not cancellable */ }
+        });
+        try {
+            java.lang.reflect.Method setter = null;
+            for (java.lang.reflect.Method m : task.getClass().getMethods()) {
+                if (m.getName().equals("setProgressTicket") && m.getParameterCount() == 1) setter = m;
+            }
+            if (setter == null || !setter.getParameterTypes()[0].isInterface()) return;
+            Class<?> ticketType = setter.getParameterTypes()[0];
+            int[] units = {0, 0};   // total work units, units done
+            Object ticket = Proxy.newProxyInstance(ticketType.getClassLoader(), new Class<?>[]{ticketType}, (proxy, m, args) -> {
+                String msg = null;
+                Integer n = null;
+                if (args != null) {
+                    for (Object a : args) {
+                        if (a instanceof String) msg = (String) a;
+                        else if (a instanceof Integer) n = (Integer) a;
+                    }
+                }
+                switch (m.getName()) {
+                    case "start":
+                    case "switchToDeterminate":
+                        units[0] = n != null ? n : 0;
+                        units[1] = 0;
+                        break;
+                    case "switchToIndeterminate":
+                        units[0] = 0;
+                        break;
+                    case "progress":
+                        if (n != null) units[1] = n;
+                        break;
+                    case "finish":
+                        units[1] = units[0];
+                        break;
+                    case "getDisplayName":
+                        return name;
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return "JobProgressTicket[" + job.id() + "]";
+                    default:
+                        break;
+                }
+                job.progress(units[0] > 0 ? units[1] / (double) units[0] : -1, msg);
+                return null;
+            });
+            setter.invoke(task, ticket);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "No progress tracking for " + task.getClass().getName(), e);
+        }
+    }
+
     private void setViaReflection(Object obj, String setter, Object value) {
         String methodName = "set" + setter.substring(0, 1).toUpperCase() + setter.substring(1);
         try {
@@ -1719,7 +2713,7 @@ public class GephiControlService {
                     if (!col.isProperty()) sb.append(sep).append(col.getTitle());
                 }
                 sb.append("\n");
-                g.readLock();
+                GraphLocks.readLock(g);
                 try {
                     for (Node n : g.getNodes()) {
                         sb.append(n.getId()).append(sep).append(n.getLabel() != null ? n.getLabel() : "");
@@ -1741,7 +2735,7 @@ public class GephiControlService {
                     if (!col.isProperty()) sb.append(sep).append(col.getTitle());
                 }
                 sb.append("\n");
-                g.readLock();
+                GraphLocks.readLock(g);
                 try {
                     for (Edge e : g.getEdges()) {
                         sb.append(e.getSource().getId()).append(sep).append(e.getTarget().getId()).append(sep).append(e.getWeight());
@@ -1818,10 +2812,11 @@ public class GephiControlService {
             if (ws == null) return error("No project open");
             GraphModel gm = currentGraphModel();
             Graph g = gm.getGraph();
-            g.writeLock();
+            GraphLocks.writeLock(g);
             try {
                 int nodeCount = g.getNodeCount();
                 int edgeCount = g.getEdgeCount();
+                UndoLog.cleared(g);
                 g.clear();
                 JsonObject r = success("Graph cleared");
                 r.addProperty("nodes_removed", nodeCount);
@@ -1992,29 +2987,7 @@ public class GephiControlService {
                 PreviewController pc = Lookup.getDefault().lookup(PreviewController.class);
                 PreviewModel pm = pc.getModel(ws);
                 if (pm == null) return error("Preview model not available");
-
-                // Set edge thickness to be rescaled based on weight
-                // Use the preview property for edge thickness
-                PreviewProperty edgeThicknessProp = pm.getProperties().getProperty("edge.thickness");
-                if (edgeThicknessProp != null) {
-                    edgeThicknessProp.setValue(minThickness);
-                }
-
-                // Set rescale weight property if available
-                PreviewProperty rescaleProp = pm.getProperties().getProperty("edge.rescale-weight");
-                if (rescaleProp != null) {
-                    rescaleProp.setValue(true);
-                }
-
-                PreviewProperty rescaleMinProp = pm.getProperties().getProperty("edge.rescale-weight.min");
-                if (rescaleMinProp != null) {
-                    rescaleMinProp.setValue(minThickness);
-                }
-
-                PreviewProperty rescaleMaxProp = pm.getProperties().getProperty("edge.rescale-weight.max");
-                if (rescaleMaxProp != null) {
-                    rescaleMaxProp.setValue(maxThickness);
-                }
+                setEdgeThickness(pm, minThickness, maxThickness);
 
                 JsonObject r = success("Edge thickness configured by weight");
                 r.addProperty("min_thickness", minThickness);
@@ -2026,6 +2999,32 @@ public class GephiControlService {
         });
     }
 
+    /** Rescales edge thickness by weight between min and max in the preview; call on the EDT. */
+    private static void setEdgeThickness(PreviewModel pm, float minThickness, float maxThickness) {
+        // Set edge thickness to be rescaled based on weight
+        // Use the preview property for edge thickness
+        PreviewProperty edgeThicknessProp = pm.getProperties().getProperty("edge.thickness");
+        if (edgeThicknessProp != null) {
+            edgeThicknessProp.setValue(minThickness);
+        }
+
+        // Set rescale weight property if available
+        PreviewProperty rescaleProp = pm.getProperties().getProperty("edge.rescale-weight");
+        if (rescaleProp != null) {
+            rescaleProp.setValue(true);
+        }
+
+        PreviewProperty rescaleMinProp = pm.getProperties().getProperty("edge.rescale-weight.min");
+        if (rescaleMinProp != null) {
+            rescaleMinProp.setValue(minThickness);
+        }
+
+        PreviewProperty rescaleMaxProp = pm.getProperties().getProperty("edge.rescale-weight.max");
+        if (rescaleMaxProp != null) {
+            rescaleMaxProp.setValue(maxThickness);
+        }
+    }
+
     public JsonObject resetFilters() {
         try {
             Workspace ws = currentWorkspace();
@@ -0,0 +1,170 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.stream.JsonWriter;
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Element;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.Table;
+
+/**
+ * Writes node and edge records straight from the graph into a JsonWriter,
+ * without building an intermediate JsonObject per record.
+ */
+final class GraphJsonWriter {
+
+    private GraphJsonWriter() {}
+
+    /** Node record fields in output order; "color" stands for r, g, b and a. */
+    private static final String[] NODE_FIELDS = {"id", "label", "x", "y", "size", "degree", "color", "attributes"};
+    /** Edge record fields in output order; "color" stands for r, g and b. */
+    private static final String[] EDGE_FIELDS = {"source", "target", "weight", "directed", "label", "color", "attributes"};
+
+    /** Custom (non-property) columns of a table, resolved once per response. */
+    static Column[] attributeColumns(Table table) {
+        List<Column> cols = new ArrayList<>();
+        for (Column col : table) {
+            if (!col.isProperty()) cols.add(col);
+        }
+        return cols.toArray(new Column[0]);
+    }
+
+    /**
+     * Compiles p into one writer per requested node field, resolving attribute
+     * columns up front, so the per-record loop reads only what is written (degree
+     * is not computed unless asked for). Throws IllegalArgumentException for an
+     * unknown field or column.
+     */
+    static NdjsonStream.RecordWriter<Node> nodeWriter(Graph g, Table table, Projection p) {
+        p.check(NODE_FIELDS);
+        List<NdjsonStream.RecordWriter<Node>> parts = new ArrayList<>();
+        parts.add((out, n) -> out.name("id").value(n.getId().toString()));
+        if (p.includes("label")) parts.add((out, n) -> out.name("label").value(n.getLabel()));
+        if (p.includes("x")) parts.add((out, n) -> writeFloat(out.name("x"), n.x()));
+        if (p.includes("y")) parts.add((out, n) -> writeFloat(out.name("y"), n.y()));
+        if (p.includes("size")) parts.add((out, n) -> writeFloat(out.name("size"), n.size()));
+        if (p.includes("degree")) parts.add((out, n) -> out.name("degree").value(g.getDegree(n)));
+        if (p.includes("color")) {
+            parts.add((out, n) -> {
+                Color c = n.getColor();
+                if (c == null) return;
+                out.name("r").value(c.getRed());
+                out.name("g").value(c.getGreen());
+                out.name("b").value(c.getBlue());
+                out.name("a").value(c.getAlpha());
+            });
+        }
+        Column[] cols = projectedColumns(table, p);
+        if (cols.length > 0) parts.add((out, n) -> writeAttributes(out, cols, n));
+        return record(parts);
+    }
+
+    /** Like {@link #nodeWriter}, for edges. */
+    static NdjsonStream.RecordWriter<Edge> edgeWriter(Table table, Projection p) {
+        p.check(EDGE_FIELDS);
+        List<NdjsonStream.RecordWriter<Edge>> parts = new ArrayList<>();
+        parts.add((out, e) -> {
+            out.name("source").value(e.getSource().getId().toString());
+            out.name("target").value(e.getTarget().getId().toString());
+        });
+        if (p.includes("weight")) parts.add((out, e) -> writeDouble(out.name("weight"), e.getWeight()));
+        if (p.includes("directed")) parts.add((out, e) -> out.name("directed").value(e.isDirected()));
+        if (p.includes("label")) {
+            parts.add((out, e) -> {
+                if (e.getLabel() != null) out.name("label").value(e.getLabel());
+            });
+        }
+        if (p.includes("color")) {
+            parts.add((out, e) -> {
+                Color c = e.getColor();
+                if (c == null) return;
+                out.name("r").value(c.getRed());
+                out.name("g").value(c.getGreen());
+                out.name("b").value(c.getBlue());
+            });
+        }
+        Column[] cols = projectedColumns(table, p);
+        if (cols.length > 0) parts.add((out, e) -> writeAttributes(out, cols, e));
+        return record(parts);
+    }
+
+    private static Column[] projectedColumns(Table table, Projection p) {
+        if (!p.includes("attributes")) return new Column[0];
+        if (p.attributes == null) return attributeColumns(table);
+        List<Column> cols = new ArrayList<>();
+        for (String name : p.attributes) {
+            Column col = table.getColumn(name);
+            if (col == null) throw new IllegalArgumentException("Column not found: " + name);
+            cols.add(col);
+        }
+        return cols.toArray(new Column[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> NdjsonStream.RecordWriter<T> record(List<NdjsonStream.RecordWriter<T>> parts) {
+        NdjsonStream.RecordWriter<T>[] fields = parts.toArray(new NdjsonStream.RecordWriter[0]);
+        return (out, element) -> {
+            out.beginObject();
+            for (NdjsonStream.RecordWriter<T> field : fields) field.write(out, element);
+            out.endObject();
+        };
+    }
+
+    private static void writeAttributes(JsonWriter out, Column[] attrColumns, Element el) throws IOException {
+        boolean open = false;
+        for (Column col : attrColumns) {
+            Object v = el.getAttribute(col);
+            if (v == null) continue;
+            if (!open) {
+                out.name("attributes").beginObject();
+                open = true;
+            }
+            out.name(col.getTitle());
+            writeValue(out, v);
+        }
+        if (open) out.endObject();
+    }
+
+    static void writeError(JsonWriter out, String message) throws IOException {
+        out.beginObject();
+        out.name("success").value(false);
+        out.name("error").value(message);
+        out.endObject();
+    }
+
+    static void writeValue(JsonWriter out, Object v) throws IOException {
+        if (v instanceof Float) {
+            writeFloat(out, (Float) v);
+        } else if (v instanceof Double) {
+            writeDouble(out, (Double) v);
+        } else if (v instanceof Number) {
+            out.value((Number) v);
+        } else if (v instanceof Boolean) {
+            out.value((Boolean) v);
+        } else {
+            out.value(v.toString());
+        }
+    }
+
+    /**
+     * Whole numbers (the common case for sizes, weights and counts) are written
+     * as integers, skipping the shortest-repr float formatter; non-finite values
+     * become null so the document stays valid JSON.
+     */
+    static void writeFloat(JsonWriter out, float f) throws IOException {
+        if (f == (int) f && Math.abs(f) < 0x1p24f) out.value((int) f);
+        else if (Float.isNaN(f) || Float.isInfinite(f)) out.nullValue();
+        else out.value(f);
+    }
+
+    static void writeDouble(JsonWriter out, double d) throws IOException {
+        if (d == (long) d && Math.abs(d) < 0x1p53) out.value((long) d);
+        else if (Double.isNaN(d) || Double.isInfinite(d)) out.nullValue();
+        else out.value(d);
+    }
+}
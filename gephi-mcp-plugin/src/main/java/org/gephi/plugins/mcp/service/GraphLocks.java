@@ -0,0 +1,21 @@
+package org.gephi.plugins.mcp.service;
+
+import org.gephi.graph.api.Graph;
+
+/** Graph lock acquisition with the wait time recorded in {@link Metrics}. */
+final class GraphLocks {
+
+    private GraphLocks() {}
+
+    static void readLock(Graph g) {
+        long start = System.nanoTime();
+        g.readLock();
+        Metrics.get().readLockWait.recordNanos(System.nanoTime() - start);
+    }
+
+    static void writeLock(Graph g) {
+        long start = System.nanoTime();
+        g.writeLock();
+        Metrics.get().writeLockWait.recordNanos(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,233 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs long operations (statistics, imports, exports, ...) off the HTTP thread.
+ * Jobs run on a bounded pool of -Dgephi.mcp.jobs.threads workers with up to
+ * -Dgephi.mcp.jobs.queue waiting; finished jobs are kept for
+ * -Dgephi.mcp.jobs.ttl seconds so their result can be fetched.
+ */
+public final class JobManager {
+
+    private static final Logger LOGGER = Logger.getLogger(JobManager.class.getName());
+    private static final ThreadLocal<Job> CURRENT = new ThreadLocal<>();
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED }
+
+    /** A submitted operation; running code reaches its own job through {@link JobManager#current()}. */
+    public static final class Job {
+        private final String id;
+        private final String operation;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile State state = State.QUEUED;
+        private volatile boolean cancelRequested;
+        private volatile double progress = -1;
+        private volatile String message;
+        private volatile JsonObject result;
+        private volatile Future<?> future;
+        private final List<Runnable> cancelHooks = new CopyOnWriteArrayList<>();
+
+        private Job(String id, String operation) {
+            this.id = id;
+            this.operation = operation;
+        }
+
+        public String id() { return id; }
+
+        public State state() { return state; }
+
+        public boolean isCancelRequested() { return cancelRequested; }
+
+        /** Fraction done in [0, 1], or negative when unknown; message may be null. */
+        public void progress(double fraction, String message) {
+            this.progress = fraction < 0 ? -1 : Math.min(1, fraction);
+            if (message != null) this.message = message;
+        }
+
+        /** Runs hook when the job is cancelled, or right away if it already was. */
+        public void onCancel(Runnable hook) {
+            cancelHooks.add(hook);
+            if (cancelRequested) runQuietly(hook);
+        }
+
+        private boolean isDone() {
+            return state == State.SUCCEEDED || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        JsonObject toJson(boolean withResult) {
+            JsonObject j = new JsonObject();
+            j.addProperty("id", id);
+            j.addProperty("operation", operation);
+            j.addProperty("state", state.name().toLowerCase());
+            if (progress >= 0) j.addProperty("progress", progress);
+            if (message != null) j.addProperty("message", message);
+            j.addProperty("submitted_at", submittedAt);
+            if (startedAt > 0) {
+                j.addProperty("started_at", startedAt);
+                j.addProperty("elapsed_ms", (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt);
+            }
+            if (finishedAt > 0) j.addProperty("finished_at", finishedAt);
+            if (withResult && result != null) j.add("result", result);
+            return j;
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final long ttlMillis;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+
+    public JobManager(int threads, int queue, long ttlSeconds) {
+        int size = Math.max(1, threads);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, queue)), task -> {
+                Thread t = new Thread(task, "MCP-Job-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.ttlMillis = Math.max(1, ttlSeconds) * 1000L;
+    }
+
+    public static JobManager fromSystemProperties() {
+        return new JobManager(Integer.getInteger("gephi.mcp.jobs.threads", 2),
+            Integer.getInteger("gephi.mcp.jobs.queue", 32),
+            Long.getLong("gephi.mcp.jobs.ttl", 600));
+    }
+
+    /** The job the calling thread is running, or null outside a job. */
+    public static Job current() {
+        return CURRENT.get();
+    }
+
+    /** Queues work and returns its job, or null when the queue is full. */
+    public Job submit(String operation, Callable<JsonObject> work) {
+        evictExpired();
+        Job job = new Job(Long.toString(ids.incrementAndGet()), operation);
+        jobs.put(job.id, job);
+        try {
+            job.future = executor.submit(() -> run(job, work));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            return null;
+        }
+        return job;
+    }
+
+    private void run(Job job, Callable<JsonObject> work) {
+        if (job.cancelRequested) {
+            job.state = State.CANCELLED;
+            job.finishedAt = System.currentTimeMillis();
+            return;
+        }
+        job.startedAt = System.currentTimeMillis();
+        job.state = State.RUNNING;
+        running.incrementAndGet();
+        CURRENT.set(job);
+        JsonObject r;
+        State end;
+        try {
+            r = work.call();
+            boolean ok = r != null && r.has("success") && r.get("success").getAsBoolean();
+            end = job.cancelRequested ? State.CANCELLED : ok ? State.SUCCEEDED : State.FAILED;
+            if (ok && job.progress >= 0) job.progress = 1;
+        } catch (Throwable e) {
+            if (!job.cancelRequested) LOGGER.log(Level.WARNING, "Job " + job.id + " failed: " + job.operation, e);
+            r = new JsonObject();
+            r.addProperty("success", false);
+            r.addProperty("error", job.cancelRequested ? "Cancelled" : "Failed: " + e.getMessage());
+            end = job.cancelRequested ? State.CANCELLED : State.FAILED;
+        } finally {
+            CURRENT.remove();
+            running.decrementAndGet();
+        }
+        job.result = r;
+        job.finishedAt = System.currentTimeMillis();
+        job.state = end;
+    }
+
+    public Job get(String id) {
+        evictExpired();
+        return jobs.get(id);
+    }
+
+    /** Requests cancellation; returns false if the job had already finished. */
+    public boolean cancel(Job job) {
+        if (job.isDone()) return false;
+        job.cancelRequested = true;
+        for (Runnable hook : job.cancelHooks) runQuietly(hook);
+        Future<?> f = job.future;
+        if (f != null && f.cancel(true) && job.state == State.QUEUED) {
+            job.state = State.CANCELLED;
+            job.finishedAt = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    public JsonObject toJson(Job job) {
+        JsonObject r = new JsonObject();
+        r.addProperty("success", true);
+        r.add("job", job.toJson(true));
+        return r;
+    }
+
+    public JsonObject list() {
+        evictExpired();
+        List<Job> all = new ArrayList<>(jobs.values());
+        all.sort((a, b) -> Long.compare(Long.parseLong(a.id), Long.parseLong(b.id)));
+        JsonArray arr = new JsonArray();
+        for (Job job : all) arr.add(job.toJson(false));
+        JsonObject r = new JsonObject();
+        r.addProperty("success", true);
+        r.addProperty("running", running.get());
+        r.addProperty("queued", executor.getQueue().size());
+        r.add("jobs", arr);
+        return r;
+    }
+
+    public int runningCount() {
+        return running.get();
+    }
+
+    public int queuedCount() {
+        return executor.getQueue().size();
+    }
+
+    private void evictExpired() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        jobs.values().removeIf(job -> job.finishedAt > 0 && job.finishedAt < cutoff);
+    }
+
+    private static void runQuietly(Runnable hook) {
+        try { hook.run(); }
+        catch (RuntimeException e) { LOGGER.log(Level.FINE, "Job cancel hook failed", e); }
+    }
+
+    public void shutdown() {
+        for (Job job : jobs.values()) {
+            if (!job.isDone()) cancel(job);
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,76 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+
+/**
+ * Helpers for reading bulk request bodies record by record with a JsonReader,
+ * so a large payload is never held in memory as a String or JsonObject tree.
+ */
+final class JsonIngest {
+
+    private JsonIngest() {}
+
+    /**
+     * Positions in at the first element of the top-level array field key,
+     * skipping any other fields before it. Returns false if there is no such array.
+     */
+    static boolean seekArray(JsonReader in, String key) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) return false;
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals(key) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                in.beginArray();
+                return true;
+            }
+            in.skipValue();
+        }
+        return false;
+    }
+
+    /** Consumes the rest of the document after the array from {@link #seekArray}. */
+    static void finish(JsonReader in) throws IOException {
+        in.endArray();
+        while (in.hasNext()) {
+            in.nextName();
+            in.skipValue();
+        }
+        in.endObject();
+    }
+
+    /** Reads a string, or a number/boolean as its text; null for JSON null. */
+    static String readString(JsonReader in) throws IOException {
+        JsonToken t = in.peek();
+        if (t == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (t == JsonToken.BOOLEAN) return Boolean.toString(in.nextBoolean());
+        if (t == JsonToken.STRING || t == JsonToken.NUMBER) return in.nextString();
+        in.skipValue();
+        return null;
+    }
+
+    /**
+     * Reads a scalar the way Gson's Map binding would: numbers as Double,
+     * booleans as Boolean, nested values as their JSON text.
+     */
+    static Object readValue(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NUMBER:
+                return in.nextDouble();
+            case STRING:
+                return in.nextString();
+            default:
+                return JsonParser.parseReader(in).toString();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+
+/**
+ * Server-Sent Events body reporting a layout run. Every frame carries a
+ * "progress" event; with deltas enabled a "positions" event follows, holding
+ * the nodes that moved more than the threshold since they were last sent.
+ * Positions are quantized to integer multiples of quantum: the first frame
+ * sends absolute values ("base": true) and later frames send [id, dx, dy]
+ * steps, so a client summing them reproduces x = qx * quantum without drift.
+ * The last positions event ignores the threshold, so the sums end at the
+ * final layout.
+ * The stream ends with a "done" event once the layout stops.
+ */
+final class LayoutEventStream extends InputStream {
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) { super(size); }
+        byte[] array() { return buf; }
+        void truncate(int size) { count = size; }
+    }
+
+    private final LayoutRun run;
+    private final long frameNanos;
+    private final boolean deltas;
+    private final double quantum;
+    private final long thresholdSteps;
+
+    private final Buffer buffer = new Buffer(16 * 1024);
+    private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+    private final Map<Node, long[]> sent = new IdentityHashMap<>();   // last sent {qx, qy, frame}
+    private long nextFrameAt = System.nanoTime();
+    private int frame;
+    private boolean ended;
+    private int readPos;
+
+    LayoutEventStream(LayoutRun run, int fps, boolean deltas, double threshold, double quantum) {
+        this.run = run;
+        this.frameNanos = 1_000_000_000L / Math.max(1, Math.min(60, fps));
+        this.deltas = deltas;
+        this.quantum = quantum > 0 ? quantum : 1;
+        this.thresholdSteps = Math.max(0, (long) Math.floor(threshold / this.quantum));
+    }
+
+    private boolean fill() throws IOException {
+        while (readPos >= buffer.size()) {
+            if (ended) return false;
+            long wait = nextFrameAt - System.nanoTime();
+            if (wait > 0) {
+                try { Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); }
+                catch (InterruptedException e) { throw new InterruptedIOException("Layout stream interrupted"); }
+            }
+            nextFrameAt = Math.max(nextFrameAt + frameNanos, System.nanoTime());
+            buffer.reset();
+            readPos = 0;
+            boolean finished = run.isFinished();
+            if (finished && deltas) writePositions(0);   // exact final positions before "done"
+            writeProgress(finished ? "done" : "progress");
+            if (!finished && deltas) writePositions(thresholdSteps);
+            writer.flush();
+            frame++;
+            ended = finished;
+        }
+        return true;
+    }
+
+    private void writeProgress(String event) throws IOException {
+        writer.write("event: " + event + "\ndata: ");
+        JsonWriter out = new JsonWriter(writer);
+        out.beginObject();
+        out.name("layout").value(run.name);
+        out.name("running").value(!run.isFinished());
+        out.name("iteration").value(run.iteration());
+        out.name("iterations").value(run.iterations);
+        out.name("elapsed_ms").value(run.elapsedMillis());
+        out.name("iterations_per_second").value(Math.round(run.iterationsPerSecond() * 10) / 10.0);
+        out.endObject();
+        out.flush();
+        writer.write("\n\n");
+    }
+
+    /** Sends the nodes that moved more than threshold quantum steps since they were last sent. */
+    private void writePositions(long threshold) throws IOException {
+        boolean base = frame == 0;
+        writer.flush();
+        int mark = buffer.size();
+        int moved = 0;
+        writer.write("event: positions\ndata: ");
+        JsonWriter out = new JsonWriter(writer);
+        out.beginObject();
+        out.name("frame").value(frame);
+        out.name("quantum").value(quantum);
+        if (base) out.name("base").value(true);
+        out.name("nodes").beginArray();
+        List<Node> added = null;
+        Graph g = run.graphModel.getGraphVisible();
+        GraphLocks.readLock(g);
+        try {
+            for (Node n : g.getNodes()) {
+                long qx = Math.round(n.x() / quantum);
+                long qy = Math.round(n.y() / quantum);
+                long[] last = sent.get(n);
+                if (last == null) {
+                    sent.put(n, new long[]{qx, qy, frame});
+                    if (base) {
+                        writeNode(out, n, qx, qy);
+                    } else {
+                        if (added == null) added = new ArrayList<>();
+                        added.add(n);
+                    }
+                    continue;
+                }
+                last[2] = frame;
+                long dx = qx - last[0], dy = qy - last[1];
+                if ((dx == 0 && dy == 0) || (Math.abs(dx) <= threshold && Math.abs(dy) <= threshold)) continue;
+                writeNode(out, n, dx, dy);
+                moved++;
+                last[0] = qx;
+                last[1] = qy;
+            }
+            out.endArray();
+            if (added != null) {
+                // Nodes that appeared mid-run are sent as absolute positions.
+                out.name("added").beginArray();
+                for (Node n : added) {
+                    long[] v = sent.get(n);
+                    writeNode(out, n, v[0], v[1]);
+                }
+                out.endArray();
+            }
+            if (sent.size() > g.getNodeCount()) sent.values().removeIf(v -> v[2] != frame);
+        } finally {
+            g.readUnlock();
+        }
+        out.endObject();
+        out.flush();
+        writer.write("\n\n");
+        if (!base && moved == 0 && added == null) {
+            writer.flush();
+            buffer.truncate(mark);   // nothing moved: skip the event
+        }
+    }
+
+    private static void writeNode(JsonWriter out, Node n, long a, long b) throws IOException {
+        out.beginArray();
+        out.value(n.getId().toString());
+        out.value(a);
+        out.value(b);
+        out.endArray();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) return -1;
+        return buffer.array()[readPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int n = Math.min(len, buffer.size() - readPos);
+        System.arraycopy(buffer.array(), readPos, b, off, n);
+        readPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer.size() - readPos;
+    }
+}
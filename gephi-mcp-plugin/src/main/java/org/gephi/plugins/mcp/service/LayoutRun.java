@@ -0,0 +1,57 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.JsonObject;
+import org.gephi.graph.api.GraphModel;
+
+/** Progress of one layout started by runLayout or setLayoutProperties; kept after it ends. */
+final class LayoutRun {
+
+    final String name;
+    final int iterations;
+    final GraphModel graphModel;
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile int iteration;
+
+    LayoutRun(String name, int iterations, GraphModel graphModel) {
+        this.name = name;
+        this.iterations = iterations;
+        this.graphModel = graphModel;
+    }
+
+    void iterationDone(int completed) {
+        iteration = completed;
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    boolean isFinished() {
+        return endNanos != 0;
+    }
+
+    int iteration() {
+        return iteration;
+    }
+
+    long elapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1_000_000;
+    }
+
+    double iterationsPerSecond() {
+        long ms = elapsedMillis();
+        return ms > 0 ? iteration * 1000.0 / ms : 0;
+    }
+
+    /** Adds layout, running, iteration, iterations, elapsed_ms and iterations_per_second to r. */
+    void describe(JsonObject r) {
+        r.addProperty("layout", name);
+        r.addProperty("running", !isFinished());
+        r.addProperty("iteration", iteration);
+        r.addProperty("iterations", iterations);
+        r.addProperty("elapsed_ms", elapsedMillis());
+        r.addProperty("iterations_per_second", Math.round(iterationsPerSecond() * 10) / 10.0);
+    }
+}
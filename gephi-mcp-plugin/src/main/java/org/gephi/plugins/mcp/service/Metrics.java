@@ -0,0 +1,249 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Process-wide counters, latency histograms and gauges, rendered in the
+ * Prometheus text exposition format at /metrics. Recording never blocks:
+ * counters are LongAdders and histogram buckets live in an AtomicLongArray.
+ */
+public final class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    /**
+     * Log-linear latency histogram in microseconds, in the style of HdrHistogram:
+     * each power of two is split into 8 sub-buckets (about 12% relative error),
+     * from 1 µs up to 2^40 µs (about 12 days). It is exported with power-of-two "le"
+     * bounds, which fall exactly on bucket edges, so no counts are smeared.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private static final int MAX_EXPONENT = 40;
+        private static final int LE_FROM = 6;     // first exported bound: 2^6 µs = 64 µs
+        private static final int LE_TO = 26;      // last exported bound: 2^26 µs ≈ 67 s
+
+        private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT - 1) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumMicros = new LongAdder();
+
+        public void recordNanos(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            buckets.incrementAndGet(index(micros));
+            count.increment();
+            sumMicros.add(micros);
+        }
+
+        private static int index(long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int exp = Math.min(63 - Long.numberOfLeadingZeros(v), MAX_EXPONENT);
+            int sub = (int) (v >>> (exp - 3)) & (SUB_BUCKETS - 1);
+            return (exp - 2) * SUB_BUCKETS + sub;
+        }
+
+        /** Index of the first bucket holding values >= 2^exp. */
+        private static int boundary(int exp) {
+            return (exp - 2) * SUB_BUCKETS;
+        }
+
+        void write(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            int next = 0;
+            for (int exp = LE_FROM; exp <= LE_TO; exp++) {
+                int end = boundary(exp);
+                for (; next < end; next++) cumulative += buckets.get(next);
+                sb.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                  .append("le=\"").append(seconds(1L << exp)).append("\"} ").append(cumulative).append('\n');
+            }
+            long total = count.sum();
+            sb.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+              .append("le=\"+Inf\"} ").append(total).append('\n');
+            sb.append(name).append("_sum").append(braces(labels)).append(' ').append(seconds(sumMicros.sum())).append('\n');
+            sb.append(name).append("_count").append(braces(labels)).append(' ').append(total).append('\n');
+        }
+
+        private static String seconds(long micros) {
+            return Double.toString(micros / 1_000_000.0);
+        }
+    }
+
+    /** Per-route request statistics; held by the route itself so recording needs no lookup. */
+    public static final class RouteStats {
+        private final String labels;
+        private final Histogram duration = new Histogram();
+        private final Map<Integer, LongAdder> byStatus = new ConcurrentHashMap<>();
+        private final LongAdder requestBytes = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+
+        private RouteStats(String method, String route) {
+            this.labels = "method=\"" + method + "\",route=\"" + escape(route) + "\"";
+        }
+
+        /** responseBytes is negative when the size is not known up front (streamed bodies). */
+        public void record(int status, long nanos, long requestBytes, long responseBytes) {
+            duration.recordNanos(nanos);
+            LongAdder c = byStatus.get(status);
+            if (c == null) c = byStatus.computeIfAbsent(status, s -> new LongAdder());
+            c.increment();
+            if (requestBytes > 0) this.requestBytes.add(requestBytes);
+            if (responseBytes > 0) this.responseBytes.add(responseBytes);
+        }
+    }
+
+    /** Wait times and rejections for one admission class (read, write, heavy). */
+    public static final class AdmissionStats {
+        private final String labels;
+        private final Histogram wait = new Histogram();
+        private final LongAdder rejected = new LongAdder();
+        private final IntSupplier active;
+        private final IntSupplier queued;
+
+        private AdmissionStats(String name, IntSupplier active, IntSupplier queued) {
+            this.labels = "class=\"" + escape(name) + "\"";
+            this.active = active;
+            this.queued = queued;
+        }
+
+        public void recordWait(long nanos) {
+            wait.recordNanos(nanos);
+        }
+
+        public void recordRejected() {
+            rejected.increment();
+        }
+    }
+
+    private static final class Gauge {
+        final String name;
+        final String help;
+        final DoubleSupplier value;
+
+        Gauge(String name, String help, DoubleSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final Map<String, RouteStats> routes = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Gauge> gauges = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<AdmissionStats> admission = new CopyOnWriteArrayList<>();
+    final Histogram readLockWait = new Histogram();
+    final Histogram writeLockWait = new Histogram();
+    final Histogram edtWait = new Histogram();
+    final Histogram edtTotal = new Histogram();
+
+    private Metrics() {}
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /** Stats for one method and route pattern, created on first use. */
+    public RouteStats route(String method, String route) {
+        return routes.computeIfAbsent(method + " " + route, k -> new RouteStats(method, route));
+    }
+
+    /** Stats for one admission class; active and queued are sampled at scrape time. */
+    public AdmissionStats admission(String name, IntSupplier active, IntSupplier queued) {
+        AdmissionStats stats = new AdmissionStats(name, active, queued);
+        admission.removeIf(a -> a.labels.equals(stats.labels));
+        admission.add(stats);
+        return stats;
+    }
+
+    /** Registers a gauge sampled at scrape time; a later gauge with the same name replaces it. */
+    public void gauge(String name, String help, DoubleSupplier value) {
+        gauges.removeIf(g -> g.name.equals(name));
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /** Prometheus text format, version 0.0.4. */
+    public String render() {
+        StringBuilder sb = new StringBuilder(16 * 1024);
+        List<RouteStats> used = new ArrayList<>();
+        for (RouteStats rs : routes.values()) {
+            if (rs.duration.count.sum() > 0) used.add(rs);   // skip routes never called
+        }
+
+        header(sb, "gephi_mcp_requests_total", "counter", "HTTP requests by route and status.");
+        for (RouteStats rs : used) {
+            for (Map.Entry<Integer, LongAdder> e : rs.byStatus.entrySet()) {
+                sb.append("gephi_mcp_requests_total{").append(rs.labels).append(",status=\"").append(e.getKey())
+                  .append("\"} ").append(e.getValue().sum()).append('\n');
+            }
+        }
+        header(sb, "gephi_mcp_request_duration_seconds", "histogram",
+            "Time from request dispatch until the response is ready; excludes streaming the body.");
+        for (RouteStats rs : used) rs.duration.write(sb, "gephi_mcp_request_duration_seconds", rs.labels);
+        header(sb, "gephi_mcp_request_bytes_total", "counter", "Request body bytes received.");
+        for (RouteStats rs : used) {
+            sb.append("gephi_mcp_request_bytes_total{").append(rs.labels).append("} ").append(rs.requestBytes.sum()).append('\n');
+        }
+        header(sb, "gephi_mcp_response_bytes_total", "counter", "Response body bytes sent, for fixed-length responses.");
+        for (RouteStats rs : used) {
+            sb.append("gephi_mcp_response_bytes_total{").append(rs.labels).append("} ").append(rs.responseBytes.sum()).append('\n');
+        }
+
+        header(sb, "gephi_mcp_graph_lock_wait_seconds", "histogram", "Time spent waiting to acquire the graph lock.");
+        readLockWait.write(sb, "gephi_mcp_graph_lock_wait_seconds", "mode=\"read\"");
+        writeLockWait.write(sb, "gephi_mcp_graph_lock_wait_seconds", "mode=\"write\"");
+        header(sb, "gephi_mcp_edt_wait_seconds", "histogram", "Time a runOnEDT task waited in the Swing event queue before starting.");
+        edtWait.write(sb, "gephi_mcp_edt_wait_seconds", "");
+        header(sb, "gephi_mcp_edt_seconds", "histogram", "Total runOnEDT time including the wait and the task itself.");
+        edtTotal.write(sb, "gephi_mcp_edt_seconds", "");
+
+        if (!admission.isEmpty()) {
+            header(sb, "gephi_mcp_admission_wait_seconds", "histogram", "Time admitted requests waited for a slot in their class.");
+            for (AdmissionStats a : admission) a.wait.write(sb, "gephi_mcp_admission_wait_seconds", a.labels);
+            header(sb, "gephi_mcp_admission_rejected_total", "counter", "Requests answered 429 because their class was saturated.");
+            for (AdmissionStats a : admission) {
+                sb.append("gephi_mcp_admission_rejected_total{").append(a.labels).append("} ").append(a.rejected.sum()).append('\n');
+            }
+            header(sb, "gephi_mcp_admission_active", "gauge", "Requests holding a slot in their class.");
+            for (AdmissionStats a : admission) {
+                sb.append("gephi_mcp_admission_active{").append(a.labels).append("} ").append(a.active.getAsInt()).append('\n');
+            }
+            header(sb, "gephi_mcp_admission_queued", "gauge", "Requests and jobs waiting for a slot in their class.");
+            for (AdmissionStats a : admission) {
+                sb.append("gephi_mcp_admission_queued{").append(a.labels).append("} ").append(a.queued.getAsInt()).append('\n');
+            }
+        }
+
+        for (Gauge g : gauges) {
+            header(sb, g.name, "gauge", g.help);
+            double v;
+            try { v = g.value.getAsDouble(); }
+            catch (RuntimeException e) { v = Double.NaN; }
+            sb.append(g.name).append(' ').append(format(v)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String format(double v) {
+        if (Double.isNaN(v)) return "NaN";
+        if (v == (long) v) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
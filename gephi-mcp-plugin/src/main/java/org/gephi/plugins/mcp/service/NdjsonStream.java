@@ -0,0 +1,104 @@
+package org.gephi.plugins.mcp.service;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import org.gephi.graph.api.Graph;
+
+/**
+ * Pull-based NDJSON body: one JSON record per line. Records are serialized in
+ * batches as the HTTP thread reads, and the graph read lock is only held while
+ * a batch is being written into the in-memory buffer, never while the socket
+ * is being written. Elements removed between batches are skipped.
+ */
+final class NdjsonStream<T> extends InputStream {
+
+    /** Writes one element as a single JSON value. */
+    @FunctionalInterface
+    interface RecordWriter<T> {
+        void write(JsonWriter out, T element) throws IOException;
+    }
+
+    /** Tells whether an element from the snapshot is still in the graph. */
+    @FunctionalInterface
+    interface Liveness<T> {
+        boolean contains(Graph g, T element);
+    }
+
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) { super(size); }
+        byte[] array() { return buf; }
+    }
+
+    private final Graph graph;
+    private final T[] elements;
+    private final int end;
+    private final int batchSize;
+    private final RecordWriter<T> recordWriter;
+    private final Liveness<T> liveness;
+
+    private final Buffer buffer = new Buffer(64 * 1024);
+    private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+    private final JsonWriter json = new JsonWriter(writer);
+    private int next;
+    private int readPos;
+
+    NdjsonStream(Graph graph, T[] elements, int start, int end, int batchSize,
+                 RecordWriter<T> recordWriter, Liveness<T> liveness) {
+        this.graph = graph;
+        this.elements = elements;
+        this.next = start;
+        this.end = end;
+        this.batchSize = Math.max(1, batchSize);
+        this.recordWriter = recordWriter;
+        this.liveness = liveness;
+        json.setLenient(true);   // NDJSON is a sequence of top-level values
+    }
+
+    private boolean fill() throws IOException {
+        while (readPos >= buffer.size()) {
+            if (next >= end) return false;
+            buffer.reset();
+            readPos = 0;
+            int stop = Math.min(end, next + batchSize);
+            GraphLocks.readLock(graph);
+            try {
+                for (; next < stop; next++) {
+                    T el = elements[next];
+                    if (!liveness.contains(graph, el)) continue;
+                    recordWriter.write(json, el);
+                    writer.write('\n');
+                }
+            } finally {
+                graph.readUnlock();
+            }
+            writer.flush();
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) return -1;
+        return buffer.array()[readPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!fill()) return -1;
+        int n = Math.min(len, buffer.size() - readPos);
+        System.arraycopy(buffer.array(), readPos, b, off, n);
+        readPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer.size() - readPos;
+    }
+}
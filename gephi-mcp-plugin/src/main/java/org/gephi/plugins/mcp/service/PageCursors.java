@@ -0,0 +1,195 @@
+package org.gephi.plugins.mcp.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.gephi.graph.api.Element;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+import org.gephi.project.api.Workspace;
+
+/**
+ * Cursor pagination for /graph/nodes and /graph/edges. The first page takes a
+ * snapshot of the listing ordered by store id; each cursor names that snapshot,
+ * the last store id returned and the graph version it was issued at, so the
+ * next page is a binary search plus page-size work instead of skipping offset
+ * elements. The most recent -Dgephi.mcp.cursor.snapshots snapshots are kept.
+ * A snapshot serves only the graph version it was taken at: a cursor whose
+ * snapshot was evicted, or whose graph changed since, resumes after its store
+ * id in a fresh one, so later pages list the graph as it is now.
+ */
+final class PageCursors {
+
+    /** One page of a listing. */
+    static final class Page<T extends Element> {
+        final T[] elements;
+        final int from, to;
+        final int total;
+        /** Cursor of the next page; null on the last page. */
+        final String next;
+        /** Whether the graph changed since the cursor was issued; the page may then miss or repeat elements. */
+        final boolean graphChanged;
+        /** Graph version the page lists. */
+        final long version;
+
+        Page(T[] elements, int from, int to, String next, boolean graphChanged, long version) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+            this.total = elements.length;
+            this.next = next;
+            this.graphChanged = graphChanged;
+            this.version = version;
+        }
+    }
+
+    private static final class Snapshot {
+        final Workspace workspace;
+        final long version;
+        final Element[] elements;
+        final int[] storeIds;
+
+        Snapshot(Workspace workspace, long version, Element[] elements, int[] storeIds) {
+            this.workspace = workspace;
+            this.version = version;
+            this.elements = elements;
+            this.storeIds = storeIds;
+        }
+    }
+
+    private final int maxSnapshots;
+    private final AtomicLong ids = new AtomicLong();
+    private final LinkedHashMap<Long, Snapshot> snapshots;
+
+    PageCursors(int maxSnapshots) {
+        this.maxSnapshots = Math.max(1, maxSnapshots);
+        this.snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+                return size() > PageCursors.this.maxSnapshots;
+            }
+        };
+    }
+
+    static PageCursors fromSystemProperties() {
+        return new PageCursors(Integer.getInteger("gephi.mcp.cursor.snapshots", 8));
+    }
+
+    /**
+     * The page after cursor ("" or "start" for the first page) of the listing
+     * that elements builds, whose kind and scope (e.g. the query) the cursor must
+     * match. Call under the graph read lock; throws IllegalArgumentException for a
+     * malformed cursor or one from another listing.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends Element> Page<T> page(Workspace ws, long version, String kind, String scope,
+                                      String cursor, int limit, Supplier<T[]> elements) {
+        long snapshotId = -1, issuedAt = version;
+        int after = Integer.MIN_VALUE;
+        if (!cursor.isEmpty() && !cursor.equals("start")) {
+            String[] parts = decode(cursor);
+            if (!parts[0].equals(kind) || !parts[4].equals(Integer.toHexString(scope.hashCode()))) {
+                throw new IllegalArgumentException("Cursor belongs to another listing");
+            }
+            try {
+                snapshotId = Long.parseLong(parts[1]);
+                issuedAt = Long.parseLong(parts[2]);
+                after = Integer.parseInt(parts[3]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        Snapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = snapshots.get(snapshotId);
+        }
+        if (snapshot == null || snapshot.workspace != ws || snapshot.version != version) {
+            snapshot = take(ws, version, elements.get());
+            long staleId = snapshotId;
+            snapshotId = ids.incrementAndGet();
+            synchronized (snapshots) {
+                snapshots.remove(staleId);
+                snapshots.put(snapshotId, snapshot);
+            }
+        }
+        int from = upperBound(snapshot.storeIds, after);
+        int to = (int) Math.min((long) from + Math.max(limit, 0), snapshot.elements.length);
+        String next = to < snapshot.elements.length && to > from
+            ? encode(kind, snapshotId, version, snapshot.storeIds[to - 1], scope)
+            : null;
+        return new Page<>((T[]) snapshot.elements, from, to, next, issuedAt != version, version);
+    }
+
+    /**
+     * g's nodes in the order of a cursor listing of version listedAt, for writes
+     * that address nodes by position. Throws IllegalArgumentException when nodes
+     * were added or removed after it (at nodeSetVersion): a new node may have
+     * taken a removed node's store id, and with it its place in the order.
+     */
+    static Node[] listingOrder(Graph g, long listedAt, long nodeSetVersion) {
+        if (nodeSetVersion > listedAt) {
+            throw new IllegalArgumentException("Nodes were added or removed after version " + listedAt
+                + "; pass 'ids' or fetch the id order again");
+        }
+        return byStoreId(g.getNodes().toArray());
+    }
+
+    /** elements ordered by store id, the order cursor listings use. */
+    @SuppressWarnings("unchecked")
+    static <T extends Element> T[] byStoreId(T[] elements) {
+        return (T[]) take(null, -1, elements).elements;
+    }
+
+    /**
+     * Orders elements by store id: packs (store id, position) into longs and sorts
+     * those, unless they already are in order, as graph iteration usually is.
+     */
+    private static Snapshot take(Workspace ws, long version, Element[] elements) {
+        int n = elements.length;
+        int[] storeIds = new int[n];
+        boolean ordered = true;
+        for (int i = 0; i < n; i++) {
+            storeIds[i] = elements[i].getStoreId();
+            if (i > 0 && storeIds[i] < storeIds[i - 1]) ordered = false;
+        }
+        if (ordered) return new Snapshot(ws, version, elements, storeIds);
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) packed[i] = ((long) storeIds[i] << 32) | i;
+        Arrays.sort(packed);
+        Element[] sorted = new Element[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = elements[(int) packed[i]];
+            storeIds[i] = (int) (packed[i] >> 32);
+        }
+        return new Snapshot(ws, version, Arrays.copyOf(sorted, n, elements.getClass()), storeIds);
+    }
+
+    /** First position whose store id is &gt; after. */
+    private static int upperBound(int[] storeIds, int after) {
+        int lo = 0, hi = storeIds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (storeIds[mid] <= after) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static String encode(String kind, long snapshotId, long version, int lastStoreId, String scope) {
+        String raw = kind + ":" + snapshotId + ":" + version + ":" + lastStoreId + ":" + Integer.toHexString(scope.hashCode());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decode(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length == 5) return parts;
+        } catch (IllegalArgumentException e) {
+            // not base64; reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor");
+    }
+}
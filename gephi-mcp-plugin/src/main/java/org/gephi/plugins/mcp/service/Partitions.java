@@ -0,0 +1,136 @@
+package org.gephi.plugins.mcp.service;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Table;
+import org.gephi.project.api.Workspace;
+
+/**
+ * Partition coloring support, kept in the workspace's lookup like
+ * {@link AttributeIndex}. {@link #encode} dictionary-encodes gathered attribute
+ * values into partition ids, in parallel segments merged in order so ids follow
+ * first occurrence. Auto-generated palettes are cached per column: a value keeps
+ * its color across calls and new values take the next palette colors.
+ */
+final class Partitions {
+
+    /** Arrays shorter than this are encoded as one segment. */
+    private static final int SEGMENT = 1 << 16;
+
+    /** A column's cached palette is started over once it would hold more values than this. */
+    private static final int MAX_CACHED_VALUES = 1 << 16;
+
+    private static final Color[] DEFAULT_PALETTE = {
+        new Color(31, 119, 180), new Color(255, 127, 14), new Color(44, 160, 44),
+        new Color(214, 39, 40), new Color(148, 103, 189), new Color(140, 86, 75),
+        new Color(227, 119, 194), new Color(127, 127, 127), new Color(188, 189, 34),
+        new Color(23, 190, 207), new Color(174, 199, 232), new Color(255, 187, 120)
+    };
+
+    /** Partition id per position (-1 for null) and the distinct values by id. */
+    static final class Encoded {
+        final int[] ids;
+        final Object[] values;
+
+        Encoded(int[] ids, Object[] values) {
+            this.ids = ids;
+            this.values = values;
+        }
+    }
+
+    private final Table table;
+    private final Map<Column, Map<Object, Color>> palettes = new HashMap<>();
+
+    private Partitions(Table table) {
+        this.table = table;
+    }
+
+    static Partitions of(Workspace ws, Table nodeTable) {
+        synchronized (ws) {
+            Partitions p = ws.getLookup().lookup(Partitions.class);
+            if (p == null) {
+                p = new Partitions(nodeTable);
+                ws.add(p);
+            }
+            return p;
+        }
+    }
+
+    /** Dictionary-encodes values, which must not change meanwhile. */
+    static Encoded encode(Object[] values) {
+        int n = values.length;
+        int[] ids = new int[n];
+        int segments = Math.max(1, (n + SEGMENT - 1) / SEGMENT);
+        List<List<Object>> local = new ArrayList<>(segments);
+        for (int s = 0; s < segments; s++) local.add(null);
+        // pass 1: ids local to each segment
+        IntStream.range(0, segments).parallel().forEach(s -> {
+            Map<Object, Integer> dict = new HashMap<>();
+            List<Object> distinct = new ArrayList<>();
+            for (int i = s * SEGMENT, end = Math.min(n, (s + 1) * SEGMENT); i < end; i++) {
+                Object v = values[i];
+                if (v == null) {
+                    ids[i] = -1;
+                    continue;
+                }
+                Integer id = dict.get(v);
+                if (id == null) {
+                    id = distinct.size();
+                    dict.put(v, id);
+                    distinct.add(v);
+                }
+                ids[i] = id;
+            }
+            local.set(s, distinct);
+        });
+        // merge the segment dictionaries in order, then map local ids to global ones
+        Map<Object, Integer> dict = new HashMap<>();
+        List<Object> distinct = new ArrayList<>();
+        int[][] remap = new int[segments][];
+        for (int s = 0; s < segments; s++) {
+            List<Object> seg = local.get(s);
+            remap[s] = new int[seg.size()];
+            for (int j = 0; j < seg.size(); j++) {
+                Object v = seg.get(j);
+                Integer id = dict.get(v);
+                if (id == null) {
+                    id = distinct.size();
+                    dict.put(v, id);
+                    distinct.add(v);
+                }
+                remap[s][j] = id;
+            }
+        }
+        IntStream.range(0, segments).parallel().forEach(s -> {
+            int[] r = remap[s];
+            for (int i = s * SEGMENT, end = Math.min(n, (s + 1) * SEGMENT); i < end; i++) {
+                if (ids[i] >= 0) ids[i] = r[ids[i]];
+            }
+        });
+        return new Encoded(ids, distinct.toArray());
+    }
+
+    /** Colors for distinct values of col by partition id, from its cached auto palette. */
+    synchronized Color[] autoPalette(Column col, Object[] distinct) {
+        palettes.keySet().removeIf(c -> table.getColumn(c.getId()) != c);   // removed columns
+        Map<Object, Color> palette = palettes.computeIfAbsent(col, c -> new HashMap<>());
+        int missing = 0;
+        for (Object v : distinct) if (!palette.containsKey(v)) missing++;
+        if (palette.size() + missing > MAX_CACHED_VALUES) palette.clear();
+        Color[] colors = new Color[distinct.length];
+        for (int i = 0; i < distinct.length; i++) {
+            Color c = palette.get(distinct[i]);
+            if (c == null) {
+                c = DEFAULT_PALETTE[palette.size() % DEFAULT_PALETTE.length];
+                palette.put(distinct[i], c);
+            }
+            colors[i] = c;
+        }
+        return colors;
+    }
+}
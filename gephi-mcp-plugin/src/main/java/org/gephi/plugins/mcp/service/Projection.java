@@ -0,0 +1,69 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which parts of each node or edge record a listing writes, from the
+ * fields=&lt;f1,f2,...&gt; and attributes=&lt;c1,c2,...&gt; query parameters.
+ * The record's identity (id, or source and target) is always written;
+ * "attributes" in fields, or an attributes= list, adds the attributes object.
+ * It is compiled once per response by {@link GraphJsonWriter#nodeWriter} and
+ * {@link GraphJsonWriter#edgeWriter}.
+ */
+public final class Projection {
+
+    /** Every field and every non-property column: the default record. */
+    public static final Projection ALL = new Projection(null, null);
+
+    /** Requested fields; null for all. */
+    final Set<String> fields;
+    /** Requested attribute columns; null for all non-property columns. */
+    final Set<String> attributes;
+
+    private Projection(Set<String> fields, Set<String> attributes) {
+        this.fields = fields;
+        this.attributes = attributes;
+    }
+
+    /** The projection in params, or {@link #ALL} when neither parameter is given. */
+    public static Projection fromParams(Map<String, String> params) {
+        String fields = params.get("fields");
+        String attributes = params.get("attributes");
+        if (fields == null && attributes == null) return ALL;
+        Set<String> f = fields != null ? split(fields) : null;
+        Set<String> a = attributes != null ? split(attributes) : null;
+        if (f != null && a != null && !a.isEmpty()) f.add("attributes");
+        return new Projection(f, a);
+    }
+
+    boolean includes(String field) {
+        return fields == null || fields.contains(field);
+    }
+
+    /** Whether records show positions, sizes or colors, which Gephi UI edits change without notice. */
+    public boolean includesVisual() {
+        return includes("x") || includes("y") || includes("size") || includes("color");
+    }
+
+    private static Set<String> split(String list) {
+        Set<String> out = new LinkedHashSet<>();
+        for (String s : list.split(",")) {
+            s = s.trim();
+            if (!s.isEmpty()) out.add(s);
+        }
+        return out;
+    }
+
+    /** Throws if fields names something outside known. */
+    void check(String... known) {
+        if (fields == null) return;
+        for (String f : fields) {
+            if (!Arrays.asList(known).contains(f)) {
+                throw new IllegalArgumentException("Unknown field '" + f + "'. Use: " + String.join(", ", known));
+            }
+        }
+    }
+}
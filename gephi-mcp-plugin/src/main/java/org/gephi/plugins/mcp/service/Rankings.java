@@ -0,0 +1,160 @@
+package org.gephi.plugins.mcp.service;
+
+import java.awt.Color;
+import java.util.stream.IntStream;
+
+/**
+ * Ranking appearance over a column's sorted keys (see
+ * {@link AttributeIndex.NumericSnapshot}): a scale maps every key to a position
+ * in [0, 1], and a gradient maps positions to colors. Both work on primitive
+ * arrays in parallel, so tweaking a scale or gradient costs one pass over the
+ * cached keys rather than a scan of the graph.
+ */
+final class Rankings {
+
+    enum Scale {
+        LINEAR, LOG, SQRT, QUANTILE, PERCENTILE;
+
+        /** linear, log, sqrt, quantile (alias rank), percentile; null if unknown. */
+        static Scale parse(String name) {
+            if (name == null) return LINEAR;
+            switch (name.toLowerCase()) {
+                case "linear": return LINEAR;
+                case "log": return LOG;
+                case "sqrt": return SQRT;
+                case "quantile": case "rank": return QUANTILE;
+                case "percentile": return PERCENTILE;
+                default: return null;
+            }
+        }
+    }
+
+    private Rankings() {}
+
+    /**
+     * Position in [0, 1] of each of keys, sorted ascending and NaN-free:
+     * <ul>
+     * <li>linear: (v - min) / (max - min)</li>
+     * <li>log: the same over ln v when every key is positive, else over ln(1 + v - min)</li>
+     * <li>sqrt: the same over sqrt(v - min)</li>
+     * <li>quantile: the key's rank, ties sharing their mean rank</li>
+     * <li>percentile: linear between the keys at the low and high percentiles,
+     * clamped outside them, so a few outliers do not flatten the rest</li>
+     * </ul>
+     * A key range of zero maps everything to 0.
+     */
+    static double[] positions(double[] keys, Scale scale, double lowPercentile, double highPercentile) {
+        int n = keys.length;
+        double[] t = new double[n];
+        if (n == 0) return t;
+        double min = keys[0], max = keys[n - 1];
+        if (scale == Scale.QUANTILE) {
+            if (n == 1) return t;
+            IntStream.range(0, n).parallel().forEach(i -> {
+                if (i > 0 && keys[i - 1] == keys[i]) return;   // filled by the start of its run
+                int end = i + 1;
+                while (end < n && keys[end] == keys[i]) end++;
+                double rank = (i + end - 1) / 2.0 / (n - 1);
+                for (int j = i; j < end; j++) t[j] = rank;
+            });
+            return t;
+        }
+        double lo, hi;
+        switch (scale) {
+            case LOG:
+                if (min > 0) {
+                    lo = Math.log(min);
+                    hi = Math.log(max);
+                } else {
+                    lo = 0;
+                    hi = Math.log1p(max - min);
+                }
+                break;
+            case SQRT:
+                lo = 0;
+                hi = Math.sqrt(max - min);
+                break;
+            case PERCENTILE:
+                lo = keys[percentileIndex(n, lowPercentile)];
+                hi = keys[percentileIndex(n, highPercentile)];
+                break;
+            default:
+                lo = min;
+                hi = max;
+        }
+        double range = hi - lo;
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double v = keys[i], f;
+            switch (scale) {
+                case LOG: f = min > 0 ? Math.log(v) : Math.log1p(v - min); break;
+                case SQRT: f = Math.sqrt(v - min); break;
+                default: f = v;
+            }
+            t[i] = range > 0 ? Math.max(0, Math.min(1, (f - lo) / range)) : f > hi ? 1 : 0;
+        });
+        return t;
+    }
+
+    private static int percentileIndex(int n, double percentile) {
+        double p = Math.max(0, Math.min(100, percentile));
+        return (int) Math.round(p / 100 * (n - 1));
+    }
+
+    /**
+     * A color gradient through stops: colors[i] at position at[i], at ascending
+     * within [0, 1]; with at null the stops are spaced evenly.
+     */
+    static final class Gradient {
+        private final double[] at;
+        private final int[][] argb;
+
+        Gradient(double[] at, int[][] colors) {
+            if (colors == null || colors.length == 0) throw new IllegalArgumentException("A gradient needs at least one color");
+            int n = colors.length;
+            if (at == null) {
+                at = new double[n];
+                for (int i = 0; i < n; i++) at[i] = n == 1 ? 0 : (double) i / (n - 1);
+            } else if (at.length != n) {
+                throw new IllegalArgumentException("Every stop needs a position");
+            }
+            this.argb = new int[n][];
+            for (int i = 0; i < n; i++) {
+                if (at[i] < 0 || at[i] > 1 || (i > 0 && at[i] < at[i - 1])) {
+                    throw new IllegalArgumentException("Stop positions must be ascending within 0..1");
+                }
+                int[] c = colors[i];
+                argb[i] = new int[] {c.length > 3 ? c[3] : 255, c[0], c[1], c[2]};
+            }
+            this.at = at;
+        }
+
+        /** The packed ARGB color at position t. */
+        int argb(double t) {
+            int last = at.length - 1;
+            if (t <= at[0]) return pack(argb[0], argb[0], 0);
+            if (t >= at[last]) return pack(argb[last], argb[last], 0);
+            int j = 0;
+            while (at[j + 1] < t) j++;
+            double width = at[j + 1] - at[j];
+            return pack(argb[j], argb[j + 1], width > 0 ? (t - at[j]) / width : 1);
+        }
+
+        /** The color of every position of t, in parallel. */
+        int[] argb(double[] t) {
+            int[] out = new int[t.length];
+            IntStream.range(0, t.length).parallel().forEach(i -> out[i] = argb(t[i]));
+            return out;
+        }
+
+        /** a and b (alpha, red, green, blue) mixed at f, packed like {@link Color#getRGB}. */
+        private static int pack(int[] a, int[] b, double f) {
+            int packed = 0;
+            for (int k = 0; k < 4; k++) packed = (packed << 8) | clamp((int) (a[k] + f * (b[k] - a[k])));
+            return packed;
+        }
+
+        private static int clamp(int v) {
+            return Math.max(0, Math.min(255, v));
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+
+/**
+ * Static 2-d tree over node positions, packed into parallel arrays: each range
+ * is split at its median on alternating axes, so the tree needs no node objects
+ * and a build is one O(n log n) pass of in-place selection. Box, radius and
+ * nearest-neighbour queries prune whole ranges by their split planes.
+ * {@link #scan} copies the positions without building a tree: its queries
+ * treat every node as one leaf, for positions that may not stay.
+ * <p>
+ * Node positions have no observer, and the Gephi UI moves nodes (drags, layouts
+ * run there) without telling the API, so {@link #refresh} compares every indexed
+ * position with the node's own before an index is reused: one pass of field
+ * reads, no allocation while nothing moved. A few moved nodes are patched in
+ * rather than rebuilt: their tree slots are skipped and their new positions
+ * scanned next to the tree. Instances are immutable; a patch shares the tree's
+ * arrays. See {@link GephiControlService} for when one is rebuilt.
+ */
+final class SpatialIndex {
+
+    /** Ranges this small are scanned instead of split. */
+    private static final int LEAF = 8;
+
+    final long version;
+    private final Node[] nodes;
+    private final float[] xs, ys;
+    /** Ranges this small are scanned: {@link #LEAF}, or every node when there is no tree. */
+    private final int leaf;
+    /** Slots of nodes that moved since the build, ascending, with their current positions; null for none. */
+    private final BitSet displaced;
+    private final int[] movedSlots;
+    private final float[] movedXs, movedYs;
+
+    /** A hit of a radius or nearest-neighbour query. */
+    static final class Hit {
+        final Node node;
+        final double distance;
+
+        Hit(Node node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+
+    private SpatialIndex(long version, Node[] nodes, float[] xs, float[] ys, int leaf) {
+        this(version, nodes, xs, ys, leaf, null, new int[0], new float[0], new float[0]);
+    }
+
+    private SpatialIndex(long version, Node[] nodes, float[] xs, float[] ys, int leaf,
+                         BitSet displaced, int[] movedSlots, float[] movedXs, float[] movedYs) {
+        this.version = version;
+        this.nodes = nodes;
+        this.xs = xs;
+        this.ys = ys;
+        this.leaf = leaf;
+        this.displaced = displaced;
+        this.movedSlots = movedSlots;
+        this.movedXs = movedXs;
+        this.movedYs = movedYs;
+    }
+
+    /** Indexes g's nodes at their current positions. Call under the graph read lock. */
+    static SpatialIndex build(Graph g, long version) {
+        SpatialIndex index = copy(g, version, LEAF);
+        index.split(0, index.nodes.length, 0);
+        return index;
+    }
+
+    /** g's nodes at their current positions, queried by linear scan. Call under the graph read lock. */
+    static SpatialIndex scan(Graph g, long version) {
+        return copy(g, version, Integer.MAX_VALUE);
+    }
+
+    private static SpatialIndex copy(Graph g, long version, int leaf) {
+        Node[] nodes = g.getNodes().toArray();
+        int n = nodes.length;
+        float[] xs = new float[n], ys = new float[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = nodes[i].x();
+            ys[i] = nodes[i].y();
+        }
+        return new SpatialIndex(version, nodes, xs, ys, leaf);
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    /** Whether this is a {@link #scan}, without a tree. */
+    boolean isScan() {
+        return leaf == Integer.MAX_VALUE;
+    }
+
+    // ─── Refresh ────────────────────────────────────────────────────
+
+    /**
+     * This index for the nodes' current positions: itself when none moved, a
+     * patch when at most size / 64 nodes moved since the tree was built, and null
+     * when more did, or any did in a scan. Call under the graph read lock, with
+     * the node set unchanged since the build.
+     */
+    SpatialIndex refresh() {
+        if (!moved()) return this;
+        if (isScan()) return null;
+        int limit = Math.max(LEAF, nodes.length / 64), count = 0;
+        int[] slots = new int[Math.min(limit, 16)];
+        float[] px = new float[slots.length], py = new float[slots.length];
+        for (int i = 0; i < nodes.length; i++) {
+            float x = nodes[i].x(), y = nodes[i].y();
+            if (same(x, xs[i]) && same(y, ys[i])) continue;
+            if (count == limit) return null;
+            if (count == slots.length) {
+                int size = Math.min(limit, count * 2);
+                slots = Arrays.copyOf(slots, size);
+                px = Arrays.copyOf(px, size);
+                py = Arrays.copyOf(py, size);
+            }
+            slots[count] = i;
+            px[count] = x;
+            py[count++] = y;
+        }
+        BitSet skip = new BitSet(nodes.length);
+        for (int k = 0; k < count; k++) skip.set(slots[k]);
+        return new SpatialIndex(version, nodes, xs, ys, leaf, skip,
+            Arrays.copyOf(slots, count), Arrays.copyOf(px, count), Arrays.copyOf(py, count));
+    }
+
+    /** Whether a node is away from where this index has it. */
+    private boolean moved() {
+        int k = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            float ex = xs[i], ey = ys[i];
+            if (k < movedSlots.length && movedSlots[k] == i) {
+                ex = movedXs[k];
+                ey = movedYs[k++];
+            }
+            if (!same(nodes[i].x(), ex) || !same(nodes[i].y(), ey)) return true;
+        }
+        return false;
+    }
+
+    private static boolean same(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    private boolean skipped(int slot) {
+        return displaced != null && displaced.get(slot);
+    }
+
+    // ─── Build ──────────────────────────────────────────────────────
+
+    private void split(int lo, int hi, int axis) {
+        while (hi - lo > LEAF) {
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi, mid, axis == 0 ? xs : ys);
+            split(lo, mid, axis ^ 1);
+            lo = mid + 1;
+            axis ^= 1;
+        }
+    }
+
+    /** Quickselect: puts the k-th smallest key of [lo, hi) at k, smaller keys before it. */
+    private void select(int lo, int hi, int k, float[] keys) {
+        hi--;
+        while (hi > lo) {
+            float pivot = keys[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            if (k <= j) hi = j;
+            else if (k >= i) lo = i;
+            else return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Node n = nodes[i]; nodes[i] = nodes[j]; nodes[j] = n;
+        float x = xs[i]; xs[i] = xs[j]; xs[j] = x;
+        float y = ys[i]; ys[i] = ys[j]; ys[j] = y;
+    }
+
+    // ─── Queries ────────────────────────────────────────────────────
+
+    /** Nodes with minX &lt;= x &lt;= maxX and minY &lt;= y &lt;= maxY, in no particular order. */
+    List<Node> box(double minX, double minY, double maxX, double maxY) {
+        List<Node> out = new ArrayList<>();
+        box(0, nodes.length, 0, minX, minY, maxX, maxY, out);
+        for (int k = 0; k < movedSlots.length; k++) {
+            if (inBox(movedXs[k], movedYs[k], minX, minY, maxX, maxY)) out.add(nodes[movedSlots[k]]);
+        }
+        return out;
+    }
+
+    private static boolean inBox(float x, float y, double minX, double minY, double maxX, double maxY) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    private void box(int lo, int hi, int axis, double minX, double minY, double maxX, double maxY, List<Node> out) {
+        if (hi - lo <= leaf) {
+            for (int i = lo; i < hi; i++) {
+                if (!skipped(i) && inBox(xs[i], ys[i], minX, minY, maxX, maxY)) out.add(nodes[i]);
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!skipped(mid) && inBox(xs[mid], ys[mid], minX, minY, maxX, maxY)) out.add(nodes[mid]);
+        double split = axis == 0 ? xs[mid] : ys[mid];
+        if ((axis == 0 ? minX : minY) <= split) box(lo, mid, axis ^ 1, minX, minY, maxX, maxY, out);
+        if ((axis == 0 ? maxX : maxY) >= split) box(mid + 1, hi, axis ^ 1, minX, minY, maxX, maxY, out);
+    }
+
+    /** Nodes within radius of (x, y), nearest first, excluding exclude. */
+    List<Hit> radius(double x, double y, double radius, Node exclude) {
+        List<Hit> out = new ArrayList<>();
+        radius(0, nodes.length, 0, x, y, radius, radius * radius, exclude, out);
+        for (int k = 0; k < movedSlots.length; k++) {
+            collect(movedSlots[k], movedXs[k], movedYs[k], x, y, radius * radius, exclude, out);
+        }
+        out.sort((a, b) -> Double.compare(a.distance, b.distance));
+        return out;
+    }
+
+    private void radius(int lo, int hi, int axis, double x, double y, double r, double r2, Node exclude, List<Hit> out) {
+        if (hi - lo <= leaf) {
+            for (int i = lo; i < hi; i++) {
+                if (!skipped(i)) collect(i, xs[i], ys[i], x, y, r2, exclude, out);
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!skipped(mid)) collect(mid, xs[mid], ys[mid], x, y, r2, exclude, out);
+        double d = (axis == 0 ? x - xs[mid] : y - ys[mid]);
+        if (d - r <= 0) radius(lo, mid, axis ^ 1, x, y, r, r2, exclude, out);
+        if (d + r >= 0) radius(mid + 1, hi, axis ^ 1, x, y, r, r2, exclude, out);
+    }
+
+    private void collect(int i, float px, float py, double x, double y, double r2, Node exclude, List<Hit> out) {
+        double dx = px - x, dy = py - y, d2 = dx * dx + dy * dy;
+        if (d2 <= r2 && nodes[i] != exclude) out.add(new Hit(nodes[i], Math.sqrt(d2)));
+    }
+
+    /** The k nodes nearest to (x, y), nearest first, excluding exclude. */
+    List<Hit> nearest(double x, double y, int k, Node exclude) {
+        if (k <= 0) return new ArrayList<>();
+        // max-heap on squared distance: the root is the farthest of the best k so far
+        PriorityQueue<double[]> best = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+        for (int m = 0; m < movedSlots.length; m++) {
+            offer(movedSlots[m], movedXs[m], movedYs[m], x, y, k, exclude, best);
+        }
+        nearest(0, nodes.length, 0, x, y, k, exclude, best);
+        List<Hit> out = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            double[] e = best.poll();
+            out.add(0, new Hit(nodes[(int) e[1]], Math.sqrt(e[0])));
+        }
+        return out;
+    }
+
+    private void nearest(int lo, int hi, int axis, double x, double y, int k, Node exclude, PriorityQueue<double[]> best) {
+        if (hi - lo <= leaf) {
+            for (int i = lo; i < hi; i++) {
+                if (!skipped(i)) offer(i, xs[i], ys[i], x, y, k, exclude, best);
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (!skipped(mid)) offer(mid, xs[mid], ys[mid], x, y, k, exclude, best);
+        double d = (axis == 0 ? x - xs[mid] : y - ys[mid]);
+        boolean leftFirst = d <= 0;
+        if (leftFirst) nearest(lo, mid, axis ^ 1, x, y, k, exclude, best);
+        else nearest(mid + 1, hi, axis ^ 1, x, y, k, exclude, best);
+        if (best.size() < k || d * d <= best.peek()[0]) {   // the other side may still hold something closer
+            if (leftFirst) nearest(mid + 1, hi, axis ^ 1, x, y, k, exclude, best);
+            else nearest(lo, mid, axis ^ 1, x, y, k, exclude, best);
+        }
+    }
+
+    private void offer(int i, float px, float py, double x, double y, int k, Node exclude,
+                       PriorityQueue<double[]> best) {
+        if (nodes[i] == exclude) return;
+        double dx = px - x, dy = py - y, d2 = dx * dx + dy * dy;
+        if (best.size() < k) {
+            best.add(new double[] {d2, i});
+        } else if (d2 < best.peek()[0]) {
+            best.poll();
+            best.add(new double[] {d2, i});
+        }
+    }
+}
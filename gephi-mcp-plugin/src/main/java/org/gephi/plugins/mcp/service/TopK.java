@@ -0,0 +1,99 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Top-k selection over a key array: a bounded heap of k positions per segment,
+ * segments scanned in parallel once the array is large and k small next to a
+ * segment, then the per-segment winners merged through one more bounded heap.
+ * A k near the array length takes a single heap over everything, which is a
+ * heapsort. Works on gathered keys only, so the graph is never touched off the
+ * thread that holds its read lock. NaN keys are never selected; ties go to the
+ * lower position.
+ */
+final class TopK {
+
+    /** Arrays shorter than this are scanned as one segment. */
+    private static final int SEGMENT = 1 << 16;
+
+    private TopK() {}
+
+    /** Positions of the k largest keys (smallest when ascending), best first. */
+    static int[] select(double[] keys, int k, boolean ascending) {
+        int n = keys.length;
+        k = Math.min(k, n);
+        if (k <= 0) return new int[0];
+        int[] heap = new int[k];
+        int size = 0;
+        int segments = (n + SEGMENT - 1) / SEGMENT;
+        if (segments == 1 || k > SEGMENT / 16) {
+            for (int i = 0; i < n; i++) size = offer(keys, heap, size, i, ascending);
+        } else {
+            int kk = k;
+            int[][] winners = new int[segments][];
+            IntStream.range(0, segments).parallel().forEach(s -> {
+                int from = s * SEGMENT, to = Math.min(n, from + SEGMENT);
+                int[] best = new int[Math.min(kk, to - from)];
+                int found = 0;
+                for (int i = from; i < to; i++) found = offer(keys, best, found, i, ascending);
+                winners[s] = found == best.length ? best : Arrays.copyOf(best, found);
+            });
+            for (int[] w : winners) for (int i : w) size = offer(keys, heap, size, i, ascending);
+        }
+        // pop the worst off the heap into the back of the result
+        int[] out = new int[size];
+        while (size > 0) {
+            out[--size] = heap[0];
+            heap[0] = heap[size];
+            down(keys, heap, size, ascending);
+        }
+        return out;
+    }
+
+    /**
+     * Offers position i to a bounded heap of the best heap.length positions,
+     * heap[0] the worst of them, and returns its new size.
+     */
+    private static int offer(double[] keys, int[] heap, int size, int i, boolean ascending) {
+        if (Double.isNaN(keys[i])) return size;
+        if (size < heap.length) {
+            heap[size] = i;
+            up(keys, heap, size, ascending);
+            return size + 1;
+        }
+        if (better(keys, i, heap[0], ascending)) {
+            heap[0] = i;
+            down(keys, heap, size, ascending);
+        }
+        return size;
+    }
+
+    /** Whether position a ranks before position b. */
+    private static boolean better(double[] keys, int a, int b, boolean ascending) {
+        int c = Double.compare(keys[a], keys[b]);
+        if (c == 0) return a < b;
+        return ascending ? c < 0 : c > 0;
+    }
+
+    private static void up(double[] keys, int[] heap, int i, boolean ascending) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(keys, heap[parent], heap[i], ascending)) break;
+            int t = heap[i]; heap[i] = heap[parent]; heap[parent] = t;
+            i = parent;
+        }
+    }
+
+    private static void down(double[] keys, int[] heap, int size, boolean ascending) {
+        int i = 0;
+        while (true) {
+            int worst = i, l = 2 * i + 1, r = l + 1;
+            if (l < size && better(keys, heap[worst], heap[l], ascending)) worst = l;
+            if (r < size && better(keys, heap[worst], heap[r], ascending)) worst = r;
+            if (worst == i) return;
+            int t = heap[i]; heap[i] = heap[worst]; heap[worst] = t;
+            i = worst;
+        }
+    }
+}
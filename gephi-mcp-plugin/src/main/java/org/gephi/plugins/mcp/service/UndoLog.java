@@ -0,0 +1,235 @@
+package org.gephi.plugins.mcp.service;
+
+import java.awt.Color;
+import java.util.Arrays;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Element;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.Table;
+
+/**
+ * Before-images of the changes made by the lock-scoped service methods while a
+ * transaction is open on this thread, so {@link GephiControlService#runTransaction}
+ * can undo them before releasing the write lock. Records are kept in parallel
+ * arrays: a kind, the element, a reference (old label, color or column) or value,
+ * and a primitive packed into a long (position, size, weight). The static
+ * recording methods do nothing when no transaction is open.
+ */
+final class UndoLog {
+
+    private static final ThreadLocal<UndoLog> CURRENT = new ThreadLocal<>();
+
+    private static final byte LABEL = 0, POSITION = 1, COLOR = 2, SIZE = 3, WEIGHT = 4, ATTRIBUTE = 5,
+        NODE_ADDED = 6, EDGE_ADDED = 7, NODE_REMOVED = 8, EDGE_REMOVED = 9, COLUMN_ADDED = 10;
+
+    private byte[] kinds = new byte[64];
+    private Object[] elements = new Object[64];
+    private Object[] refs = new Object[64];
+    private Object[] values = new Object[64];
+    private long[] bits = new long[64];
+    private int size;
+
+    private UndoLog() {}
+
+    /** Opens a transaction on this thread; close it with {@link #end}. */
+    static UndoLog begin() {
+        if (CURRENT.get() != null) throw new IllegalStateException("A transaction is already open");
+        UndoLog log = new UndoLog();
+        CURRENT.set(log);
+        return log;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    int size() {
+        return size;
+    }
+
+    // ─── Recording: call before the change ──────────────────────────
+
+    static void label(Element e) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(LABEL, e, e.getLabel(), null, 0);
+    }
+
+    static void position(Node n) {
+        UndoLog log = CURRENT.get();
+        if (log != null) {
+            log.add(POSITION, n, null, null,
+                ((long) Float.floatToRawIntBits(n.x()) << 32) | (Float.floatToRawIntBits(n.y()) & 0xffffffffL));
+        }
+    }
+
+    static void color(Node n) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(COLOR, n, n.getColor(), null, 0);
+    }
+
+    static void size(Node n) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(SIZE, n, null, null, Float.floatToRawIntBits(n.size()));
+    }
+
+    static void weight(Edge e) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(WEIGHT, e, null, null, Double.doubleToRawLongBits(e.getWeight()));
+    }
+
+    static void attribute(Element e, Column col) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(ATTRIBUTE, e, col, e.getAttribute(col), 0);
+    }
+
+    /** Before g.removeNode(n): its edges go with it, so they are recorded first. */
+    static void nodeRemoved(Graph g, Node n) {
+        UndoLog log = CURRENT.get();
+        if (log == null) return;
+        for (Edge e : g.getEdges(n).toArray()) log.removed(EDGE_REMOVED, e);
+        log.removed(NODE_REMOVED, n);
+    }
+
+    /** Before g.removeEdge(e). */
+    static void edgeRemoved(Edge e) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.removed(EDGE_REMOVED, e);
+    }
+
+    /** Before g.clear(). */
+    static void cleared(Graph g) {
+        UndoLog log = CURRENT.get();
+        if (log == null) return;
+        for (Edge e : g.getEdges().toArray()) log.removed(EDGE_REMOVED, e);
+        for (Node n : g.getNodes().toArray()) log.removed(NODE_REMOVED, n);
+    }
+
+    // ─── Recording: call after the change ───────────────────────────
+
+    static void nodeAdded(Node n) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(NODE_ADDED, n, null, null, 0);
+    }
+
+    static void edgeAdded(Edge e) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(EDGE_ADDED, e, null, null, 0);
+    }
+
+    static void columnAdded(Table table, Column col) {
+        UndoLog log = CURRENT.get();
+        if (log != null) log.add(COLUMN_ADDED, col, null, table, 0);
+    }
+
+    /**
+     * A removed element's label, weight and attribute values, which the graph
+     * store may drop with it; position, size and color stay on the object.
+     */
+    private void removed(byte kind, Element e) {
+        Column[] columns = Arrays.stream(e.getTable().toArray())
+            .filter(c -> !c.isProperty() || c.getId().equals("label") || c.getId().equals("weight"))
+            .toArray(Column[]::new);
+        Object[] before = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) before[i] = e.getAttribute(columns[i]);
+        add(kind, e, columns, before, e instanceof Edge ? Double.doubleToRawLongBits(((Edge) e).getWeight()) : 0);
+    }
+
+    private void add(byte kind, Object element, Object ref, Object value, long primitive) {
+        if (size == kinds.length) {
+            int n = size * 2;
+            kinds = Arrays.copyOf(kinds, n);
+            elements = Arrays.copyOf(elements, n);
+            refs = Arrays.copyOf(refs, n);
+            values = Arrays.copyOf(values, n);
+            bits = Arrays.copyOf(bits, n);
+        }
+        kinds[size] = kind;
+        elements[size] = element;
+        refs[size] = ref;
+        values[size] = value;
+        bits[size++] = primitive;
+    }
+
+    // ─── Rollback ───────────────────────────────────────────────────
+
+    /**
+     * Restores every before-image, newest first. Call under the write lock of g.
+     * Images of elements that are no longer in the graph at that point (e.g. set
+     * on a node before it was added) are skipped.
+     */
+    void rollback(Graph g) {
+        for (int i = size - 1; i >= 0; i--) {
+            Object el = elements[i];
+            switch (kinds[i]) {
+                case NODE_ADDED:
+                    if (g.contains((Node) el)) g.removeNode((Node) el);
+                    break;
+                case EDGE_ADDED:
+                    if (g.contains((Edge) el)) g.removeEdge((Edge) el);
+                    break;
+                case NODE_REMOVED:
+                    if (!g.contains((Node) el)) {
+                        g.addNode((Node) el);
+                        restore((Element) el, (Column[]) refs[i], (Object[]) values[i]);
+                    }
+                    break;
+                case EDGE_REMOVED: {
+                    Edge e = (Edge) el;
+                    if (!g.contains(e) && g.contains(e.getSource()) && g.contains(e.getTarget())) {
+                        g.addEdge(e);
+                        restore(e, (Column[]) refs[i], (Object[]) values[i]);
+                        e.setWeight(Double.longBitsToDouble(bits[i]));
+                    }
+                    break;
+                }
+                case COLUMN_ADDED: {
+                    Column col = (Column) el;
+                    Table table = (Table) values[i];
+                    if (table.getColumn(col.getId()) == col) table.removeColumn(col);
+                    break;
+                }
+                default:
+                    if (el instanceof Node ? g.contains((Node) el) : g.contains((Edge) el)) restoreValue(i);
+            }
+        }
+        size = 0;
+    }
+
+    private void restoreValue(int i) {
+        Object el = elements[i];
+        switch (kinds[i]) {
+            case LABEL:
+                ((Element) el).setLabel((String) refs[i]);
+                break;
+            case POSITION:
+                ((Node) el).setX(Float.intBitsToFloat((int) (bits[i] >>> 32)));
+                ((Node) el).setY(Float.intBitsToFloat((int) bits[i]));
+                break;
+            case COLOR:
+                ((Node) el).setColor((Color) refs[i]);
+                break;
+            case SIZE:
+                ((Node) el).setSize(Float.intBitsToFloat((int) bits[i]));
+                break;
+            case WEIGHT:
+                ((Edge) el).setWeight(Double.longBitsToDouble(bits[i]));
+                break;
+            case ATTRIBUTE: {
+                Column col = (Column) refs[i];
+                if (col.getTable().getColumn(col.getId()) == col) ((Element) el).setAttribute(col, values[i]);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown undo record " + kinds[i]);
+        }
+    }
+
+    private static void restore(Element e, Column[] columns, Object[] before) {
+        for (int i = 0; i < columns.length; i++) {
+            Column col = columns[i];
+            if (col.getTable().getColumn(col.getId()) == col) e.setAttribute(col, before[i]);
+        }
+    }
+}
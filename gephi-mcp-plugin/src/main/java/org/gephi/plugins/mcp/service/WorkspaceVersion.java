@@ -0,0 +1,172 @@
+package org.gephi.plugins.mcp.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.ColumnObserver;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.GraphObserver;
+import org.gephi.graph.api.Table;
+import org.gephi.graph.api.TableObserver;
+import org.gephi.project.api.Workspace;
+
+/**
+ * Modification version of one workspace, kept in the workspace's lookup so it
+ * lives and dies with it. Versions come from one process-wide sequence, so two
+ * workspaces (or two projects) never share a value. The version moves when the
+ * API reports a change through {@link #bump} and when a graph observer sees
+ * nodes or edges added or removed from elsewhere, e.g. the Gephi UI, or column
+ * and table observers see attribute values edited or columns added or removed
+ * there. Such an edit is logged as an update of all nodes or all edges, since the
+ * observers do not say which element changed. Positions, colors and sizes are not
+ * columns and are not tracked. Each move publishes the pending records of the
+ * workspace's {@link ChangeLog}, with the observer's diff, under the new version.
+ */
+final class WorkspaceVersion {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Graph graph;
+    private final GraphObserver observer;
+    private final Values nodeValues;
+    private final Values edgeValues;
+    private long version = SEQUENCE.incrementAndGet();
+    private long nodes = version;
+    private final ChangeLog changes = new ChangeLog(ChangeLog.capacityFromSystemProperties(), version);
+
+    WorkspaceVersion(GraphModel graphModel) {
+        this.graph = graphModel.getGraph();
+        this.observer = graphModel.createGraphObserver(graph, true);
+        this.nodeValues = new Values(graphModel.getNodeTable());
+        this.edgeValues = new Values(graphModel.getEdgeTable());
+    }
+
+    static WorkspaceVersion of(Workspace ws, GraphModel graphModel) {
+        synchronized (ws) {
+            WorkspaceVersion v = ws.getLookup().lookup(WorkspaceVersion.class);
+            if (v == null) {
+                v = new WorkspaceVersion(graphModel);
+                ws.add(v);
+            }
+            return v;
+        }
+    }
+
+    ChangeLog changes() {
+        return changes;
+    }
+
+    // The graph read lock is taken before this object's monitor, the same order as
+    // callers that already hold it, since reading the diff may need the lock.
+
+    long current() {
+        GraphLocks.readLock(graph);
+        try {
+            synchronized (this) {
+                boolean structural = observer.hasGraphChanged();
+                boolean nodes = nodeValues.changed();
+                boolean edges = edgeValues.changed();
+                if (nodes) changes.allNodes("attributes");
+                if (edges) changes.allEdges("attributes");
+                if (structural || nodes || edges) advance(structural);
+                return version;
+            }
+        } finally { graph.readUnlock(); }
+    }
+
+    /** The version at which a node was last added or removed, from here or the Gephi UI. */
+    long nodes() {
+        current();
+        synchronized (this) {
+            return nodes;
+        }
+    }
+
+    /**
+     * Opens a transaction under the graph write lock: publishes what changed so
+     * far and returns the change log position {@link #rollback} goes back to.
+     */
+    long begin() {
+        current();
+        return changes.mark();
+    }
+
+    /**
+     * Forgets the changes made since {@link #begin} returned mark, once a
+     * rollback has undone them: their change log records, and what the graph
+     * and column observers saw. Call under the graph write lock.
+     */
+    void rollback(long mark) {
+        synchronized (this) {
+            changes.truncate(mark);
+            observer.hasGraphChanged();
+            nodeValues.changed();
+            edgeValues.changed();
+        }
+    }
+
+    void bump() {
+        GraphLocks.readLock(graph);
+        try {
+            synchronized (this) {
+                nodeValues.changed();   // the API logged its own value edits
+                edgeValues.changed();
+                advance(observer.hasGraphChanged());   // fold structural changes into this bump
+            }
+        } finally { graph.readUnlock(); }
+    }
+
+    private void advance(boolean structural) {
+        boolean nodeSet = structural && changes.diff(observer.getDiff(), graph);
+        version = SEQUENCE.incrementAndGet();
+        if (nodeSet) nodes = version;
+        changes.seal(version);
+    }
+
+    /** Value and column observers of one table, following its columns as they come and go. */
+    private static final class Values {
+
+        private final Table table;
+        private final TableObserver columns;
+        private final Map<Column, ColumnObserver> observers = new HashMap<>();
+
+        Values(Table table) {
+            this.table = table;
+            this.columns = table.createTableObserver(false);
+            sync();
+        }
+
+        /** Whether a value or a column changed since the last call; polls every observer so none stays pending. */
+        boolean changed() {
+            boolean changed = columns.hasTableChanged();
+            if (changed) sync();
+            for (ColumnObserver o : observers.values()) {
+                if (o.hasColumnChanged()) changed = true;
+            }
+            return changed;
+        }
+
+        private void sync() {
+            Set<Column> present = new HashSet<>();
+            for (Column c : table) {
+                present.add(c);
+                if (!observers.containsKey(c)) {
+                    ColumnObserver o = c.createColumnObserver(false);
+                    if (o != null) observers.put(c, o);
+                }
+            }
+            for (Iterator<Map.Entry<Column, ColumnObserver>> it = observers.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Column, ColumnObserver> e = it.next();
+                if (!present.contains(e.getKey())) {
+                    if (!e.getValue().isDestroyed()) e.getValue().destroy();
+                    it.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.gephi.plugins.mcp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Cursor pages, and column writes addressed by the position of a node in a cursor listing. */
+public class PageCursorsTest {
+
+    private GraphModel gm;
+    private Graph g;
+    private WorkspaceVersion version;
+    private PageCursors cursors;
+
+    @Before
+    public void setUp() {
+        gm = GraphModel.Factory.newInstance();
+        g = gm.getGraph();
+        version = new WorkspaceVersion(gm);
+        cursors = new PageCursors(4);
+        for (int i = 0; i < 10; i++) g.addNode(gm.factory().newNode("n" + i));
+        version.bump();
+    }
+
+    private PageCursors.Page<Node> page(String cursor, int limit) {
+        g.readLock();
+        try {
+            return cursors.page(null, version.current(), "n", "", cursor, limit, () -> g.getNodes().toArray());
+        } finally {
+            g.readUnlock();
+        }
+    }
+
+    private static List<String> ids(PageCursors.Page<Node> page) {
+        List<String> ids = new ArrayList<>();
+        for (int i = page.from; i < page.to; i++) ids.add((String) page.elements[i].getId());
+        return ids;
+    }
+
+    @Test
+    public void pagesCoverTheListingOnce() {
+        Set<String> seen = new HashSet<>();
+        String cursor = "";
+        int pages = 0;
+        do {
+            PageCursors.Page<Node> page = page(cursor, 4);
+            assertFalse(page.graphChanged);
+            for (String id : ids(page)) assertTrue(seen.add(id));
+            cursor = page.next;
+            pages++;
+        } while (cursor != null);
+        assertEquals(10, seen.size());
+        assertEquals(3, pages);
+    }
+
+    @Test
+    public void resumesInTheCurrentGraphAfterAChange() {
+        PageCursors.Page<Node> first = page("", 4);
+        List<String> firstIds = ids(first);
+
+        g.removeNode(g.getNode("n7"));
+        g.addNode(gm.factory().newNode("late"));
+        version.bump();
+
+        Set<String> rest = new HashSet<>();
+        PageCursors.Page<Node> page = page(first.next, 4);
+        assertTrue(page.graphChanged);
+        while (true) {
+            for (String id : ids(page)) assertTrue(rest.add(id));
+            if (page.next == null) break;
+            page = page(page.next, 4);
+        }
+
+        Set<String> expected = new HashSet<>();
+        for (Node n : g.getNodes().toArray()) expected.add((String) n.getId());
+        expected.removeAll(firstIds);
+        assertEquals(expected, rest);
+        assertFalse(rest.contains("n7"));
+    }
+
+    @Test
+    public void denseWriteOrderSurvivesEdgeAndValueEdits() {
+        long listedAt = page("", 100).version;
+        Node[] order = PageCursors.byStoreId(g.getNodes().toArray());
+
+        g.addEdge(gm.factory().newEdge(g.getNode("n0"), g.getNode("n1")));
+        g.getNode("n2").setLabel("relabelled");
+        version.bump();
+
+        assertArrayEquals(order, PageCursors.listingOrder(g, listedAt, version.nodes()));
+    }
+
+    @Test
+    public void denseWriteIsRefusedAfterNodesCameAndWent() {
+        long listedAt = page("", 100).version;
+
+        g.removeNode(g.getNode("n3"));
+        g.addNode(gm.factory().newNode("replacement"));   // may take n3's store id
+        version.bump();
+        assertEquals(10, g.getNodeCount());
+
+        try {
+            PageCursors.listingOrder(g, listedAt, version.nodes());
+            fail("a write addressed by the old order must be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("fetch the id order again"));
+        }
+
+        long relisted = page("", 100).version;
+        assertEquals(10, PageCursors.listingOrder(g, relisted, version.nodes()).length);
+    }
+}
@@ -0,0 +1,73 @@
+package org.gephi.plugins.mcp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Spatial index reuse when nodes move without the API knowing, e.g. dragged in the Gephi UI. */
+public class SpatialIndexTest {
+
+    private Graph g;
+
+    @Before
+    public void setUp() {
+        GraphModel gm = GraphModel.Factory.newInstance();
+        g = gm.getGraph();
+        for (int i = 0; i < 1000; i++) {
+            Node n = gm.factory().newNode("n" + i);
+            n.setX(i % 40);
+            n.setY(i / 40);
+            g.addNode(n);
+        }
+    }
+
+    @Test
+    public void unmovedIndexIsReused() {
+        SpatialIndex index = SpatialIndex.build(g, 1);
+        assertSame(index, index.refresh());
+    }
+
+    @Test
+    public void movedNodeIsPatchedIn() {
+        SpatialIndex index = SpatialIndex.build(g, 1);
+        Node dragged = g.getNode("n0");
+        dragged.setX(500);
+        dragged.setY(500);
+
+        SpatialIndex patched = index.refresh();
+        assertNotNull(patched);
+        assertFalse(patched.isScan());
+        assertFalse(patched.box(-0.5, -0.5, 0.5, 0.5).contains(dragged));
+        assertTrue(patched.box(499, 499, 501, 501).contains(dragged));
+        List<SpatialIndex.Hit> nearest = patched.nearest(499, 499, 1, null);
+        assertSame(dragged, nearest.get(0).node);
+        assertEquals(1, patched.radius(500, 500, 1, null).size());
+        assertSame(patched, patched.refresh());
+    }
+
+    @Test
+    public void manyMovedNodesNeedANewIndex() {
+        SpatialIndex index = SpatialIndex.build(g, 1);
+        for (Node n : g.getNodes().toArray()) n.setX(n.x() + 1);
+        assertNull(index.refresh());
+    }
+
+    @Test
+    public void scanIsKeptOnlyWhileNothingMoves() {
+        SpatialIndex scan = SpatialIndex.scan(g, 1);
+        assertTrue(scan.isScan());
+        assertSame(scan, scan.refresh());
+        g.getNode("n5").setY(-3);
+        assertNull(scan.refresh());
+    }
+}
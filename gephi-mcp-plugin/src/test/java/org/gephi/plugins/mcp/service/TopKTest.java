@@ -0,0 +1,45 @@
+package org.gephi.plugins.mcp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+/** Top-k selection against a full sort, over one segment, many segments and k near the length. */
+public class TopKTest {
+
+    private static int[] sorted(double[] keys, int k, boolean ascending) {
+        Comparator<Integer> byKey = (a, b) -> ascending ? Double.compare(keys[a], keys[b]) : Double.compare(keys[b], keys[a]);
+        return IntStream.range(0, keys.length).boxed()
+            .filter(i -> !Double.isNaN(keys[i]))
+            .sorted(byKey.thenComparing(i -> i))
+            .limit(k).mapToInt(i -> i).toArray();
+    }
+
+    private static double[] keys(int n, long seed) {
+        Random random = new Random(seed);
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) keys[i] = random.nextInt(n / 4 + 1);   // plenty of ties
+        for (int i = 0; i < n; i += 97) keys[i] = Double.NaN;
+        return keys;
+    }
+
+    @Test
+    public void matchesASortWithinOneSegment() {
+        double[] keys = keys(5_000, 1);
+        for (int k : new int[] {1, 10, 4_900, 5_000}) {
+            assertArrayEquals(sorted(keys, k, false), TopK.select(keys, k, false));
+            assertArrayEquals(sorted(keys, k, true), TopK.select(keys, k, true));
+        }
+    }
+
+    @Test
+    public void matchesASortAcrossSegments() {
+        double[] keys = keys(300_000, 2);
+        for (int k : new int[] {1, 50, 4_096, 10_000, 300_000}) {
+            assertArrayEquals(sorted(keys, k, false), TopK.select(keys, k, false));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.gephi.plugins.mcp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.junit.Before;
+import org.junit.Test;
+
+/** A rolled-back transaction leaves neither graph changes nor change log records behind. */
+public class TransactionRollbackTest {
+
+    private GraphModel gm;
+    private Graph g;
+    private WorkspaceVersion version;
+
+    @Before
+    public void setUp() {
+        gm = GraphModel.Factory.newInstance();
+        g = gm.getGraph();
+        version = new WorkspaceVersion(gm);
+        for (int i = 0; i < 3; i++) {
+            Node n = gm.factory().newNode("n" + i);
+            n.setLabel("n" + i);
+            g.addNode(n);
+        }
+        version.bump();
+    }
+
+    @Test
+    public void rollbackRestoresGraphAndDropsChanges() {
+        long before = version.current();
+        g.writeLock();
+        try {
+            long mark = version.begin();
+            UndoLog undo = UndoLog.begin();
+            try {
+                Node n0 = g.getNode("n0");
+                UndoLog.label(n0);
+                n0.setLabel("renamed");
+                version.changes().node(n0, "label");
+                Node added = gm.factory().newNode("added");
+                g.addNode(added);
+                UndoLog.nodeAdded(added);
+                UndoLog.nodeRemoved(g, g.getNode("n1"));
+                g.removeNode(g.getNode("n1"));
+
+                undo.rollback(g);
+                version.rollback(mark);
+            } finally {
+                UndoLog.end();
+            }
+        } finally {
+            g.writeUnlock();
+        }
+        version.bump();
+
+        assertEquals("n0", g.getNode("n0").getLabel());
+        assertNull(g.getNode("added"));
+        assertNotNull(g.getNode("n1"));
+        assertEquals(3, g.getNodeCount());
+        ChangeLog.Slice slice = version.changes().since(before, version.current(), 100);
+        assertFalse(slice.resync);
+        assertTrue(slice.changes.isEmpty());
+    }
+
+    @Test
+    public void changesBeforeTheTransactionSurviveRollback() {
+        long before = version.current();
+        g.writeLock();
+        try {
+            Node n2 = g.getNode("n2");
+            n2.setLabel("kept");
+            version.changes().node(n2, "label");
+            long mark = version.begin();
+            UndoLog undo = UndoLog.begin();
+            try {
+                Node n0 = g.getNode("n0");
+                UndoLog.label(n0);
+                n0.setLabel("renamed");
+                version.changes().node(n0, "label");
+                undo.rollback(g);
+                version.rollback(mark);
+            } finally {
+                UndoLog.end();
+            }
+        } finally {
+            g.writeUnlock();
+        }
+        version.bump();
+
+        boolean kept = false;
+        for (ChangeLog.Change c : version.changes().since(before, version.current(), 100).changes) {
+            assertFalse("n0".equals(c.id));
+            if ("n2".equals(c.id) && "label".equals(c.field)) kept = true;
+        }
+        assertTrue(kept);
+    }
+}
@@ -12,8 +12,10 @@ Claude Code Skill:
 Developed by Matt Artz (https://www.mattartz.me)
 """
 
+import asyncio
 import json
 import logging
+import os
 from typing import Optional, List, Dict, Any
 from enum import Enum
 
@@ -24,8 +26,13 @@ from mcp.server.fastmcp import FastMCP
 logging.basicConfig(level=logging.INFO)
 logger = logging.getLogger("gephi_mcp")
 
-GEPHI_API_URL = "http://127.0.0.1:8080"
+GEPHI_API_URL = os.environ.get("GEPHI_API_URL", "http://127.0.0.1:8080")
+# Unix socket the plugin listens on when started with -Dgephi.mcp.socket=<path>; preferred over TCP when set
+GEPHI_SOCKET = os.environ.get("GEPHI_MCP_SOCKET")
 REQUEST_TIMEOUT = 60.0
+KEEPALIVE_EXPIRY = 4.0    # below the plugin's 5 s idle timeout on TCP connections
+BUSY_RETRIES = 3          # 429 answers retried after the server's Retry-After
+MAX_RETRY_AFTER = 10.0
 
 mcp = FastMCP("gephi_mcp")
 
@@ -33,21 +40,68 @@ mcp = FastMCP("gephi_mcp")
 # ==================== HTTP Client ====================
 
 class GephiClient:
-    def __init__(self, base_url: str = GEPHI_API_URL):
-        self.base_url = base_url.rstrip("/")
+    # GET responses kept for If-None-Match revalidation, keyed by endpoint and params
+    MAX_CACHED = 64
+
+    def __init__(self, base_url: str = GEPHI_API_URL, socket_path: Optional[str] = GEPHI_SOCKET):
+        self.socket_path = socket_path
+        # Over a Unix socket the host part is ignored, but httpx still needs an absolute URL
+        self.base_url = "http://gephi" if socket_path else base_url.rstrip("/")
         self.timeout = REQUEST_TIMEOUT
+        self._etag_cache: Dict[str, tuple] = {}
+        self._client: Optional[httpx.AsyncClient] = None
+
+    def _http(self) -> httpx.AsyncClient:
+        """One long-lived client, so calls reuse pooled keep-alive connections."""
+        if self._client is None or self._client.is_closed:
+            transport = httpx.AsyncHTTPTransport(uds=self.socket_path, retries=1)
+            self._client = httpx.AsyncClient(
+                transport=transport,
+                timeout=self.timeout,
+                limits=httpx.Limits(max_connections=16, max_keepalive_connections=8,
+                                    keepalive_expiry=KEEPALIVE_EXPIRY),
+            )
+        return self._client
+
+    def _where(self) -> str:
+        return f"unix:{self.socket_path}" if self.socket_path else self.base_url
 
     async def request(self, method: str, endpoint: str,
                       params: Optional[Dict[str, Any]] = None,
                       json_data: Optional[Dict[str, Any]] = None) -> Dict[str, Any]:
         url = f"{self.base_url}{endpoint}"
+        cache_key = None
+        headers = {}
+        if method == "GET":
+            cache_key = endpoint + "?" + json.dumps(params or {}, sort_keys=True)
+            cached = self._etag_cache.get(cache_key)
+            if cached:
+                headers["If-None-Match"] = cached[0]
         try:
-            async with httpx.AsyncClient(timeout=self.timeout) as client:
-                response = await client.request(method=method, url=url, params=params, json=json_data)
-                response.raise_for_status()
-                return response.json()
+            client = self._http()
+            for attempt in range(BUSY_RETRIES + 1):
+                response = await client.request(method=method, url=url, params=params, json=json_data,
+                                                headers=headers)
+                if response.status_code != 429 or attempt == BUSY_RETRIES:
+                    break
+                try:
+                    delay = float(response.headers.get("Retry-After", "1"))
+                except ValueError:
+                    delay = 1.0
+                await asyncio.sleep(min(max(delay, 0.1), MAX_RETRY_AFTER))
+            if response.status_code == 304 and cache_key in self._etag_cache:
+                return self._etag_cache[cache_key][1]
+            response.raise_for_status()
+            data = response.json()
+            etag = response.headers.get("ETag")
+            if cache_key and etag:
+                self._etag_cache.pop(cache_key, None)
+                if len(self._etag_cache) >= self.MAX_CACHED:
+                    self._etag_cache.pop(next(iter(self._etag_cache)))
+                self._etag_cache[cache_key] = (etag, data)
+            return data
         except httpx.ConnectError:
-            return {"success": False, "error": f"Cannot connect to Gephi at {self.base_url}. Ensure Gephi is running with the MCP plugin installed."}
+            return {"success": False, "error": f"Cannot connect to Gephi at {self._where()}. Ensure Gephi is running with the MCP plugin installed."}
         except httpx.TimeoutException:
             return {"success": False, "error": "Request timed out. The operation may still be running in Gephi."}
         except httpx.HTTPStatusError as e:
@@ -67,6 +121,14 @@ def fmt(data: Dict[str, Any]) -> str:
     return json.dumps(data, indent=2)
 
 
+def _add_projection(params: dict, query_params: dict) -> None:
+    """Copy the fields/attributes projection of a query tool into its query string."""
+    for key in ("fields", "attributes"):
+        value = params.get(key)
+        if value is not None:
+            query_params[key] = ",".join(value) if isinstance(value, list) else value
+
+
 # ==================== MCP Tools ====================
 
 # ─── Health ───────────────────────────────────────────────────
@@ -177,13 +239,28 @@ async def gephi_add_nodes(params: dict) -> str:
     """Add multiple nodes to the graph in a single batch operation.
 
     More efficient than adding nodes one at a time for large datasets.
-    Nodes with duplicate IDs will be skipped.
+    Nodes with duplicate IDs will be skipped. Each node may carry attributes;
+    an optional schema fixes the types of new columns.
 
     Args:
         params: AddNodesInput with list of node data
     """
     return fmt(await gephi.request("POST", "/graph/nodes/add", json_data=params))
 
+@mcp.tool(name="gephi_upsert_nodes")
+async def gephi_upsert_nodes(params: dict) -> str:
+    """Insert new nodes and update existing ones in a single batch operation.
+
+    Existing nodes get the given label and attributes; new nodes are added.
+    Attribute columns are created once per batch, typed from the optional
+    schema, else from the existing column, else from the first value seen.
+
+    Args:
+        params: {schema?: {key: "string"|"integer"|"long"|"float"|"double"|"boolean"},
+                 nodes: [{id: str, label?: str, attributes?: {key: value}}, ...]}
+    """
+    return fmt(await gephi.request("POST", "/graph/nodes/upsert", json_data=params))
+
 @mcp.tool(name="gephi_remove_node")
 async def gephi_remove_node(params: dict) -> str:
     """Remove a node and all its connected edges from the graph.
@@ -214,11 +291,39 @@ async def gephi_query_nodes(params: dict) -> str:
     Supports pagination for large graphs.
 
     Args:
-        params: QueryNodesInput with optional filters and pagination
+        params: {limit?: int, offset?: int, attr?: str, and with attr exactly one of
+                 eq (alias val), in: [values], min/max (inclusive), prefix: str;
+                 cursor?: str ("" for the first page, then next_cursor) to page
+                 in O(page size) instead of by offset; fields?: [id, label, x, y,
+                 size, degree, color, attributes] and attributes?: [column names]
+                 to return only those parts of each node}
     """
     query_params = {"limit": params.get("limit", 100), "offset": params.get("offset", 0)}
+    for key in ("attr", "eq", "val", "min", "max", "prefix", "cursor"):
+        if params.get(key) is not None:
+            query_params[key] = params[key]
+    _add_projection(params, query_params)
+    if params.get("in") is not None:
+        values = params["in"]
+        query_params["in"] = ",".join(str(v) for v in values) if isinstance(values, list) else values
     return fmt(await gephi.request("GET", "/graph/nodes", params=query_params))
 
+@mcp.tool(name="gephi_top_nodes")
+async def gephi_top_nodes(params: dict) -> str:
+    """Get the k highest (or lowest) ranked nodes by degree or a numeric column.
+
+    Use after computing statistics, e.g. the 50 nodes with the highest pagerank,
+    instead of paging through every node.
+
+    Args:
+        params: {by?: "degree" | "in_degree" | "out_degree" | "weighted_degree" (default degree),
+                 column?: str (a numeric column, instead of by), k?: int (default 10),
+                 order?: "desc" | "asc" (default desc), fields?: [...], attributes?: [column names]}
+    """
+    query_params = {k: params[k] for k in ("by", "column", "k", "order") if params.get(k) is not None}
+    _add_projection(params, query_params)
+    return fmt(await gephi.request("GET", "/graph/nodes/top", params=query_params))
+
 @mcp.tool(name="gephi_set_node_label")
 async def gephi_set_node_label(params: dict) -> str:
     """Set or change the label of a node.
@@ -266,7 +371,9 @@ async def gephi_add_edges(params: dict) -> str:
     """Add multiple edges to the graph in a single batch operation.
 
     More efficient than adding edges one at a time. Edges referencing
-    non-existent nodes will be skipped.
+    non-existent nodes will be skipped. Options: directed (default true),
+    type (edge type label), duplicates ("skip" default, "merge" to sum
+    weights into the existing edge, "parallel" to keep both), schema.
 
     Args:
         params: AddEdgesInput with list of edge data
@@ -305,12 +412,57 @@ async def gephi_query_edges(params: dict) -> str:
     """Query edges in the graph with pagination.
 
     Args:
-        params: {limit: int, offset: int}
+        params: {limit: int, offset: int, cursor?: str ("" for the first page,
+                 then the previous page's next_cursor), fields?: [source, target,
+                 weight, directed, label, color, attributes], attributes?: [column names]}
     """
     query_params = {"limit": params.get("limit", 100), "offset": params.get("offset", 0)}
+    if params.get("cursor") is not None:
+        query_params["cursor"] = params["cursor"]
+    _add_projection(params, query_params)
     return fmt(await gephi.request("GET", "/graph/edges", params=query_params))
 
 
+# ─── Spatial Queries ─────────────────────────────────────────
+
+@mcp.tool(name="gephi_nodes_in_box")
+async def gephi_nodes_in_box(params: dict) -> str:
+    """Find the nodes whose layout position lies inside a rectangle (a viewport).
+
+    Args:
+        params: {x1: float, y1: float, x2: float, y2: float, limit?: int (default 1000),
+                 fields?: [id, label, x, y, size, degree, color, attributes],
+                 attributes?: [column names]}
+    """
+    query_params = {k: params[k] for k in ("x1", "y1", "x2", "y2", "limit") if params.get(k) is not None}
+    _add_projection(params, query_params)
+    return fmt(await gephi.request("GET", "/graph/spatial/box", params=query_params))
+
+@mcp.tool(name="gephi_nearest_nodes")
+async def gephi_nearest_nodes(params: dict) -> str:
+    """Find the k nodes nearest to a node or to a point in the layout, nearest first.
+
+    Args:
+        params: {id?: str, or x: float and y: float; k?: int (default 10),
+                 fields?: [...], attributes?: [column names]}
+    """
+    query_params = {k: params[k] for k in ("id", "x", "y", "k") if params.get(k) is not None}
+    _add_projection(params, query_params)
+    return fmt(await gephi.request("GET", "/graph/spatial/nearest", params=query_params))
+
+@mcp.tool(name="gephi_nodes_within_radius")
+async def gephi_nodes_within_radius(params: dict) -> str:
+    """Find the nodes within a layout distance of a node or a point, nearest first.
+
+    Args:
+        params: {id?: str, or x: float and y: float; r: float, limit?: int (default 1000),
+                 fields?: [...], attributes?: [column names]}
+    """
+    query_params = {k: params[k] for k in ("id", "x", "y", "r", "limit") if params.get(k) is not None}
+    _add_projection(params, query_params)
+    return fmt(await gephi.request("GET", "/graph/spatial/radius", params=query_params))
+
+
 # ─── Graph Stats & Type ──────────────────────────────────────
 
 @mcp.tool(name="gephi_get_graph_stats")
@@ -333,6 +485,22 @@ async def gephi_get_graph_type(params: dict) -> str:
     """
     return fmt(await gephi.request("GET", "/graph/type"))
 
+@mcp.tool(name="gephi_get_changes")
+async def gephi_get_changes(params: dict) -> str:
+    """Get what changed in the graph since a version, instead of re-reading the whole graph.
+
+    Returns node and edge additions, removals and updates (with the field that
+    changed: label, position, color, size, weight or attributes; "all": true for
+    an update of every node or edge, e.g. after a statistic or layout). Call
+    without since to get the current version. When resync is true the log no
+    longer reaches back to since: re-read the graph and continue from version.
+
+    Args:
+        params: {since?: int (the version of the previous call), limit?: int (default 10000)}
+    """
+    query_params = {k: params[k] for k in ("since", "limit") if params.get(k) is not None}
+    return fmt(await gephi.request("GET", "/graph/changes", params=query_params))
+
 
 # ─── Attributes / Columns ────────────────────────────────────
 
@@ -372,6 +540,23 @@ async def gephi_batch_set_node_attributes(params: dict) -> str:
     """
     return fmt(await gephi.request("POST", "/graph/nodes/attributes", json_data=params))
 
+@mcp.tool(name="gephi_set_node_column")
+async def gephi_set_node_column(params: dict) -> str:
+    """Write one attribute column for many nodes, e.g. an externally computed score.
+
+    values[i] goes to node ids[i]. Without ids, values must cover every node
+    in the order of a cursor listing (gephi_query_nodes with cursor ""), and
+    version must be that listing's version; the write is refused if nodes
+    were added or removed since.
+    Numeric values can instead be sent as values_base64, little-endian doubles
+    with NaN for null. The column is created if needed.
+
+    Args:
+        params: {column: str, type?: str, ids?: [str], version?: int, values?: [value],
+                 values_base64?: str}
+    """
+    return fmt(await gephi.request("POST", "/graph/nodes/column", json_data=params))
+
 @mcp.tool(name="gephi_set_edge_attributes")
 async def gephi_set_edge_attributes(params: dict) -> str:
     """Set custom attributes on an edge. Creates columns automatically if needed.
@@ -448,11 +633,15 @@ async def gephi_color_by_partition(params: dict) -> str:
 async def gephi_color_by_ranking(params: dict) -> str:
     """Color nodes by a numeric attribute using a gradient (ranking coloring).
 
-    Maps numeric values to a color gradient from color_min to color_max.
-    Works well with degree, betweenness, pagerank, etc.
+    Maps numeric values to a color gradient from color_min to color_max, or
+    through several stops. Works well with degree, betweenness, pagerank, etc.
+    Heavy-tailed centralities read better with scale "log" or "quantile";
+    "percentile" stretches the range between two percentiles and clamps the rest.
 
     Args:
-        params: {column: str, r_min: int, g_min: int, b_min: int, r_max: int, g_max: int, b_max: int}
+        params: {column: str, r_min: int, g_min: int, b_min: int, r_max: int, g_max: int, b_max: int,
+                 stops?: [[r,g,b], ...] evenly spaced or [{at: 0..1, color: [r,g,b]}, ...],
+                 scale?: "linear"|"log"|"sqrt"|"quantile"|"percentile", percentiles?: [low, high] (5, 95)}
     """
     return fmt(await gephi.request("POST", "/appearance/ranking/color", json_data=params))
 
@@ -461,14 +650,40 @@ async def gephi_size_by_ranking(params: dict) -> str:
     """Size nodes by a numeric attribute (ranking sizing).
 
     Maps numeric values to node sizes between min_size and max_size.
-    Works well with degree, betweenness, pagerank, etc.
+    Works well with degree, betweenness, pagerank, etc. Takes the same
+    scales as gephi_color_by_ranking.
 
     Args:
-        params: {column: str, min_size: float, max_size: float}
+        params: {column: str, min_size: float, max_size: float,
+                 scale?: "linear"|"log"|"sqrt"|"quantile"|"percentile", percentiles?: [low, high] (5, 95)}
     """
     return fmt(await gephi.request("POST", "/appearance/ranking/size", json_data=params))
 
 
+@mcp.tool(name="gephi_apply_appearance")
+async def gephi_apply_appearance(params: dict) -> str:
+    """Apply several appearance transforms in one pass over the graph.
+
+    Prefer this to chaining color/size/label calls on large graphs: every node
+    is written once with its final color, size and label visibility, and every
+    edge once with its color. Transforms apply in order; a later one overrides
+    earlier ones on the nodes it covers. Only values that change are written.
+
+    Transform types and modes:
+    - node_color: partition {column, colors?}, ranking {column, scale?, percentiles?, stops?},
+      constant {color: [r,g,b,a?]}
+    - node_size: ranking {column, min_size? (5), max_size? (50), scale?, percentiles?}, constant {size}
+    - node_label: constant {visible? (true)}, top {column, count}, threshold {column, min};
+      top and threshold hide all other labels
+    - edge_color: constant {color}, source, target, mix (of the final endpoint colors)
+    - edge_thickness: weight {min_thickness? (1), max_thickness? (5)}
+
+    Args:
+        params: {transforms: [{type: str, mode: str, ...}, ...], refresh_preview?: bool (false)}
+    """
+    return fmt(await gephi.request("POST", "/appearance/pipeline", json_data=params))
+
+
 # ─── Layout ──────────────────────────────────────────────────
 
 @mcp.tool(name="gephi_run_layout")
@@ -503,7 +718,10 @@ async def gephi_stop_layout(params: dict) -> str:
 
 @mcp.tool(name="gephi_get_layout_status")
 async def gephi_get_layout_status(params: dict) -> str:
-    """Check if a layout algorithm is currently running.
+    """Check if a layout algorithm is running and how far it has got.
+
+    Reports iteration, total iterations, elapsed time and iterations per
+    second for the current (or most recent) layout run.
 
     Args:
         params: GetLayoutStatusInput for response format
@@ -885,6 +1103,82 @@ async def gephi_import_file(params: dict) -> str:
     return fmt(await gephi.request("POST", "/import/file", json_data=params))
 
 
+# ─── Batch ───────────────────────────────────────────────────
+
+@mcp.tool(name="gephi_batch")
+async def gephi_batch(params: dict) -> str:
+    """Run many graph operations in one request under a single graph lock.
+
+    Each operation names an HTTP endpoint, e.g.
+    {"method": "POST", "path": "/graph/node/add", "body": {"id": "a"}}.
+    Node, edge, attribute, column, per-node, partition and ranking appearance
+    endpoints can be batched; layout, statistics, filters, export and import cannot.
+    Operations run in order; by default the batch stops at the first failure.
+
+    Args:
+        params: {operations: [{method?: str, path: str, body?: dict, params?: dict}], stop_on_error?: bool}
+    """
+    return fmt(await gephi.request("POST", "/batch", json_data=params))
+
+
+@mcp.tool(name="gephi_transaction")
+async def gephi_transaction(params: dict) -> str:
+    """Run graph operations all-or-nothing under a single graph lock.
+
+    Takes the same operations as gephi_batch. If any operation fails, every
+    change already made by the transaction is undone, so the graph is left as
+    it was; other clients never see the intermediate state. With dry_run the
+    operations run and report their results, then are undone either way.
+
+    Args:
+        params: {operations: [{method?: str, path: str, body?: dict, params?: dict}], dry_run?: bool}
+    """
+    return fmt(await gephi.request("POST", "/transaction", json_data=params))
+
+
+# ─── Jobs ────────────────────────────────────────────────────
+
+@mcp.tool(name="gephi_submit_job")
+async def gephi_submit_job(params: dict) -> str:
+    """Start a long-running operation in the background and return its job ID.
+
+    Use for statistics on large graphs, imports and exports that could exceed
+    the request timeout. The operation names an HTTP endpoint, e.g.
+    {"path": "/statistics/betweenness"} or
+    {"path": "/import/file", "body": {"file": "/data/big.gexf"}}.
+    Poll with gephi_get_job.
+
+    Args:
+        params: {method?: str, path: str, body?: dict, params?: dict}
+    """
+    return fmt(await gephi.request("POST", "/jobs", json_data=params))
+
+@mcp.tool(name="gephi_get_job")
+async def gephi_get_job(params: dict) -> str:
+    """Get a job's state, progress, elapsed time and (once finished) its result.
+
+    Args:
+        params: {id: str}
+    """
+    job_id = params.get("id", "")
+    return fmt(await gephi.request("GET", f"/jobs/{job_id}"))
+
+@mcp.tool(name="gephi_cancel_job")
+async def gephi_cancel_job(params: dict) -> str:
+    """Cancel a queued or running job.
+
+    Args:
+        params: {id: str}
+    """
+    job_id = params.get("id", "")
+    return fmt(await gephi.request("POST", f"/jobs/{job_id}/cancel"))
+
+@mcp.tool(name="gephi_list_jobs")
+async def gephi_list_jobs() -> str:
+    """List queued, running and recently finished jobs."""
+    return fmt(await gephi.request("GET", "/jobs"))
+
+
 # ==================== Main Entry Point ====================
 
 if __name__ == "__main__":